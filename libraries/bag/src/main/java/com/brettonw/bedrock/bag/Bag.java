@@ -3,10 +3,39 @@ package com.brettonw.bedrock.bag;
 import com.brettonw.bedrock.bag.expr.BooleanExpr;
 import com.brettonw.bedrock.bag.formats.MimeType;
 
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 abstract public class Bag {
+    // in typed mode, numbers and booleans are stored in their native (boxed) form instead of being
+    // converted to strings, so the typed getters don't have to parse them back out
+    boolean typed;
+
+    // the count of modifications made to this Bag (not its children), used to invalidate values
+    // derived from the contents
+    int modCount;
+
+    // the hash code is cached, and recomputed only when the Bag has been modified since. Child bags
+    // are not included in the cached part, their (own cached) hash codes are combined in each time,
+    // so that changes made directly to a child are reflected in the hash code of its parents. the
+    // children are combined with their key hash (hashPairs) or weighted by their position. the
+    // whole hash code of a frozen Bag can't change, so it is cached as is
+    private static final Bag[] NO_CHILDREN = new Bag[0];
+    private static final int[] NO_WEIGHTS = new int[0];
+    private int hashModCount = -1;
+    private int hashBase;
+    private Bag[] hashChildren;
+    private int[] hashWeights;
+    private boolean hashPairs;
+    private boolean frozenHashSet;
+    private int frozenHash;
+
+    // a frozen Bag is deeply immutable, so its JSON text can be cached too
+    boolean frozen;
+    private String frozenText;
+
     Object objectify (Object value) {
         if (value != null) {
             var type = value.getClass ();
@@ -18,9 +47,11 @@ abstract public class Bag {
                     return value;
 
                 case "java.lang.Long": case "java.lang.Integer": case "java.lang.Short": case "java.lang.Byte":
-                case "java.lang.Character":
                 case "java.lang.Boolean":
                 case "java.lang.Double": case "java.lang.Float":
+                    return typed ? value : value.toString ();
+
+                case "java.lang.Character":
                     return value.toString ();
 
                 //case "BagObject":
@@ -30,6 +61,10 @@ abstract public class Bag {
                     return value;
 
                 default:
+                    // subclasses of the bag types (e.g. ConcurrentBagObject) are stored as is
+                    if (value instanceof Bag) {
+                        return value;
+                    }
                     // if it's an enum, just get the string value
                     if (type.isEnum ()) {
                         return ((Enum)value).name ();
@@ -42,6 +77,78 @@ abstract public class Bag {
         return null;
     }
 
+    /**
+     * Return whether or not the Bag stores numbers and booleans in their native form.
+     *
+     * @return true if the Bag is in typed mode.
+     */
+    public boolean isTyped () {
+        return typed;
+    }
+
+    /**
+     * Returns true if the object is a number or boolean value stored in its native form, as happens
+     * in a typed Bag.
+     */
+    static boolean isNativeValue (Object object) {
+        return (object instanceof Number) || (object instanceof Boolean);
+    }
+
+    /**
+     * Return whether or not the Bag is frozen (deeply immutable).
+     *
+     * @return true if the Bag was created by "freeze".
+     */
+    public boolean isFrozen () {
+        return frozen;
+    }
+
+    void checkMutable () {
+        if (frozen) {
+            throw new UnsupportedOperationException ("frozen");
+        }
+    }
+
+    /**
+     * Returns a frozen copy of a stored value, child bags that are already frozen are shared.
+     */
+    static Object freezeValue (Object value) {
+        return (value instanceof BagObject) ? ((BagObject) value).freeze () :
+                (value instanceof BagArray) ? ((BagArray) value).freeze () :
+                value;
+    }
+
+    /**
+     * Finish building a frozen Bag, precomputing the hash code before it can be seen by any other
+     * thread. Nothing about a frozen Bag is written after this, except the cached text (which is a
+     * String, and safe to share without synchronization).
+     */
+    void finishFreeze () {
+        frozen = true;
+        hashCode ();
+        VarHandle.releaseFence ();
+    }
+
+    /**
+     * Returns a deep copy of a stored value. Strings and native values are immutable, so they are
+     * shared rather than copied.
+     */
+    static Object copyValue (Object value) {
+        return (value instanceof BagObject) ? new BagObject ((BagObject) value) :
+                (value instanceof BagArray) ? new BagArray ((BagArray) value) :
+                value;
+    }
+
+    /**
+     * Returns a copy-on-write copy of a stored value, used when a Bag that shares its storage
+     * takes a private copy of it.
+     */
+    static Object copyOnWriteValue (Object value) {
+        return (value instanceof BagObject) ? ((BagObject) value).copyOnWrite () :
+                (value instanceof BagArray) ? ((BagArray) value).copyOnWrite () :
+                value;
+    }
+
     /**
      *
      * @param key
@@ -49,6 +156,30 @@ abstract public class Bag {
      */
     abstract public Object getObject (String key);
 
+    /**
+     * Return the element at one level of a precompiled path, where this Bag is the container at
+     * that level.
+     */
+    abstract Object getObject (KeyPath keyPath, int level);
+
+    /**
+     * Return an object stored at the requested precompiled path. The path is walked one level at a
+     * time without allocating anything.
+     *
+     * @param keyPath A precompiled path used to index the element, as from Key.compile.
+     * @return The indexed element (if found), or null
+     */
+    public Object getObject (KeyPath keyPath) {
+        Object found = this;
+        for (int level = 0, end = keyPath.getLength (); level < end; ++level) {
+            if (! (found instanceof Bag)) {
+                return null;
+            }
+            found = ((Bag) found).getObject (keyPath, level);
+        }
+        return found;
+    }
+
     /**
      * Returns true if the Selectable matches the 'match' criteria
      * @param booleanExpr a BooleanExpr containing criteria:
@@ -61,6 +192,39 @@ abstract public class Bag {
         return true;
     }
 
+    static String asString (Object object, Supplier<String> notFound) {
+        return (object instanceof String) ? (String) object : isNativeValue (object) ? object.toString () : notFound.get ();
+    }
+
+    static Boolean asBoolean (Object object, Supplier<Boolean> notFound) {
+        return (object instanceof Boolean) ? (Boolean) object :
+                (object instanceof String) ? Boolean.valueOf ((String) object) :
+                notFound.get ();
+    }
+
+    static <EnumType extends Enum<EnumType>> EnumType asEnum (Object object, Class<EnumType> type, Supplier<EnumType> notFound) {
+        return (object instanceof String) ? Enum.valueOf (type, (String) object) : notFound.get ();
+    }
+
+    static <ParsedType> ParsedType asParsed (Object object, Function<String, ParsedType> parser, Function<Number, ParsedType> converter, Supplier<ParsedType> notFound) {
+        // values stored in a typed bag are converted directly, without a round trip through a string
+        return (object instanceof String) ? parser.apply ((String) object) :
+                (object instanceof Number) ? converter.apply ((Number) object) :
+                notFound.get ();
+    }
+
+    static long asLongValue (Object object, long notFound) {
+        return (object instanceof Number) ? ((Number) object).longValue () :
+                (object instanceof String) ? Long.parseLong ((String) object) :
+                notFound;
+    }
+
+    static double asDoubleValue (Object object, double notFound) {
+        return (object instanceof Number) ? ((Number) object).doubleValue () :
+                (object instanceof String) ? Double.parseDouble ((String) object) :
+                notFound;
+    }
+
     /**
      * Retrieve a mapped element and return it as a String.
      *
@@ -80,7 +244,29 @@ abstract public class Bag {
      */
     public String getString (String key, Supplier<String> notFound) {
         var object = getObject (key);
-        return (object instanceof String) ? (String) object : notFound.get ();
+        return asString (object, notFound);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a String.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a string, or null if the element is not found (or not a String).
+     */
+    public String getString (KeyPath keyPath) {
+        return getString (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a String.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new String if the requested key was not found
+     * @return The element as a string, or notFound if the element is not found.
+     */
+    public String getString (KeyPath keyPath, Supplier<String> notFound) {
+        var object = getObject (keyPath);
+        return asString (object, notFound);
     }
 
     /**
@@ -105,6 +291,28 @@ abstract public class Bag {
         return (object instanceof BagObject) ? (BagObject) object : notFound.get ();
     }
 
+    /**
+     * Retrieve a mapped element and return it as a BagObject.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a BagObject, or null if the element is not found.
+     */
+    public BagObject getBagObject (KeyPath keyPath) {
+        return getBagObject (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a BagObject.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new BagObject if the requested key was not found
+     * @return The element as a BagObject, or notFound if the element is not found.
+     */
+    public BagObject getBagObject (KeyPath keyPath, Supplier<BagObject> notFound) {
+        var object = getObject (keyPath);
+        return (object instanceof BagObject) ? (BagObject) object : notFound.get ();
+    }
+
     /**
      * Retrieve a mapped element and return it as a BagArray.
      *
@@ -127,18 +335,42 @@ abstract public class Bag {
         return (object instanceof BagArray) ? (BagArray) object : notFound.get ();
     }
 
+    /**
+     * Retrieve a mapped element and return it as a BagArray.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a BagArray, or null if the element is not found.
+     */
+    public BagArray getBagArray (KeyPath keyPath) {
+        return getBagArray (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a BagArray.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new BagArray if the requested key was not found
+     * @return The element as a BagArray, or notFound if the element is not found.
+     */
+    public BagArray getBagArray (KeyPath keyPath, Supplier<BagArray> notFound) {
+        var object = getObject (keyPath);
+        return (object instanceof BagArray) ? (BagArray) object : notFound.get ();
+    }
+
     public <EnumType extends Enum<EnumType>> EnumType getEnum (String key, Class<EnumType> type) {
         return getEnum (key, type, () -> null);
     }
 
     public <EnumType extends Enum<EnumType>> EnumType getEnum (String key, Class<EnumType> type, Supplier<EnumType> notFound) {
-        var object = getObject (key);
-        return (object instanceof String) ? Enum.valueOf (type, (String) object) : notFound.get ();
+        return asEnum (getObject (key), type, notFound);
     }
 
-    private <ParsedType> ParsedType getParsed (String key, Function<String, ParsedType> parser, Supplier<ParsedType> notFound) {
-        var object = getObject (key);
-        return (object instanceof String) ? parser.apply ((String) object) : notFound.get ();
+    public <EnumType extends Enum<EnumType>> EnumType getEnum (KeyPath keyPath, Class<EnumType> type) {
+        return getEnum (keyPath, type, () -> null);
+    }
+
+    public <EnumType extends Enum<EnumType>> EnumType getEnum (KeyPath keyPath, Class<EnumType> type, Supplier<EnumType> notFound) {
+        return asEnum (getObject (keyPath), type, notFound);
     }
 
     /**
@@ -159,7 +391,30 @@ abstract public class Bag {
      * @return The element as a Boolean, or notFound if the element is not found.
      */
     public Boolean getBoolean (String key, Supplier<Boolean> notFound) {
-        return getParsed (key, Boolean::valueOf, notFound);
+        var object = getObject (key);
+        return asBoolean (object, notFound);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a Boolean.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a Boolean, or null if the element is not found.
+     */
+    public Boolean getBoolean (KeyPath keyPath) {
+        return getBoolean (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a Boolean.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Boolean if the requested key was not found
+     * @return The element as a Boolean, or notFound if the element is not found.
+     */
+    public Boolean getBoolean (KeyPath keyPath, Supplier<Boolean> notFound) {
+        var object = getObject (keyPath);
+        return asBoolean (object, notFound);
     }
 
     /**
@@ -180,7 +435,52 @@ abstract public class Bag {
      * @return The element as a Long, or notFound if the element is not found.
      */
     public Long getLong (String key, Supplier<Long> notFound) {
-        return getParsed (key, Long::valueOf, notFound);
+        var object = getObject (key);
+        return asParsed (object, Long::valueOf, number -> (number instanceof Long) ? (Long) number : number.longValue (), notFound);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a primitive long, without boxing it.
+     *
+     * @param key A string value used to index the element.
+     * @param notFound The value to return if the requested key was not found.
+     * @return The element as a long, or notFound if the element is not found.
+     */
+    public long getLongValue (String key, long notFound) {
+        return asLongValue (getObject (key), notFound);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a Long.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a Long, or null if the element is not found.
+     */
+    public Long getLong (KeyPath keyPath) {
+        return getLong (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a Long.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Long if the requested key was not found
+     * @return The element as a Long, or notFound if the element is not found.
+     */
+    public Long getLong (KeyPath keyPath, Supplier<Long> notFound) {
+        var object = getObject (keyPath);
+        return asParsed (object, Long::valueOf, number -> (number instanceof Long) ? (Long) number : number.longValue (), notFound);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a primitive long, without boxing it.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound The value to return if the requested key was not found.
+     * @return The element as a long, or notFound if the element is not found.
+     */
+    public long getLongValue (KeyPath keyPath, long notFound) {
+        return asLongValue (getObject (keyPath), notFound);
     }
 
     /**
@@ -201,7 +501,30 @@ abstract public class Bag {
      * @return The element as an Integer, or notFound if the element is not found.
      */
     public Integer getInteger (String key, Supplier<Integer> notFound) {
-        return getParsed (key, Integer::valueOf, notFound);
+        var object = getObject (key);
+        return asParsed (object, Integer::valueOf, number -> (number instanceof Integer) ? (Integer) number : number.intValue (), notFound);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as an Integer.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as an Integer, or null if the element is not found.
+     */
+    public Integer getInteger (KeyPath keyPath) {
+        return getInteger (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as an Integer.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Integer if the requested key was not found
+     * @return The element as an Integer, or notFound if the element is not found.
+     */
+    public Integer getInteger (KeyPath keyPath, Supplier<Integer> notFound) {
+        var object = getObject (keyPath);
+        return asParsed (object, Integer::valueOf, number -> (number instanceof Integer) ? (Integer) number : number.intValue (), notFound);
     }
 
     /**
@@ -222,7 +545,52 @@ abstract public class Bag {
      * @return The element as a Double, or notFound if the element is not found.
      */
     public Double getDouble (String key, Supplier<Double> notFound) {
-        return getParsed (key, Double::valueOf, notFound);
+        var object = getObject (key);
+        return asParsed (object, Double::valueOf, number -> (number instanceof Double) ? (Double) number : number.doubleValue (), notFound);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a primitive double, without boxing it.
+     *
+     * @param key A string value used to index the element.
+     * @param notFound The value to return if the requested key was not found.
+     * @return The element as a double, or notFound if the element is not found.
+     */
+    public double getDoubleValue (String key, double notFound) {
+        return asDoubleValue (getObject (key), notFound);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a Double.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a Double, or null if the element is not found.
+     */
+    public Double getDouble (KeyPath keyPath) {
+        return getDouble (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a Double.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Double if the requested key was not found
+     * @return The element as a Double, or notFound if the element is not found.
+     */
+    public Double getDouble (KeyPath keyPath, Supplier<Double> notFound) {
+        var object = getObject (keyPath);
+        return asParsed (object, Double::valueOf, number -> (number instanceof Double) ? (Double) number : number.doubleValue (), notFound);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a primitive double, without boxing it.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound The value to return if the requested key was not found.
+     * @return The element as a double, or notFound if the element is not found.
+     */
+    public double getDoubleValue (KeyPath keyPath, double notFound) {
+        return asDoubleValue (getObject (keyPath), notFound);
     }
 
     /**
@@ -243,28 +611,159 @@ abstract public class Bag {
      * @return The element as a Float, or notFound if the element is not found.
      */
     public Float getFloat (String key, Supplier<Float> notFound) {
-        return getParsed (key, Float::valueOf, notFound);
+        var object = getObject (key);
+        return asParsed (object, Float::valueOf, number -> (number instanceof Float) ? (Float) number : number.floatValue (), notFound);
     }
 
     /**
+     * Retrieve a mapped element and return it as a Float.
      *
-     * @param object
-     * @return
+     * @param keyPath A precompiled path used to index the element.
+     * @return The element as a Float, or null if the element is not found.
+     */
+    public Float getFloat (KeyPath keyPath) {
+        return getFloat (keyPath, () -> null);
+    }
+
+    /**
+     * Retrieve a mapped element and return it as a Float.
+     *
+     * @param keyPath A precompiled path used to index the element.
+     * @param notFound A function to create a new Float if the requested key was not found
+     * @return The element as a Float, or notFound if the element is not found.
+     */
+    public Float getFloat (KeyPath keyPath, Supplier<Float> notFound) {
+        var object = getObject (keyPath);
+        return asParsed (object, Float::valueOf, number -> (number instanceof Float) ? (Float) number : number.floatValue (), notFound);
+    }
+
+    /**
+     * Compare two Bags structurally, walking both trees and stopping at the first difference. Two
+     * Bags are equal if they are the same type, and would produce the same JSON text, so a typed
+     * value is equal to its string form. The (cached) hash codes are compared first, as a quick
+     * rejection.
+     *
+     * @param object the other Bag
+     * @return true if the two Bags have the same contents.
      */
     @Override
     public boolean equals (Object object) {
-        return (object != null) &&
+        return (this == object) || (
+                (object != null) &&
                 (getClass ().equals (object.getClass ())) &&
-                toString ().equals (object.toString ());
+                (hashCode () == object.hashCode ()) &&
+                equalContents ((Bag) object)
+        );
+    }
+
+    /**
+     * Compare the contents of this Bag to another Bag of the same type.
+     */
+    abstract boolean equalContents (Bag bag);
+
+    static boolean equalValues (Object left, Object right) {
+        if (left == right) {
+            return true;
+        }
+        if ((left == null) || (right == null)) {
+            return false;
+        }
+        if ((left instanceof Bag) || (right instanceof Bag)) {
+            return left.equals (right);
+        }
+        // scalar values are equal if their text forms are, so typed values compare the same as the
+        // strings they would be written as
+        return ((left instanceof String) && (right instanceof String)) ?
+                left.equals (right) : left.toString ().equals (right.toString ());
+    }
+
+    static int hashValue (Object value) {
+        return (value != null) ? value.toString ().hashCode () : 0;
+    }
+
+    /**
+     * Combine the hash codes of a key and its value, before the pairs of an object are summed. A
+     * plain sum or xor of the two can collide when values are swapped between keys, so they are
+     * mixed together (with the finalizer from MurmurHash3).
+     */
+    static int hashPair (int keyHash, int valueHash) {
+        var hash = (31 * keyHash) + valueHash;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
     }
 
     /**
+     * Return a hash code computed from the structure of the Bag. It is consistent with equals, and
+     * cached until the Bag is modified. Note that a change made directly to a child bag doesn't
+     * modify its parent, so the hash code of a Bag with child bags combines their (cached) hash
+     * codes on every call, which visits every bag in the tree. A frozen Bag can't change, so its
+     * whole hash code is cached, and it is the cheapest kind of Bag to use as a key in a map.
      *
-     * @return
+     * @return the hash code.
      */
     @Override
     public int hashCode () {
-        return toString ().hashCode ();
+        if (frozenHashSet) {
+            return frozenHash;
+        }
+        if (hashModCount != modCount) {
+            computeHash ();
+        }
+        var hash = hashBase;
+        for (int i = 0; i < hashChildren.length; ++i) {
+            var childHash = hashChildren[i].hashCode ();
+            hash += hashPairs ? hashPair (hashWeights[i], childHash) : (hashWeights[i] * childHash);
+        }
+        if (frozen) {
+            frozenHash = hash;
+            frozenHashSet = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Compute the cached part of the hash code, and report it through setHash.
+     */
+    abstract void computeHash ();
+
+    void setHash (int base, Bag[] children, int[] weights, int childCount, boolean pairs) {
+        hashBase = base;
+        hashPairs = pairs;
+        if (childCount > 0) {
+            hashChildren = Arrays.copyOf (children, childCount);
+            hashWeights = Arrays.copyOf (weights, childCount);
+        } else {
+            hashChildren = NO_CHILDREN;
+            hashWeights = NO_WEIGHTS;
+        }
+        hashModCount = modCount;
+    }
+
+    /**
+     * Add this Bag and everything reachable from it to a Footprint. Implementations add their own
+     * instance, storage, and values, and call measureCaches for the parts that every Bag has.
+     */
+    abstract void measure (Footprint footprint);
+
+    void measureCaches (Footprint footprint) {
+        if ((hashChildren != null) && (hashChildren.length > 0)) {
+            footprint.addBagOverhead (Footprint.arraySize (hashChildren.length, Footprint.REFERENCE) +
+                    Footprint.arraySize (hashWeights.length, Integer.BYTES));
+        }
+        footprint.addBagOverhead (frozenText);
+    }
+
+    /**
+     * Estimate the number of bytes of heap retained by this Bag and everything reachable from it,
+     * as in Footprint.measure, which also reports where the bytes go.
+     *
+     * @return The estimated size, in bytes.
+     */
+    public long estimateRetainedSize () {
+        return Footprint.measure (this).getTotal ();
     }
 
     /**
@@ -276,6 +775,15 @@ abstract public class Bag {
 
     @Override
     public String toString () {
+        if (frozen) {
+            // the text of a frozen bag can't change, so it's cached the first time it's requested.
+            // this is a benign race, as in String.hashCode - at worst it's computed more than once
+            var text = frozenText;
+            if (text == null) {
+                frozenText = text = toString (MimeType.DEFAULT);
+            }
+            return text;
+        }
         return toString(MimeType.DEFAULT);
     }
 }
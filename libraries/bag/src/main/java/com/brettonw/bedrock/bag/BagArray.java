@@ -3,7 +3,6 @@ package com.brettonw.bedrock.bag;
 import com.brettonw.bedrock.bag.expr.BooleanExpr;
 import com.brettonw.bedrock.bag.formats.FormatReader;
 import com.brettonw.bedrock.bag.formats.FormatWriter;
-import com.brettonw.bedrock.bag.formats.MimeType;
 import com.brettonw.bedrock.logger.*;
 
 
@@ -11,15 +10,20 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A collection of text-based values stored in a zero-based indexed array.
  * <p>
- * Note: the BagArray class, from a memory allocation standpoint, is not designed to work
- * efficiently with dynamic storage of very large numbers of elements (more than 1,000s). It will
- * work, but we have not chosen to focus on this as a potential use-case.
+ * Note: the underlying store grows geometrically, so appending is amortized O(1) even for very
+ * large arrays. Callers that know how big an array will get can say so up front (with the size
+ * hint in the constructor, or "ensureCapacity"), and "trimToSize" releases any unused capacity.
  */
 public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Object> {
     private static final Logger log = LogManager.getLogger (BagArray.class);
@@ -30,6 +34,14 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
     private Object[] container;
     private int count;
 
+    // the elements are stored in container[head .. head + count), so that removing or inserting at
+    // the front doesn't have to move everything else. the unused slots are always null
+    private int head;
+
+    // a copy-on-write BagArray shares its container with the BagArray it was copied from, until one
+    // of them is modified, or hands out one of its child bags
+    private boolean shared;
+
     /**
      * Create a new BagArray with a default underlying storage size.
      */
@@ -59,13 +71,158 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         // now steal the victim's soul and leave them to die
         container = victim.container;
         count = victim.count;
+        head = victim.head;
     }
 
     /**
-     * Create a new BagArray as deep copy of another BagArray
+     * Create a new BagArray as deep copy of another BagArray. The copy is structural, the elements
+     * are copied directly and child bags are copied recursively, without a round trip through
+     * text.
      */
     public BagArray (BagArray bagArray) {
-        this (new SourceAdapter (bagArray.toString (MimeType.DEFAULT), MimeType.DEFAULT));
+        // a view doesn't have storage of its own, so copy its current elements
+        bagArray = bagArray.materialize ();
+        count = bagArray.count;
+        container = new Object[Math.max (count, DEFAULT_CONTAINER_SIZE)];
+        for (int i = 0; i < count; ++i) {
+            container[i] = copyValue (bagArray.container[bagArray.head + i]);
+        }
+        typed = bagArray.typed;
+    }
+
+    /**
+     * Return a copy of this BagArray that shares its storage with the original until either one
+     * of them is modified. The first modification (or the first time a child bag is retrieved, so
+     * that it can't be modified through the other one) takes a private copy of one level of the
+     * tree, and the child bags at that level become copy-on-write copies in turn.
+     * <p>
+     * Note that retrieving child bags from either BagArray may replace its internal storage, so
+     * neither one is safe for concurrent readers. Child bags retrieved from the original before
+     * the copy was made are not isolated from it.
+     *
+     * @return A new BagArray, that compares as a deep copy of this one.
+     */
+    public BagArray copyOnWrite () {
+        var bagArray = new BagArray (0);
+        bagArray.container = container;
+        bagArray.count = count;
+        bagArray.head = head;
+        bagArray.typed = typed;
+
+        // a frozen BagArray is never modified, so it doesn't need to know it's being shared
+        bagArray.shared = true;
+        if (! frozen) {
+            shared = true;
+        }
+        return bagArray;
+    }
+
+    /**
+     * Return a frozen (deeply immutable) copy of this BagArray, or this BagArray if it is already
+     * frozen. The copy is compact, its children are frozen too, and its hash code is precomputed,
+     * so it is safe to share among threads that only read it, without copying or locking. Any
+     * attempt to modify a frozen BagArray throws an UnsupportedOperationException.
+     *
+     * @return A frozen BagArray with the same contents as this one.
+     */
+    public BagArray freeze () {
+        if (frozen) {
+            return this;
+        }
+        var bagArray = new BagArray (0);
+        // never zero length, so a copy-on-write copy of it can grow
+        bagArray.container = new Object[Math.max (count, DEFAULT_CONTAINER_SIZE)];
+        bagArray.count = count;
+        for (int i = 0; i < count; ++i) {
+            bagArray.container[i] = freezeValue (container[head + i]);
+        }
+        bagArray.typed = typed;
+        bagArray.finishFreeze ();
+        return bagArray;
+    }
+
+    /**
+     * Return a copy of this BagArray that holds the same elements, including the same child bags,
+     * in a container of its own with room for at least the given number of elements. The copy is
+     * shared (see copyOnWrite) if this one is, so child bags that are shared with another copy
+     * are still isolated from it.
+     */
+    BagArray shallowCopy (int capacity) {
+        var source = materialize ();
+        var bagArray = new BagArray (0);
+        bagArray.container = Arrays.copyOfRange (source.container, source.head, source.head + Math.max (Math.max (capacity, source.count), DEFAULT_CONTAINER_SIZE));
+        bagArray.count = source.count;
+        bagArray.typed = source.typed;
+        bagArray.shared = source.shared;
+        return bagArray;
+    }
+
+    private void unshare () {
+        if (shared) {
+            // take a private copy of the elements, with the child bags replaced by copy-on-write
+            // copies of themselves
+            var src = container;
+            container = new Object[Math.max (src.length, DEFAULT_CONTAINER_SIZE)];
+            for (int i = head, end = head + count; i < end; ++i) {
+                container[i] = copyOnWriteValue (src[i]);
+            }
+            shared = false;
+            ++modCount;
+        }
+    }
+
+    /**
+     * Make sure the underlying store can hold at least the requested number of elements without
+     * being resized.
+     *
+     * @param capacity The expected number of elements in the BagArray.
+     * @return The BagArray, so that operations can be chained together.
+     */
+    public BagArray ensureCapacity (int capacity) {
+        if (capacity > (container.length - head)) {
+            checkMutable ();
+            // a shared container is left as it is for the other copy, the elements are still shared
+            container = Arrays.copyOfRange (container, head, head + capacity);
+            head = 0;
+        }
+        return this;
+    }
+
+    /**
+     * Shrink the underlying store to the number of elements in the BagArray, releasing any unused
+     * capacity.
+     *
+     * @return The BagArray, so that operations can be chained together.
+     */
+    public BagArray trimToSize () {
+        var size = Math.max (count, DEFAULT_CONTAINER_SIZE);
+        if (container.length > size) {
+            container = Arrays.copyOfRange (container, head, head + size);
+            head = 0;
+        }
+        return this;
+    }
+
+    /**
+     * Switch the BagArray to typed storage, where numbers and booleans are kept in their native
+     * form rather than converted to strings. Values stored before the switch are not converted.
+     * Arrays derived from this one (by map, filter, select, etc.) inherit the mode. The JSON text
+     * produced by a typed BagArray is the same as for a string-only one.
+     *
+     * @return The BagArray, so that operations can be chained together.
+     */
+    public BagArray typed () {
+        if (! typed) {
+            checkMutable ();
+            typed = true;
+        }
+        return this;
+    }
+
+    private BagArray newDerived (int size) {
+        var bagArray = new BagArray (size);
+        bagArray.typed = typed;
+        return bagArray;
     }
 
     /**
@@ -79,11 +236,13 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
     }
 
     private void grow (int gapIndex) {
-        // save the existing container
-        var src = container;
+        // make sure the container is not shared or frozen before changing it
+        checkMutable ();
+        unshare ();
+        ++modCount;
 
-        // compute the number of values that will have to move, and from it, the new count - and
-        // therefore the new size needed to include all of the elements of the array. the cases are:
+        // compute the number of values that will have to move, and from it, the new count. the
+        // cases are:
         //
         // 1) the gapIndex is in the area of the array already in use, some elements will have to be
         //    moved to make room for the new element, and the array might need to be expanded to
@@ -97,26 +256,56 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         //    have to be moved o make room for it, but the array might need to be expanded to
         //    accommodate the new element
         var moveCount = count - gapIndex;
-        count = 1 + ((moveCount > 0) ? count : gapIndex);
-
-        // get the size of the array and resize it if necessary (copying the existing elements to
-        // the new array - note that this means a sparse insertion will result in null elements in
-        // the array
-        var size = container.length;
-        if (count > size) {
-            do {
-                // if the array is smaller than the cap then double its size, otherwise just add the block
-                size = (size > DOUBLING_CAP) ? (size + DOUBLING_CAP) : (size * 2);
-            }
-            while (count > size);
-            container = new Object[size];
-            System.arraycopy (src, 0, container, 0, Math.min (gapIndex, src.length));
+        var newCount = 1 + ((moveCount > 0) ? count : gapIndex);
+
+        // the elements occupy a window of the container starting at 'head', so there might be
+        // room at either end. use whichever is cheapest, and only lay the elements out again when
+        // there is no room where it's needed. note that the unused slots are always null, so a
+        // sparse insertion will result in null elements in the array
+        var roomAtEnd = (head + newCount) <= container.length;
+        if ((gapIndex == 0) && (head > 0)) {
+            // inserting at the front, and there is room there
+            --head;
+        } else if ((moveCount <= 0) && roomAtEnd) {
+            // appending, and there is room at the end - nothing to move
+        } else if ((moveCount > 0) && (gapIndex > 0) && (head > 0) && ((gapIndex < moveCount) || (! roomAtEnd))) {
+            // inserting in the middle, move the elements before the gap down into the room at the
+            // front
+            System.arraycopy (container, head, container, head - 1, gapIndex);
+            --head;
+        } else if ((moveCount > 0) && (gapIndex > 0) && roomAtEnd) {
+            // inserting in the middle, move the elements after the gap up into the room at the end
+            System.arraycopy (container, head + gapIndex, container, head + gapIndex + 1, moveCount);
+        } else {
+            relayout (gapIndex, newCount);
+        }
+        count = newCount;
+    }
+
+    private void relayout (int gapIndex, int newCount) {
+        // figure the size of the new container. plain appends only need room for the new count,
+        // but anything else (a queue that has drifted to the end of the container, or an insert at
+        // the front) needs some slack to make the move worthwhile, so that operations at either
+        // end are amortized O(1)
+        var size = Math.max (container.length, DEFAULT_CONTAINER_SIZE);
+        var required = ((head == 0) && (gapIndex >= count)) ? newCount : (newCount + (newCount >> 1));
+        while (size < required) {
+            // if the array is smaller than the cap then double its size, otherwise grow it by half,
+            // so large arrays don't waste as much space but are still copied only O(log n) times
+            // as they grow
+            size = (size > DOUBLING_CAP) ? (size + (size >> 1)) : (size * 2);
         }
 
-        // if needed, copy elements after the gapIndex
-        if (moveCount > 0) {
-            System.arraycopy (src, gapIndex, container, gapIndex + 1, moveCount);
+        // the slack goes at the front when inserting there, so repeated inserts at the front are
+        // cheap, otherwise it goes at the end
+        var newHead = (gapIndex == 0) ? ((size - newCount + 1) / 2) : 0;
+        var src = container;
+        container = new Object[size];
+        System.arraycopy (src, head, container, newHead, Math.min (gapIndex, count));
+        if (gapIndex < count) {
+            System.arraycopy (src, head + gapIndex, container, newHead + gapIndex + 1, count - gapIndex);
         }
+        head = newHead;
     }
 
     /**
@@ -134,7 +323,7 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
     public BagArray insert (int index, Object object) {
         grow (index);
         // note that arrays can store null objects, unlike bags
-        container[index] = objectify (object);
+        container[head + index] = objectify (object);
         return this;
     }
 
@@ -168,11 +357,16 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return
      */
     public static BagArray concat (BagArray left, BagArray right) {
+        left = left.materialize ();
+        right = right.materialize ();
+        left.unshare ();
+        right.unshare ();
         var count = left.count + right.count;
         var bagArray = new BagArray (count);
+        bagArray.typed = left.typed || right.typed;
         bagArray.count = count;
-        System.arraycopy (left.container, 0, bagArray.container, 0, left.count);
-        System.arraycopy (right.container, 0, bagArray.container, left.count, right.count);
+        System.arraycopy (left.container, left.head, bagArray.container, 0, left.count);
+        System.arraycopy (right.container, right.head, bagArray.container, left.count, right.count);
         return bagArray;
     }
 
@@ -188,16 +382,32 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return The BagArray, so that operations can be chained together.
      */
     public BagArray replace (int index, Object object) {
+        checkMutable ();
+        unshare ();
+        ++modCount;
         // note that arrays can store null objects, unlike bags
-        container[index] = objectify (object);
+        container[head + index] = objectify (object);
         return this;
     }
 
     private void removeIndex (int index) {
         // assumes index has already been checked for validity
-        var gapIndex = index + 1;
-        System.arraycopy (container, gapIndex, container, index, count - gapIndex);
-        --count;
+        checkMutable ();
+        unshare ();
+        ++modCount;
+        // close the gap by moving whichever side of it is smaller, and clear the slot that is
+        // vacated so it doesn't hold on to the removed element
+        var last = count - 1;
+        if (index < (last - index)) {
+            System.arraycopy (container, head, container, head + 1, index);
+            container[head++] = null;
+        } else {
+            System.arraycopy (container, head + index + 1, container, head + index, last - index);
+            container[head + last] = null;
+        }
+        if ((count = last) == 0) {
+            head = 0;
+        }
     }
 
     /**
@@ -216,7 +426,17 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
     }
 
     public Object getObject (int index) {
-        return ((index >= 0) && (index < count)) ? container[index] : null;
+        if ((index >= 0) && (index < count)) {
+            // child bags can't be handed out while they are shared, or changes made to them would
+            // show up in the copy too
+            var object = container[head + index];
+            if (shared && (object instanceof Bag)) {
+                unshare ();
+                object = container[head + index];
+            }
+            return object;
+        }
+        return null;
     }
 
     /**
@@ -226,7 +446,9 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      */
     public Object getAndRemove (int index) {
         if ((index >= 0) && (index < count)) {
-            var object = container[index];
+            checkMutable ();
+            unshare ();
+            var object = container[head + index];
             removeIndex (index);
             return object;
         }
@@ -252,7 +474,7 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
     private int keyToIndex (String key) {
         switch (key) {
             case "#first": return 0;
-            case "#last": return count - 1;
+            case "#last": return getCount () - 1;
             //case "#add": return count;
             default: return Integer.parseInt (key);
         }
@@ -276,15 +498,20 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         // found the requested key
         var path = Key.split (key);
         var index = keyToIndex (path[0]);
-        if ((index >= 0) && (index < count)) {
+        if ((index >= 0) && (index < getCount ())) {
             // grab the found element... if the path was only one element long, this is the element
             // we were looking for, otherwise recur on the found element as another BagObject
-            var found = container[index];
+            var found = getObject (index);
             return (path.length == 1) ? found : ((Bag) found).getObject (path[1]);
         }
         return null;
     }
 
+    @Override
+    Object getObject (KeyPath keyPath, int level) {
+        return getObject (keyPath.getIndex (level, getCount ()));
+    }
+
     /**
      * Retrieve an indexed element and return it as a String.
      *
@@ -293,6 +520,9 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      */
     public String getString (int index) {
         var object = getObject (index);
+        if (isNativeValue (object)) {
+            return object.toString ();
+        }
         try {
             return (String) object;
         } catch (ClassCastException exception) {
@@ -308,6 +538,10 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return The element as a Boolean, or null if the element is not found.
      */
     public Boolean getBoolean (int index) {
+        var object = getObject (index);
+        if (object instanceof Boolean) {
+            return (Boolean) object;
+        }
         var string = getString (index);
         return (string != null) ? Boolean.parseBoolean (string) : null;
     }
@@ -320,10 +554,28 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      */
     @SuppressWarnings ("WeakerAccess")
     public Long getLong (int index) {
+        var object = getObject (index);
+        if (object instanceof Number) {
+            return (object instanceof Long) ? (Long) object : ((Number) object).longValue ();
+        }
         var string = getString (index);
         return (string != null) ? Long.parseLong (string) : null;
     }
 
+    /**
+     * Retrieve an indexed element and return it as a primitive long, without boxing it.
+     *
+     * @param index An integer value specifying the offset from the beginning of the array.
+     * @param notFound The value to return if the element is not found.
+     * @return The element as a long, or notFound if the element is not found.
+     */
+    public long getLongValue (int index, long notFound) {
+        var object = getObject (index);
+        return (object instanceof Number) ? ((Number) object).longValue () :
+                (object instanceof String) ? Long.parseLong ((String) object) :
+                notFound;
+    }
+
     /**
      * Retrieve an indexed element and return it as an Integer.
      *
@@ -342,10 +594,28 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return The element as a Double, or null if the element is not found.
      */
     public Double getDouble (int index) {
+        var object = getObject (index);
+        if (object instanceof Number) {
+            return (object instanceof Double) ? (Double) object : ((Number) object).doubleValue ();
+        }
         var string = getString (index);
         return (string != null) ? Double.parseDouble (string) : null;
     }
 
+    /**
+     * Retrieve an indexed element and return it as a primitive double, without boxing it.
+     *
+     * @param index An integer value specifying the offset from the beginning of the array.
+     * @param notFound The value to return if the element is not found.
+     * @return The element as a double, or notFound if the element is not found.
+     */
+    public double getDoubleValue (int index, double notFound) {
+        var object = getObject (index);
+        return (object instanceof Number) ? ((Number) object).doubleValue () :
+                (object instanceof String) ? Double.parseDouble ((String) object) :
+                notFound;
+    }
+
     /**
      * Retrieve an indexed element and return it as a Float.
      *
@@ -389,6 +659,57 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         return null;
     }
 
+    @Override
+    boolean equalContents (Bag bag) {
+        var bagArray = (BagArray) bag;
+        if (count != bagArray.count) {
+            return false;
+        }
+        for (int i = 0; i < count; ++i) {
+            if (! equalValues (container[head + i], bagArray.container[bagArray.head + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void computeHash () {
+        // the elements are weighted by position (as in List.hashCode), the weights of the child
+        // bags are saved so their hash codes can be added in later
+        var hash = 0;
+        var weight = 1;
+        var children = new Bag[count];
+        var weights = new int[count];
+        var childCount = 0;
+        for (int i = count - 1; i >= 0; --i) {
+            var object = container[head + i];
+            if (object instanceof Bag) {
+                children[childCount] = (Bag) object;
+                weights[childCount++] = weight;
+            } else {
+                hash += weight * hashValue (object);
+            }
+            weight *= 31;
+        }
+        setHash (hash, children, weights, childCount, false);
+    }
+
+    @Override
+    void measure (Footprint footprint) {
+        footprint.addBag (Footprint.bagSize (1, 2, 1));
+        measureCaches (footprint);
+
+        // a container shared by copy-on-write copies is only counted once. the slack includes the
+        // room at the front as well as at the end
+        if (footprint.visit (container)) {
+            footprint.addContainer (container.length, count, Footprint.REFERENCE);
+            for (int i = 0; i < count; ++i) {
+                footprint.addValue (container[head + i]);
+            }
+        }
+    }
+
     @Override
     public String toString (String format) {
         return FormatWriter.write (this, format);
@@ -400,18 +721,21 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      * @return
      */
     public BagArray map (Function<Object, Object> function) {
-        var bagArray = new BagArray (count);
+        unshare ();
+        var bagArray = newDerived (count);
         for (int i = 0; i < count; ++i) {
-            bagArray.add (function.apply (container[i]));
+            bagArray.add (function.apply (container[head + i]));
         }
         return bagArray;
     }
 
     public BagArray filter (Predicate<Object> predicate) {
-        var bagArray = new BagArray ();
+        unshare ();
+        var bagArray = newDerived (UNKNOWN_SIZE);
         for (int i = 0; i < count; ++i) {
-            if (predicate.test (container[i])) {
-                bagArray.add (container[i]);
+            var object = container[head + i];
+            if (predicate.test (object)) {
+                bagArray.add (object);
             }
         }
         return bagArray;
@@ -419,6 +743,7 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
 
     @Override
     public Iterator<Object> iterator () {
+        unshare ();
         return new Iterator<Object> () {
             private int i;
 
@@ -429,7 +754,7 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
 
             @Override
             public Object next() {
-                return container[i++];
+                return container[head + i++];
             }
 
             @Override
@@ -439,11 +764,112 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
         };
     }
 
+    /**
+     * Return a spliterator over the elements of the BagArray. It covers the underlying store
+     * directly, and splits it in halves, so it works well for parallel streams.
+     *
+     * @return A Spliterator over the elements, in order.
+     */
+    @Override
+    public Spliterator<Object> spliterator () {
+        // the child bags are handed out, so they can't be shared
+        unshare ();
+        return Spliterators.spliterator (container, head, head + count, Spliterator.ORDERED | (frozen ? Spliterator.IMMUTABLE : 0));
+    }
+
+    /**
+     * Return a sequential Stream over the elements of the BagArray.
+     *
+     * @return A Stream of the elements, in order.
+     */
+    public Stream<Object> stream () {
+        return StreamSupport.stream (spliterator (), false);
+    }
+
+    /**
+     * Return a parallel Stream over the elements of the BagArray. The BagArray must not be modified
+     * while the stream is in use. Use BagCollectors to gather the results into a new Bag.
+     *
+     * @return A parallel Stream of the elements, in order.
+     */
+    public Stream<Object> parallelStream () {
+        return StreamSupport.stream (spliterator (), true);
+    }
+
+    // marks the elements that are dropped by the parallel operations
+    private static final Object SKIP = new Object ();
+
+    private BagArray parallelGather (Function<Object, Object> function) {
+        // compute the result for each element in parallel (each task writes only to its own slots,
+        // and the stream completing makes them all visible), then gather the ones that weren't
+        // skipped, in order
+        unshare ();
+        var source = container;
+        var offset = head;
+        var results = new Object[count];
+        IntStream.range (0, count).parallel ().forEach (i -> results[i] = function.apply (source[offset + i]));
+        var found = 0;
+        for (var result : results) {
+            if (result != SKIP) {
+                ++found;
+            }
+        }
+        var bagArray = newDerived (found);
+        for (var result : results) {
+            if (result != SKIP) {
+                bagArray.container[bagArray.count++] = result;
+            }
+        }
+        return bagArray;
+    }
+
+    /**
+     * A version of "map" that applies the function to the elements in parallel, on the common
+     * fork/join pool. The function must be safe to call from multiple threads.
+     *
+     * @param function A function applied to each element.
+     * @return A new BagArray with the results, in the same order as the elements.
+     */
+    public BagArray parallelMap (Function<Object, Object> function) {
+        return parallelGather (object -> objectify (function.apply (object)));
+    }
+
+    /**
+     * A version of "filter" that tests the elements in parallel, on the common fork/join pool. The
+     * predicate must be safe to call from multiple threads.
+     *
+     * @param predicate A test applied to each element.
+     * @return A new BagArray with the elements that pass the test, in their original order.
+     */
+    public BagArray parallelFilter (Predicate<Object> predicate) {
+        return parallelGather (object -> predicate.test (object) ? object : SKIP);
+    }
+
+    /**
+     * A version of "query" that matches and selects the elements in parallel, on the common
+     * fork/join pool.
+     *
+     * @param match a BooleanExpr describing the match criteria
+     * @param selectKey a SelectKey with the values to extract
+     * @return A new BagArray with the selected parts of the matching elements, in order.
+     */
+    public BagArray parallelQuery (BooleanExpr match, SelectKey selectKey) {
+        return parallelGather (object -> {
+            if (object instanceof Bag) {
+                var bag = (Bag) object;
+                if ((match == null) || bag.match (match)) {
+                    return ((Selectable) bag).select (selectKey);
+                }
+            }
+            return SKIP;
+        });
+    }
+
     @Override
     public BagArray select (SelectKey selectKey) {
         if (selectKey != null) {
-            final var bagArray = new BagArray ();
-            for (int i = 0; i < count; ++i) {
+            final var bagArray = newDerived (UNKNOWN_SIZE);
+            for (int i = 0, end = getCount (); i < end; ++i) {
                 var key = Integer.toString (i);
                 if ((key = selectKey.select (key)) != null) {
                     var object = getObject (key);
@@ -463,21 +889,24 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
     public BagArray sort (SortKey... keys) {
         // final value, so that lambda expressions can reference it
         var sortKeys = (keys != null) ? keys : SortKey.DEFAULT;
+        checkMutable ();
+        unshare ();
+        ++modCount;
 
         // if there is no key
         if (sortKeys[0].getKey () == null) {
             // we'll treat the array as strings or bare value, and just sort it
-            Arrays.sort (container, 0, count, (a, b) -> {
-                return sortKeys[0].compare ((String) a, (String) b);
+            Arrays.sort (container, head, head + count, (a, b) -> {
+                return sortKeys[0].compare (a, b);
             });
         } else {
             // we'll sort using the keys hierarchically...
-            Arrays.sort (container, 0, count, (a, b) -> {
+            Arrays.sort (container, head, head + count, (a, b) -> {
                 for (var sortKey : sortKeys) {
                     var key = sortKey.getKey();
                     var objectA = (a != null) ? ((Bag) a).getObject(key) : null;
                     var objectB = (b != null) ? ((Bag) b).getObject(key) : null;
-                    var cmp = sortKey.compare((String) objectA, (String) objectB);
+                    var cmp = sortKey.compare(objectA, objectB);
                     if (cmp != 0) {
                         return cmp;
                     }
@@ -496,10 +925,12 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
      */
     public BagArray query (BooleanExpr match, SelectKey selectKey) {
         // create the destination
-        var bagArray = new BagArray ();
+        unshare ();
+        var bagArray = newDerived (UNKNOWN_SIZE);
 
         // loop over all of the objects
-        for (var object : container) {
+        for (int i = 0; i < count; ++i) {
+            var object = container[head + i];
             if (object instanceof Bag) {
                 // try to match the 'match' clause
                 var bag = (Bag) object;
@@ -521,16 +952,69 @@ public class BagArray extends Bag implements Selectable<BagArray>, Iterable<Obje
 
     public BagArray subset (int start, int count) {
         count = Math.min (count, getCount () - start);
-        var bagArray = new BagArray (count);
+        unshare ();
+        var bagArray = newDerived (count);
         for (int i = 0; i < count; ++i) {
-            bagArray.add (container[i + start]);
+            bagArray.add (container[head + start + i]);
         }
         return bagArray;
     }
 
+    /**
+     * Return a read-only view of a range of elements, as in "subset", without copying them. The
+     * view reads through to this BagArray, so it reflects later changes to it.
+     *
+     * @param start The index of the first element in the view.
+     * @param count The maximum number of elements in the view.
+     * @return A read-only BagArray.
+     */
+    public BagArray subsetView (int start, int count) {
+        return new BagArrayView.Window (this, start, count);
+    }
+
+    /**
+     * Return a read-only view of the elements that pass a test, as in "filter", without copying
+     * them. The elements are only tested as far as they are read, so reading the first page of a
+     * large result is cheap, but "getCount" has to test all of them.
+     * <p>
+     * The results of the tests are kept, and only thrown away when this BagArray is modified (an
+     * element set, added, or removed). If the predicate reads the inside of a child bag, changing
+     * that child doesn't modify this BagArray, so the view can go on returning elements that no
+     * longer pass (or missing ones that now do). Make a new view after changes like that.
+     *
+     * @param predicate A test applied to each element.
+     * @return A read-only BagArray.
+     */
+    public BagArray filterView (Predicate<Object> predicate) {
+        return new BagArrayView.Filtered (this, predicate);
+    }
+
+    /**
+     * Return a read-only view of the elements chosen by a SelectKey, as in "select", without
+     * copying them.
+     *
+     * @param selectKey A SelectKey with the indices to choose.
+     * @return A read-only BagArray, or this BagArray if the selectKey is null.
+     */
+    public BagArray selectView (SelectKey selectKey) {
+        return (selectKey != null) ? new BagArrayView.Selected (this, selectKey) : this;
+    }
+
+    /**
+     * Return a normal BagArray with the contents of this one. Views (from "subsetView",
+     * "filterView", or "selectView") return a new BagArray with their current elements, any
+     * other BagArray is returned as is.
+     *
+     * @return A BagArray that is not a view.
+     */
+    public BagArray materialize () {
+        return this;
+    }
+
     public <Type> Type[] toArray (Class<Type> type) {
         try {
             var constructor = type.getConstructor (String.class);
+            var count = getCount ();
             @SuppressWarnings("unchecked")
             var target = (Type[]) Array.newInstance (type, new int[] { count });
             for (int i = 0; i < count; ++i) {
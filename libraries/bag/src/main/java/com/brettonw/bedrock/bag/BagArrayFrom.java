@@ -1,7 +1,11 @@
 package com.brettonw.bedrock.bag;
 
 import com.brettonw.bedrock.bag.formats.FormatReader;
+import com.brettonw.bedrock.bag.formats.FormatReaderBinary;
+import com.brettonw.bedrock.bag.formats.FormatReaderJsonLines;
+import com.brettonw.bedrock.bag.formats.FormatReaderJsonStream;
 import com.brettonw.bedrock.bag.formats.MimeType;
+import com.brettonw.bedrock.bag.formats.StringPool;
 import com.brettonw.bedrock.logger.*;
 
 
@@ -9,6 +13,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.function.Supplier;
 
 public class BagArrayFrom {
@@ -60,6 +65,17 @@ public class BagArrayFrom {
         return fail.get ();
     }
 
+    // from a file, with the mime type specified, sharing repeated strings through a pool
+    static public BagArray file (File file, String mimeType, StringPool stringPool) {
+        try {
+            var sourceAdapter = new SourceAdapterReader(file, mimeType).setStringPool (stringPool);
+            return FormatReader.readBagArray (sourceAdapter);
+        } catch (Exception exception) {
+            log.error (exception);
+        }
+        return null;
+    }
+
     // from a resource, with the mime type specified
     static public BagArray resource (Class context, String name) {
         return resource (context, name, () -> null);
@@ -98,6 +114,20 @@ public class BagArrayFrom {
 
     static public BagArray inputStream (InputStream inputStream, String mimeType, Supplier<BagArray> fail) {
         try {
+            // JSON and JSON Lines are parsed as they are read, rather than read into a string first.
+            // the format readers register the mime types, so they have to be loaded to check them
+            FormatReader.register ();
+            var format = MimeType.getFromMimeType (mimeType);
+            if (format.equals (MimeType.JSON)) {
+                try (inputStream) {
+                    return new FormatReaderJsonStream (inputStream).readBagArray ();
+                }
+            }
+            if (format.equals (MimeType.JSON_LINES)) {
+                try (inputStream) {
+                    return new FormatReaderJsonLines (inputStream).readBagArray ();
+                }
+            }
             var sourceAdapter = new SourceAdapterReader(inputStream, mimeType);
             return FormatReader.readBagArray (sourceAdapter);
         } catch (Exception exception) {
@@ -106,6 +136,31 @@ public class BagArrayFrom {
         return fail.get ();
     }
 
+    // from the bytes of a binary document (see FormatWriterBinary)
+    static public BagArray bytes (byte[] bytes) {
+        return bytes (bytes, () -> null);
+    }
+
+    static public BagArray bytes (byte[] bytes, Supplier<BagArray> fail) {
+        return byteBuffer (ByteBuffer.wrap (bytes), fail);
+    }
+
+    static public BagArray byteBuffer (ByteBuffer byteBuffer) {
+        return byteBuffer (byteBuffer, () -> null);
+    }
+
+    static public BagArray byteBuffer (ByteBuffer byteBuffer, Supplier<BagArray> fail) {
+        try {
+            var bagArray = new FormatReaderBinary (byteBuffer).readBagArray ();
+            if (bagArray != null) {
+                return bagArray;
+            }
+        } catch (Exception exception) {
+            log.error (exception);
+        }
+        return fail.get ();
+    }
+
     // from a HTTP connection (get)
     static public BagArray url (String urlString) {
         return url (urlString, () -> null);
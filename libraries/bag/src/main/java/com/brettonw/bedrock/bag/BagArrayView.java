@@ -0,0 +1,363 @@
+package com.brettonw.bedrock.bag;
+
+import com.brettonw.bedrock.bag.expr.BooleanExpr;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A read-only BagArray whose elements are computed on demand from another BagArray, rather than
+ * copied out of it up front. Views are "live", they reflect the current contents of the source,
+ * and they can be read, iterated, streamed, and written out as text like any other BagArray, but
+ * any attempt to modify one throws an UnsupportedOperationException. Operations that derive a new
+ * BagArray (map, filter, sort, etc.) work on a materialized copy. A view that has to search the
+ * source (as from "filterView") keeps what it found until the source array itself is changed, see
+ * BagArray.filterView.
+ * <p>
+ * Note that a view is a different class than the BagArray it was made from, so it only compares
+ * equal to another view. Use "materialize" to compare its contents with a normal BagArray.
+ */
+abstract class BagArrayView extends BagArray {
+    final BagArray source;
+
+    BagArrayView (BagArray source) {
+        super (0);
+        this.source = source;
+        typed = source.typed;
+    }
+
+    BagArrayView () {
+        // a view that computes its elements from something other than a BagArray
+        super (0);
+        source = null;
+    }
+
+    private static UnsupportedOperationException readOnly () {
+        return new UnsupportedOperationException ("read-only view");
+    }
+
+    /**
+     * Return a new BagArray with the current elements of the view. The elements are not copied,
+     * child bags are shared with the source, just as they would be by "subset", "filter", or
+     * "select".
+     *
+     * @return A new BagArray.
+     */
+    @Override
+    public BagArray materialize () {
+        var count = getCount ();
+        var bagArray = new BagArray (count);
+        bagArray.typed = typed;
+        for (int i = 0; i < count; ++i) {
+            bagArray.add (getObject (i));
+        }
+        return bagArray;
+    }
+
+    @Override
+    public BagArray copyOnWrite () {
+        return materialize ().copyOnWrite ();
+    }
+
+    @Override
+    public BagArray freeze () {
+        return materialize ().freeze ();
+    }
+
+    @Override
+    public BagArray ensureCapacity (int capacity) {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagArray trimToSize () {
+        // there is no storage to trim
+        return this;
+    }
+
+    @Override
+    public BagArray typed () {
+        if (! typed) {
+            throw readOnly ();
+        }
+        return this;
+    }
+
+    @Override
+    public BagArray insert (int index, Object object) {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagArray replace (int index, Object object) {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagArray remove (int index) {
+        throw readOnly ();
+    }
+
+    @Override
+    public Object getAndRemove (int index) {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagArray sort (SortKey... keys) {
+        throw readOnly ();
+    }
+
+    @Override
+    boolean equalContents (Bag bag) {
+        return materialize ().equalContents (((BagArray) bag).materialize ());
+    }
+
+    @Override
+    public int hashCode () {
+        // the source can change at any time, so the hash code is not cached
+        return materialize ().hashCode ();
+    }
+
+    @Override
+    void measure (Footprint footprint) {
+        // a view retains its source
+        super.measure (footprint);
+        footprint.addValue (source);
+    }
+
+    @Override
+    public BagArray map (Function<Object, Object> function) {
+        return materialize ().map (function);
+    }
+
+    @Override
+    public BagArray filter (Predicate<Object> predicate) {
+        return materialize ().filter (predicate);
+    }
+
+    @Override
+    public BagArray parallelMap (Function<Object, Object> function) {
+        return materialize ().parallelMap (function);
+    }
+
+    @Override
+    public BagArray parallelFilter (Predicate<Object> predicate) {
+        return materialize ().parallelFilter (predicate);
+    }
+
+    @Override
+    public BagArray parallelQuery (BooleanExpr match, SelectKey selectKey) {
+        return materialize ().parallelQuery (match, selectKey);
+    }
+
+    @Override
+    public BagArray query (BooleanExpr match, SelectKey selectKey) {
+        // the elements are matched where they are, only the selected parts are copied
+        var bagArray = new BagArray ();
+        bagArray.typed = typed;
+        for (int i = 0, end = getCount (); i < end; ++i) {
+            var object = getObject (i);
+            if (object instanceof Bag) {
+                var bag = (Bag) object;
+                if ((match == null) || bag.match (match)) {
+                    bagArray.add (((Selectable) bag).select (selectKey));
+                }
+            }
+        }
+        return bagArray;
+    }
+
+    @Override
+    public BagArray subset (int start, int count) {
+        return materialize ().subset (start, count);
+    }
+
+    @Override
+    public Iterator<Object> iterator () {
+        return new Iterator<Object> () {
+            private int i;
+
+            @Override
+            public boolean hasNext () {
+                return (i < getCount ());
+            }
+
+            @Override
+            public Object next () {
+                return getObject (i++);
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<Object> spliterator () {
+        return Spliterators.spliterator (iterator (), getCount (), Spliterator.ORDERED);
+    }
+
+    /**
+     * A window of consecutive elements of the source, as from "subset".
+     */
+    static class Window extends BagArrayView {
+        private final int start;
+        private final int count;
+
+        Window (BagArray source, int start, int count) {
+            super (source);
+            this.start = start;
+            this.count = count;
+        }
+
+        @Override
+        public int getCount () {
+            return Math.max (0, Math.min (count, source.getCount () - start));
+        }
+
+        @Override
+        public Object getObject (int index) {
+            return ((index >= 0) && (index < getCount ())) ? source.getObject (start + index) : null;
+        }
+    }
+
+    /**
+     * The elements of the source that pass a test, as from "filter". The source is only scanned as
+     * far as the elements that have been requested, so the count is computed lazily too. The
+     * indices found so far are kept, and scanned again only if the source array is modified (an
+     * element set, added, or removed). Changes inside a child bag of the source don't modify the
+     * source, so they aren't seen by the indices already found.
+     */
+    static class Filtered extends BagArrayView {
+        private final Predicate<Object> predicate;
+        private int[] matches;
+        private int found;
+        private int scanned;
+        private int sourceModCount;
+
+        Filtered (BagArray source, Predicate<Object> predicate) {
+            super (source);
+            this.predicate = predicate;
+            matches = new int[0];
+            sourceModCount = source.modCount;
+        }
+
+        private void scanTo (int index) {
+            if (sourceModCount != source.modCount) {
+                found = 0;
+                scanned = 0;
+                sourceModCount = source.modCount;
+            }
+            for (int end = source.getCount (); (found <= index) && (scanned < end); ++scanned) {
+                if (predicate.test (source.getObject (scanned))) {
+                    if (found == matches.length) {
+                        matches = Arrays.copyOf (matches, Math.max (found * 2, 8));
+                    }
+                    matches[found++] = scanned;
+                }
+            }
+            // reading the source might have taken a private copy of its storage, which counts as a
+            // modification, but doesn't change the elements
+            sourceModCount = source.modCount;
+        }
+
+        @Override
+        public int getCount () {
+            scanTo (Integer.MAX_VALUE - 1);
+            return found;
+        }
+
+        @Override
+        public Object getObject (int index) {
+            if (index >= 0) {
+                scanTo (index);
+                if (index < found) {
+                    var object = source.getObject (matches[index]);
+                    sourceModCount = source.modCount;
+                    return object;
+                }
+            }
+            return null;
+        }
+
+        private boolean has (int index) {
+            // elements can be null, so this is the test for one being there, not getObject
+            scanTo (index);
+            return index < found;
+        }
+
+        @Override
+        public Iterator<Object> iterator () {
+            // the iterator only scans as far as the elements it returns, not the whole source
+            return new Iterator<Object> () {
+                private int i;
+
+                @Override
+                public boolean hasNext () {
+                    return has (i);
+                }
+
+                @Override
+                public Object next () {
+                    if (! has (i)) {
+                        throw new NoSuchElementException ();
+                    }
+                    return getObject (i++);
+                }
+            };
+        }
+
+        @Override
+        public Spliterator<Object> spliterator () {
+            // the size isn't known without scanning the whole source
+            return Spliterators.spliteratorUnknownSize (iterator (), Spliterator.ORDERED);
+        }
+    }
+
+    /**
+     * The elements of the source chosen by a SelectKey, as from "select". The selected keys only
+     * depend on the number of elements in the source, so they are computed the first time they
+     * are needed, and again if that changes.
+     */
+    static class Selected extends BagArrayView {
+        private final SelectKey selectKey;
+        private String[] keys;
+        private int sourceCount;
+
+        Selected (BagArray source, SelectKey selectKey) {
+            super (source);
+            this.selectKey = selectKey;
+        }
+
+        private String[] getKeys () {
+            var count = source.getCount ();
+            if ((keys == null) || (sourceCount != count)) {
+                sourceCount = count;
+                var selected = new String[count];
+                var found = 0;
+                for (int i = 0; i < count; ++i) {
+                    var key = selectKey.select (Integer.toString (i));
+                    if (key != null) {
+                        selected[found++] = key;
+                    }
+                }
+                keys = Arrays.copyOf (selected, found);
+            }
+            return keys;
+        }
+
+        @Override
+        public int getCount () {
+            return getKeys ().length;
+        }
+
+        @Override
+        public Object getObject (int index) {
+            var keys = getKeys ();
+            return ((index >= 0) && (index < keys.length)) ? source.getObject (keys[index]) : null;
+        }
+    }
+}
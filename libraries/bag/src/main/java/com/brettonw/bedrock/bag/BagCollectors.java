@@ -0,0 +1,52 @@
+package com.brettonw.bedrock.bag;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collector;
+
+/**
+ * Collectors that gather the results of a Stream (such as BagArray.stream or parallelStream)
+ * directly into a new Bag.
+ */
+public class BagCollectors {
+    /**
+     * Return a Collector that adds the stream elements to a new BagArray, in encounter order. In a
+     * parallel stream, each thread fills its own BagArray, and they are concatenated at the end.
+     *
+     * @param <Type> the type of the stream elements, which must be storable in a Bag.
+     * @return A Collector producing a BagArray.
+     */
+    public static <Type> Collector<Type, BagArray, BagArray> toBagArray () {
+        return Collector.of (BagArray::new, BagArray::add, BagArray::concat);
+    }
+
+    /**
+     * Return a Collector that stores the stream elements in a new BagObject, as by a sequence of
+     * calls to "put" in encounter order, so the last value for a key wins. The pairs are gathered
+     * first, and the BagObject is built with a single sort (see BagObject.Builder).
+     *
+     * @param keyMapper a function from a stream element to its key.
+     * @param valueMapper a function from a stream element to its value.
+     * @param <Type> the type of the stream elements.
+     * @return A Collector producing a BagObject.
+     */
+    public static <Type> Collector<Type, ?, BagObject> toBagObject (Function<? super Type, String> keyMapper, Function<? super Type, Object> valueMapper) {
+        return Collector.<Type, ArrayList<Map.Entry<String, Object>>, BagObject>of (
+                ArrayList::new,
+                (pairs, element) -> pairs.add (new AbstractMap.SimpleImmutableEntry<> (keyMapper.apply (element), valueMapper.apply (element))),
+                (left, right) -> {
+                    left.addAll (right);
+                    return left;
+                },
+                pairs -> {
+                    var builder = new BagObject.Builder (pairs.size ());
+                    for (var pair : pairs) {
+                        builder.put (pair.getKey (), pair.getValue ());
+                    }
+                    return builder.build ();
+                }
+        );
+    }
+}
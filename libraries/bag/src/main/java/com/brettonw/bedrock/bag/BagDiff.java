@@ -0,0 +1,214 @@
+package com.brettonw.bedrock.bag;
+
+import java.util.ArrayList;
+
+/**
+ * BagDiff computes a patch that turns one Bag into another, and applies a patch to a Bag in place,
+ * so that a change to a large document can be sent or stored as just the parts that changed. The
+ * patch format follows JSON Patch (RFC 6902), using the add, remove, and replace operations, as a
+ * BagArray of BagObjects like:
+ * <pre>
+ * [ { "op": "replace", "path": "a/b/0", "value": "x" }, { "op": "remove", "path": "c" } ]
+ * </pre>
+ * The paths are Bag paths (the same as used with getObject), rather than JSON Pointers, so they
+ * have no leading separator and no escapes (Bag keys can't contain the separator anyway).
+ * <p>
+ * Objects are compared by walking the pairs of both in key order, together, and arrays by walking
+ * their elements together, looking one element ahead to recognize single insertions and removals,
+ * so a diff takes one pass over the two trees. Larger moves within an array are not recognized,
+ * and make a longer patch than they need to. The values in a patch (and the values put into a Bag
+ * by "apply") are shared with the target, not copied.
+ */
+public class BagDiff {
+    public static final String OP = "op";
+    public static final String PATH = "path";
+    public static final String VALUE = "value";
+
+    public static final String ADD = "add";
+    public static final String REMOVE = "remove";
+    public static final String REPLACE = "replace";
+
+    private BagDiff () {}
+
+    /**
+     * Compute the patch that turns one BagObject into another.
+     *
+     * @param source The BagObject to start from.
+     * @param target The BagObject to end with.
+     * @return A BagArray of operations, which is empty if the two have the same contents.
+     */
+    public static BagArray diff (BagObject source, BagObject target) {
+        var patch = new BagArray ();
+        diffObjects (source, target, "", patch);
+        return patch;
+    }
+
+    /**
+     * Compute the patch that turns one BagArray into another.
+     *
+     * @param source The BagArray to start from.
+     * @param target The BagArray to end with.
+     * @return A BagArray of operations, which is empty if the two have the same contents.
+     */
+    public static BagArray diff (BagArray source, BagArray target) {
+        var patch = new BagArray ();
+        diffArrays (source, target, "", patch);
+        return patch;
+    }
+
+    private static void addOperation (BagArray patch, String op, String path, Object value) {
+        // operations are typed, so values from a typed bag keep their types
+        patch.add (new BagObject (3).typed ().put (OP, op).put (PATH, path).put (VALUE, value));
+    }
+
+    private static String childPath (String path, String key) {
+        return path.isEmpty () ? key : (path + BagObject.PATH_SEPARATOR + key);
+    }
+
+    // the pairs of an object in key order, gathered in a single walk
+    private static class Pairs {
+        final ArrayList<String> keys;
+        final ArrayList<Object> values;
+
+        Pairs (BagObject bagObject) {
+            var count = bagObject.getCount ();
+            keys = new ArrayList<> (count);
+            values = new ArrayList<> (count);
+            bagObject.forEach ((key, value) -> {
+                keys.add (key);
+                values.add (value);
+            });
+        }
+    }
+
+    private static void diffObjects (BagObject source, BagObject target, String path, BagArray patch) {
+        if (source == target) {
+            return;
+        }
+        var sourcePairs = new Pairs (source);
+        var targetPairs = new Pairs (target);
+        int i = 0, j = 0;
+        var sourceCount = sourcePairs.keys.size ();
+        var targetCount = targetPairs.keys.size ();
+        while ((i < sourceCount) || (j < targetCount)) {
+            var cmp = (i == sourceCount) ? 1 : (j == targetCount) ? -1 :
+                    sourcePairs.keys.get (i).compareTo (targetPairs.keys.get (j));
+            if (cmp < 0) {
+                addOperation (patch, REMOVE, childPath (path, sourcePairs.keys.get (i++)), null);
+            } else if (cmp > 0) {
+                addOperation (patch, ADD, childPath (path, targetPairs.keys.get (j)), targetPairs.values.get (j++));
+            } else {
+                diffValues (sourcePairs.values.get (i++), targetPairs.values.get (j), childPath (path, targetPairs.keys.get (j++)), patch);
+            }
+        }
+    }
+
+    private static void diffArrays (BagArray source, BagArray target, String path, BagArray patch) {
+        if (source == target) {
+            return;
+        }
+        // walk both arrays together, looking one element ahead to recognize a single element that
+        // was inserted or removed. the operations are applied in order, so the index of each one
+        // is its position in the target (j), as everything before it already matches
+        var sourceCount = source.getCount ();
+        var targetCount = target.getCount ();
+        int i = 0, j = 0;
+        while ((i < sourceCount) && (j < targetCount)) {
+            var sourceValue = source.getObject (i);
+            var targetValue = target.getObject (j);
+            if (Bag.equalValues (sourceValue, targetValue)) {
+                ++i; ++j;
+            } else if ((i + 1 < sourceCount) && Bag.equalValues (source.getObject (i + 1), targetValue)) {
+                addOperation (patch, REMOVE, childPath (path, Integer.toString (j)), null);
+                ++i;
+            } else if ((j + 1 < targetCount) && Bag.equalValues (sourceValue, target.getObject (j + 1))) {
+                addOperation (patch, ADD, childPath (path, Integer.toString (j)), targetValue);
+                ++j;
+            } else {
+                diffValues (sourceValue, targetValue, childPath (path, Integer.toString (j)), patch);
+                ++i; ++j;
+            }
+        }
+        for (; j < targetCount; ++j) {
+            addOperation (patch, ADD, childPath (path, Integer.toString (j)), target.getObject (j));
+        }
+        for (; i < sourceCount; ++i) {
+            addOperation (patch, REMOVE, childPath (path, Integer.toString (j)), null);
+        }
+    }
+
+    private static void diffValues (Object source, Object target, String path, BagArray patch) {
+        if ((source instanceof BagObject) && (target instanceof BagObject)) {
+            diffObjects ((BagObject) source, (BagObject) target, path, patch);
+        } else if ((source instanceof BagArray) && (target instanceof BagArray)) {
+            diffArrays ((BagArray) source, (BagArray) target, path, patch);
+        } else if ((source instanceof Bag) || (target instanceof Bag) || (! Bag.equalValues (source, target))) {
+            addOperation (patch, REPLACE, path, target);
+        }
+    }
+
+    private static void applyOperation (Bag bag, BagObject operation) {
+        if (operation == null) {
+            throw new IllegalArgumentException ("Invalid patch operation (not a BagObject)");
+        }
+        var op = operation.getString (OP);
+        var path = operation.getString (PATH);
+        if ((op == null) || (path == null) || path.isEmpty ()) {
+            throw new IllegalArgumentException ("Invalid patch operation (" + operation + ")");
+        }
+        var value = operation.getObject (VALUE);
+
+        // find the bag that holds the last element of the path
+        var separator = path.lastIndexOf (BagObject.PATH_SEPARATOR);
+        var parent = (separator >= 0) ? bag.getObject (path.substring (0, separator)) : bag;
+        var key = path.substring (separator + 1);
+        if (parent instanceof BagObject) {
+            var bagObject = (BagObject) parent;
+            switch (op) {
+                case ADD: case REPLACE: bagObject.put (key, value); return;
+                case REMOVE: bagObject.remove (key); return;
+            }
+        } else if (parent instanceof BagArray) {
+            var bagArray = (BagArray) parent;
+            var index = Integer.parseInt (key);
+            switch (op) {
+                case ADD: bagArray.insert (index, value); return;
+                case REPLACE: bagArray.replace (index, value); return;
+                case REMOVE: bagArray.remove (index); return;
+            }
+        }
+        throw new IllegalArgumentException ("Invalid patch operation (" + operation + ")");
+    }
+
+    private static void apply (Bag bag, BagArray patch) {
+        for (int i = 0, end = patch.getCount (); i < end; ++i) {
+            applyOperation (bag, patch.getBagObject (i));
+        }
+    }
+
+    /**
+     * Apply a patch to a BagObject, changing it in place.
+     *
+     * @param bagObject The BagObject to change.
+     * @param patch A BagArray of operations, as from "diff".
+     * @return The BagObject, so that operations can be chained together.
+     * @throws IllegalArgumentException if an operation is invalid, or its path doesn't exist.
+     */
+    public static BagObject apply (BagObject bagObject, BagArray patch) {
+        apply ((Bag) bagObject, patch);
+        return bagObject;
+    }
+
+    /**
+     * Apply a patch to a BagArray, changing it in place.
+     *
+     * @param bagArray The BagArray to change.
+     * @param patch A BagArray of operations, as from "diff".
+     * @return The BagArray, so that operations can be chained together.
+     * @throws IllegalArgumentException if an operation is invalid, or its path doesn't exist.
+     */
+    public static BagArray apply (BagArray bagArray, BagArray patch) {
+        apply ((Bag) bagArray, patch);
+        return bagArray;
+    }
+}
@@ -2,12 +2,22 @@ package com.brettonw.bedrock.bag;
 
 import com.brettonw.bedrock.bag.formats.FormatReader;
 import com.brettonw.bedrock.bag.formats.FormatWriter;
-import com.brettonw.bedrock.bag.formats.MimeType;
 import com.brettonw.bedrock.logger.*;
 
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
 /**
  * A collection of text-based values store in key/value pairs (maintained in a sorted array).
+ * <p>
+ * Wide objects (more than HASH_THRESHOLD keys, or any object that requests it explicitly with
+ * "hashed") switch to a hash-indexed mode, where new pairs are appended to the array in arrival
+ * order and located through a hash map of key to position. The array is sorted again lazily, only
+ * when the keys are requested in order (by "keys", or the format writers).
  */
 public class BagObject extends Bag implements Selectable<BagObject> {
     private static final Logger log = LogManager.getLogger (BagObject.class);
@@ -15,9 +25,12 @@ public class BagObject extends Bag implements Selectable<BagObject> {
     private static final int UNKNOWN_SIZE = -1;
     private static final int DEFAULT_CONTAINER_SIZE = 1;
     private static final int DOUBLING_CAP = 16;
+    static final int HASH_THRESHOLD = 64;
     static final String PATH_SEPARATOR = "/";
 
-    private class Pair {
+    private static final Comparator<Pair> PAIR_ORDER = Comparator.comparing (pair -> pair.key);
+
+    private static class Pair {
         final String key;
         Object value;
 
@@ -29,6 +42,16 @@ public class BagObject extends Bag implements Selectable<BagObject> {
     private Pair[] container;
     private int count;
 
+    // the hash index maps keys to their position in the container, it is null until the object is
+    // switched to hashed mode. In hashed mode, the container is only guaranteed to be in key order
+    // when 'sorted' is true
+    private Map<String, Integer> index;
+    private boolean sorted;
+
+    // a copy-on-write BagObject shares its container (and index) with the BagObject it was copied
+    // from, until one of them is modified, or hands out one of its child bags
+    private boolean shared;
+
     /**
      * Create a new BagObject with a default underlying storage size.
      */
@@ -45,6 +68,10 @@ public class BagObject extends Bag implements Selectable<BagObject> {
     public BagObject (int size) {
         count = 0;
         container = new Pair[Math.max (size, DEFAULT_CONTAINER_SIZE)];
+        sorted = true;
+        if (size > HASH_THRESHOLD) {
+            buildIndex ();
+        }
     }
 
     BagObject (SourceAdapter sourceAdapter) throws ReadException {
@@ -57,13 +84,121 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         // now steal the victim's soul and leave them to die
         container = victim.container;
         count = victim.count;
+        index = victim.index;
+        sorted = victim.sorted;
     }
 
     /**
-     * Create a new BagObject as deep copy of another BagObject
+     * Create a new BagObject as deep copy of another BagObject. The copy is structural, the pairs
+     * are copied directly and child bags are copied recursively, without a round trip through
+     * text. The storage mode (hashed, typed) of the source is preserved.
      */
     public BagObject (BagObject bagObject) {
-        this (new SourceAdapter (bagObject.toString (MimeType.DEFAULT), MimeType.DEFAULT));
+        // views and concurrent BagObjects don't use the pair array, so copy their current
+        // contents
+        bagObject = bagObject.materialize ();
+        count = bagObject.count;
+        container = new Pair[Math.max (count, DEFAULT_CONTAINER_SIZE)];
+        for (int i = 0; i < count; ++i) {
+            var pair = bagObject.container[i];
+            (container[i] = new Pair (pair.key)).value = copyValue (pair.value);
+        }
+        if (bagObject.index != null) {
+            index = new HashMap<> (bagObject.index);
+        }
+        sorted = bagObject.sorted;
+        typed = bagObject.typed;
+    }
+
+    /**
+     * Return a copy of this BagObject that shares its storage with the original until either one
+     * of them is modified. The first modification (or the first time a child bag is retrieved, so
+     * that it can't be modified through the other one) takes a private copy of one level of the
+     * tree, and the child bags at that level become copy-on-write copies in turn. Copies that are
+     * read, but only partially modified, are much cheaper than a full deep copy.
+     * <p>
+     * Note that retrieving child bags from either BagObject may replace its internal storage, so
+     * neither one is safe for concurrent readers. Child bags retrieved from the original before
+     * the copy was made are not isolated from it.
+     *
+     * @return A new BagObject, that compares as a deep copy of this one.
+     */
+    public BagObject copyOnWrite () {
+        var bagObject = new BagObject (0);
+        bagObject.container = container;
+        bagObject.count = count;
+        bagObject.index = index;
+        bagObject.sorted = sorted;
+        bagObject.typed = typed;
+
+        // a frozen BagObject is never modified, so it doesn't need to know it's being shared
+        bagObject.shared = true;
+        if (! frozen) {
+            shared = true;
+        }
+        return bagObject;
+    }
+
+    /**
+     * Return a frozen (deeply immutable) copy of this BagObject, or this BagObject if it is already
+     * frozen. The copy is compact and sorted, its children are frozen too, and its hash code is
+     * precomputed, so it is safe to share among threads that only read it, without copying or
+     * locking. The JSON text is cached the first time it is requested. Any attempt to modify a
+     * frozen BagObject throws an UnsupportedOperationException. Note that the frozen copy still has
+     * to be published to other threads safely (in a final or volatile field, or before they are
+     * started).
+     *
+     * @return A frozen BagObject with the same contents as this one.
+     */
+    public BagObject freeze () {
+        if (frozen) {
+            return this;
+        }
+        var bagObject = new BagObject (0);
+        // never zero length, so a copy-on-write copy of it can grow
+        bagObject.container = new Pair[Math.max (count, DEFAULT_CONTAINER_SIZE)];
+        bagObject.count = count;
+        for (int i = 0; i < count; ++i) {
+            var pair = container[i];
+            (bagObject.container[i] = new Pair (pair.key)).value = freezeValue (pair.value);
+        }
+        if (! sorted) {
+            Arrays.sort (bagObject.container, PAIR_ORDER);
+        }
+        if (index != null) {
+            bagObject.buildIndex ();
+        }
+        bagObject.typed = typed;
+        bagObject.finishFreeze ();
+        return bagObject;
+    }
+
+    private void unshare () {
+        if (shared) {
+            // take a private copy of the pairs, with the child bags replaced by copy-on-write
+            // copies of themselves
+            var src = container;
+            container = new Pair[Math.max (src.length, DEFAULT_CONTAINER_SIZE)];
+            for (int i = 0; i < count; ++i) {
+                (container[i] = new Pair (src[i].key)).value = copyOnWriteValue (src[i].value);
+            }
+            if (index != null) {
+                index = new HashMap<> (index);
+            }
+            shared = false;
+            ++modCount;
+        }
+    }
+
+    private Object getValue (int index) {
+        // child bags can't be handed out while they are shared, or changes made to them would show
+        // up in the copy too
+        var value = container[index].value;
+        if (shared && (value instanceof Bag)) {
+            unshare ();
+            value = container[index].value;
+        }
+        return value;
     }
 
     /**
@@ -88,6 +223,87 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         ++count;
     }
 
+    /**
+     * Switch the BagObject to hash-indexed storage, regardless of its size. This is done
+     * automatically when the count grows past HASH_THRESHOLD, but callers that know they are about
+     * to build a wide object can ask for it up front. Hashed mode gives O(1) expected put, getObject,
+     * has, and remove, at the cost of a lazy sort when the keys are requested in order.
+     *
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject hashed () {
+        if (index == null) {
+            checkMutable ();
+            buildIndex ();
+        }
+        return this;
+    }
+
+    /**
+     * Return whether or not the BagObject is using hash-indexed storage.
+     *
+     * @return true if the BagObject is in hashed mode.
+     */
+    public boolean isHashed () {
+        return index != null;
+    }
+
+    /**
+     * Switch the BagObject to typed storage, where numbers and booleans are kept in their native
+     * form rather than converted to strings. Values stored before the switch are not converted.
+     * Child BagObjects created implicitly by a path (in "put" or "add") inherit the mode. The JSON
+     * text produced by a typed BagObject is the same as for a string-only one.
+     *
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject typed () {
+        if (! typed) {
+            checkMutable ();
+            typed = true;
+        }
+        return this;
+    }
+
+    private BagObject newChild () {
+        var bagObject = new BagObject ();
+        bagObject.typed = typed;
+        return bagObject;
+    }
+
+    private BagArray newChildArray () {
+        var bagArray = new BagArray (2);
+        bagArray.typed = typed;
+        return bagArray;
+    }
+
+    private void buildIndex () {
+        index = new HashMap<> (Math.max (count, HASH_THRESHOLD) * 2);
+        for (int i = 0; i < count; ++i) {
+            index.put (container[i].key, i);
+        }
+    }
+
+    private void ensureSorted () {
+        if (! sorted) {
+            // put the pairs back in key order, and update the positions in the index to match
+            Arrays.sort (container, 0, count, PAIR_ORDER);
+            for (int i = 0; i < count; ++i) {
+                index.put (container[i].key, i);
+            }
+            sorted = true;
+        }
+    }
+
+    private int find (String key) {
+        // in hashed mode, the index tells us where the pair is (or that it's not there), otherwise
+        // we search the sorted container
+        if (index != null) {
+            var found = index.get (key);
+            return (found != null) ? found : -1;
+        }
+        return binarySearch (key);
+    }
+
     private int binarySearch (String key) {
         // starting conditions mapped to either end of the internal store
         var low = 0;
@@ -118,28 +334,81 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         return -(low + 1);
     }
 
+    private Pair appendPair (String key) {
+        // grow geometrically, appending is the only way the container gets bigger in hashed mode
+        if (count == container.length) {
+            container = Arrays.copyOf (container, count * 2);
+        }
+
+        // the container stays sorted if the new key happens to come after the last one
+        if (sorted && (count > 0) && (container[count - 1].key.compareTo (key) > 0)) {
+            sorted = false;
+        }
+        var pair = new Pair (key);
+        index.put (key, count);
+        container[count++] = pair;
+        return pair;
+    }
+
     private Pair getOrAddPair (String key) {
-        // conduct a binary search for where the pair should be
-        var index = binarySearch (key);
+        // the pair is going to be modified, so it can't be shared (or frozen)
+        checkMutable ();
+        unshare ();
+        ++modCount;
+
+        // find where the pair is, or should be
+        var index = find (key);
         if (index < 0) {
+            if (this.index != null) {
+                return appendPair (key);
+            }
+
             // the binary search returns a funky encoding of the index where the new value
             // should go when it's not there, so we have to decode that number (-index - 1)
             index = -(index + 1);
 
             // make sure there is room in the underlying container, then store a new (empty) Pair
             grow (index);
-            container[index] = new Pair (key);
+            var pair = container[index] = new Pair (key);
+
+            // switch to hashed mode if the object is getting wide
+            if (count > HASH_THRESHOLD) {
+                buildIndex ();
+            }
+            return pair;
         }
         return container[index];
     }
 
+    private void removePair (int index) {
+        checkMutable ();
+        unshare ();
+        ++modCount;
+        if (this.index != null) {
+            // in hashed mode, fill the gap with the last pair so the removal is O(1), at the cost
+            // of the sort order (unless it was the last pair anyway)
+            this.index.remove (container[index].key);
+            var last = count - 1;
+            if (index < last) {
+                var pair = container[index] = container[last];
+                this.index.put (pair.key, index);
+                sorted = false;
+            }
+            container[last] = null;
+        } else {
+            var gapIndex = index + 1;
+            System.arraycopy (container, gapIndex, container, index, count - gapIndex);
+        }
+        --count;
+    }
+
     /**
      * Return an object stored at the requested key value. The key may be a simple name, or it may
      * be a path (with keys separated by "/") to create a hierarchical "bedrock-of-bags" that is indexed
      * recursively.
      * <p>
-     * Using a binary search of the underlying store, finds where the first component of the path
-     * should be and returns it.
+     * Using a binary search of the underlying store (or the hash index for wide objects), finds
+     * where the first component of the path should be and returns it.
      *
      * @param key A string value used to index the element, using "/" as separators, for example:
      *             "com/brettonw/bedrock/key".
@@ -151,17 +420,51 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         // use that to conduct the search. We are only interested in values that indicate the search
         // found the requested key
         var path = Key.split (key);
-        var index = binarySearch (path[0]);
+        var index = find (path[0]);
         if (index >= 0) {
             // grab the found element... if the path was only one element long, this is the element
             // we were looking for, otherwise recur on the found element as another BagObject
-            var pair = container[index];
-            var found = pair.value;
+            var found = getValue (index);
             return (path.length == 1) ? found : ((Bag) found).getObject (path[1]);
         }
         return null;
     }
 
+    @Override
+    Object getObject (KeyPath keyPath, int level) {
+        var index = find (keyPath.getKey (level));
+        return (index >= 0) ? getValue (index) : null;
+    }
+
+    private BagObject getOrAddParent (KeyPath keyPath) {
+        // walk down to the BagObject that holds the last key in the path, creating BagObjects for
+        // the intermediate keys as necessary
+        var bagObject = this;
+        for (int level = 0, last = keyPath.getLength () - 1; level < last; ++level) {
+            var pair = bagObject.getOrAddPair (keyPath.getKey (level));
+            var child = (BagObject) pair.value;
+            if (child == null) {
+                pair.value = (child = bagObject.newChild ());
+            }
+            bagObject = child;
+        }
+        return bagObject;
+    }
+
+    private BagObject getParent (KeyPath keyPath) {
+        // walk down to the BagObject that holds the last key in the path, or return null if any of
+        // the intermediate keys are missing (or aren't BagObjects)
+        var bagObject = this;
+        for (int level = 0, last = keyPath.getLength () - 1; level < last; ++level) {
+            var found = bagObject.getObject (keyPath, level);
+            if (! (found instanceof BagObject)) {
+                return null;
+            }
+            bagObject = (BagObject) found;
+        }
+        return bagObject;
+    }
+
     /**
      * Store an object at the requested key value. The key may be a simple name, or it may be a path
      * (with keys separated by "/") to create a hierarchical "bedrock-of-bags" that is indexed
@@ -200,7 +503,7 @@ public class BagObject extends Bag implements Selectable<BagObject> {
                 // necessary, then traverse via recursion,
                 var bagObject = (BagObject) pair.value;
                 if (bagObject == null) {
-                    pair.value = (bagObject = new BagObject ());
+                    pair.value = (bagObject = newChild ());
                 }
                 bagObject.put (path[1], object);
             }
@@ -208,6 +511,28 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         return this;
     }
 
+    /**
+     * Store an object at the requested precompiled path, as in "put" with the equivalent string
+     * path.
+     *
+     * @param keyPath A precompiled path used to index the element, as from Key.compile.
+     * @param object The element to store.
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject put (KeyPath keyPath, Object object) {
+        // convert the element to internal storage format, and don't bother with the rest if that's
+        // a null value
+        object = objectify (object);
+        if (object != null) {
+            var bagObject = getOrAddParent (keyPath);
+            if (bagObject.typed != typed) {
+                object = bagObject.objectify (object);
+            }
+            bagObject.getOrAddPair (keyPath.getKey (keyPath.getLength () - 1)).value = object;
+        }
+        return this;
+    }
+
     /**
      * Create a new BagObject and "put" the object using its key value. The key may be a
      * simple name, or it may be a path (with keys separated by "/") to create a
@@ -221,6 +546,42 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         return new BagObject ().put (key, object);
     }
 
+    private void addToPair (Pair pair, Object object) {
+        var bagArray = (BagArray) null;
+        var found = pair.value;
+        if ((object = objectify (object)) == null) {
+            if (found == null) {
+                // 1) object is null, key does not exist - create array
+                pair.value = (bagArray = newChildArray ());
+            } else if (found instanceof BagArray) {
+                // 2) object is null, key exists (is array)
+                bagArray = (BagArray) found;
+            } else {
+                // 3) object is null, key exists (is not array) - create array, store existing value
+                pair.value = (bagArray = newChildArray ());
+                bagArray.add (found);
+            }
+
+            // and store the null value in the array
+            bagArray.add (null);
+        } else {
+            if (found == null) {
+                // 4) object is not null, key does not exist - store as bare value
+                pair.value = object;
+            } else {
+                if (found instanceof BagArray) {
+                    // 5) object is not null, key exists (is array) - add new value to array
+                    bagArray = (BagArray) found;
+                } else {
+                    // 6) object is not null, key exists (is not array) - create array, store existing value, store new value
+                    pair.value = (bagArray = newChildArray ());
+                    bagArray.add (found);
+                }
+                bagArray.add (object);
+            }
+        }
+    }
+
     /**
      * Add an object to a BagArray stored at the requested key. The key may be a simple name, or it may be a path
      * (with keys separated by "/") to create a hierarchical "bedrock-of-bags" that is indexed
@@ -249,51 +610,33 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         var pair = getOrAddPair (path[0]);
         if (path.length == 1) {
             // this is the end of the line, so we want to store the requested object
-            var bagArray = (BagArray) null;
-            var found = pair.value;
-            if ((object = objectify (object)) == null) {
-                if (found == null) {
-                    // 1) object is null, key does not exist - create array
-                    pair.value = (bagArray = new BagArray ());
-                } else if (found instanceof BagArray) {
-                    // 2) object is null, key exists (is array)
-                    bagArray = (BagArray) found;
-                } else {
-                    // 3) object is null, key exists (is not array) - create array, store existing value
-                    pair.value = (bagArray = new BagArray (2));
-                    bagArray.add (found);
-                }
-
-                // and store the null value in the array
-                bagArray.add (null);
-            } else {
-                if (found == null) {
-                    // 4) object is not null, key does not exist - store as bare value
-                    pair.value = object;
-                } else {
-                    if (found instanceof BagArray) {
-                        // 5) object is not null, key exists (is array) - add new value to array
-                        bagArray = (BagArray) found;
-                    } else {
-                        // 6) object is not null, key exists (is not array) - create array, store existing value, store new value
-                        pair.value = (bagArray = new BagArray (2));
-                        bagArray.add (found);
-                    }
-                    bagArray.add (object);
-                }
-            }
+            addToPair (pair, object);
         } else {
             // this is not the leaf key, so we set the pair value to be a new BagObject if
             // necessary, then traverse via recursion,
             var bagObject = (BagObject) pair.value;
             if (bagObject == null) {
-                pair.value = (bagObject = new BagObject ());
+                pair.value = (bagObject = newChild ());
             }
             bagObject.add (path[1], object);
         }
         return this;
     }
 
+    /**
+     * Add an object to a BagArray stored at the requested precompiled path, as in "add" with the
+     * equivalent string path.
+     *
+     * @param keyPath A precompiled path used to index the element, as from Key.compile.
+     * @param object The element to store.
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject add (KeyPath keyPath, Object object) {
+        var bagObject = getOrAddParent (keyPath);
+        bagObject.addToPair (bagObject.getOrAddPair (keyPath.getKey (keyPath.getLength () - 1)), object);
+        return this;
+    }
+
     /**
      * Remove an object stored at the requested key. The key may be a simple name, or it may be a
      * path (with keys separated by "/") to create a hierarchical "bedrock-of-bags" that is indexed
@@ -310,14 +653,12 @@ public class BagObject extends Bag implements Selectable<BagObject> {
      */
     public BagObject remove (String key) {
         var path = Key.split (key);
-        var index = binarySearch (path[0]);
+        var index = find (path[0]);
         if (index >= 0) {
             if (path.length == 1) {
-                var gapIndex = index + 1;
-                System.arraycopy (container, gapIndex, container, index, count - gapIndex);
-                --count;
+                removePair (index);
             } else {
-                var found = (BagObject) container[index].value;
+                var found = (BagObject) getValue (index);
                 found.remove (path[1]);
             }
         }
@@ -335,7 +676,7 @@ public class BagObject extends Bag implements Selectable<BagObject> {
      */
     public boolean has (String key) {
         var path = Key.split (key);
-        var index = binarySearch (path[0]);
+        var index = find (path[0]);
         try {
             return (index >= 0) && ((path.length == 1) || ((BagObject) container[index].value).has (path[1]));
         } catch (ClassCastException classCastException) {
@@ -344,13 +685,44 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         }
     }
 
+    /**
+     * Remove an object stored at the requested precompiled path, as in "remove" with the
+     * equivalent string path.
+     *
+     * @param keyPath A precompiled path used to index the element, as from Key.compile.
+     * @return The BagObject, so that operations can be chained together.
+     */
+    public BagObject remove (KeyPath keyPath) {
+        var bagObject = getParent (keyPath);
+        if (bagObject != null) {
+            var index = bagObject.find (keyPath.getKey (keyPath.getLength () - 1));
+            if (index >= 0) {
+                bagObject.removePair (index);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Return whether or not the requested precompiled path is present in the BagObject or
+     * hierarchical "bedrock-of-bags", as in "has" with the equivalent string path.
+     *
+     * @param keyPath A precompiled path used to index the element, as from Key.compile.
+     * @return A boolean value, true if the path is present in the underlying store.
+     */
+    public boolean has (KeyPath keyPath) {
+        var bagObject = getParent (keyPath);
+        return (bagObject != null) && (bagObject.find (keyPath.getKey (keyPath.getLength () - 1)) >= 0);
+    }
+
     /**
      * Returns an array of the keys contained in the underlying container. it does not enumerate the
      * container and all of its children.
      *
-     * @return The keys in the underlying map as an array of Strings.
+     * @return The keys in the underlying map as an array of Strings, in sorted order.
      */
     public String[] keys () {
+        ensureSorted ();
         var keys = new String[count];
         for (int i = 0; i < count; ++i) {
             keys[i] = container[i].key;
@@ -358,6 +730,82 @@ public class BagObject extends Bag implements Selectable<BagObject> {
         return keys;
     }
 
+    /**
+     * Perform an action on each of the pairs in the BagObject, in key order. This walks the
+     * underlying store directly, so it doesn't allocate anything or look up the keys again, as
+     * calling "getObject" for each of the "keys" would. The BagObject must not be modified by the
+     * action.
+     *
+     * @param action A function of the key and the value of each pair.
+     */
+    public void forEach (BiConsumer<String, Object> action) {
+        ensureSorted ();
+        for (int i = 0; i < count; ++i) {
+            // getValue might replace the container, but not the order of the pairs in it
+            var value = getValue (i);
+            action.accept (container[i].key, value);
+        }
+    }
+
+    @Override
+    boolean equalContents (Bag bag) {
+        // the pairs might not be in the same order if either object is hashed, so look up each key
+        var bagObject = (BagObject) bag;
+        if (count != bagObject.count) {
+            return false;
+        }
+        for (int i = 0; i < count; ++i) {
+            var pair = container[i];
+            var index = bagObject.find (pair.key);
+            if ((index < 0) || (! equalValues (pair.value, bagObject.container[index].value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void computeHash () {
+        // the pairs are summed, so the hash doesn't depend on their order in the container, and the
+        // key and value of each pair are mixed together first, so that values swapped between keys
+        // change the hash. the key hashes of the child bags are saved so their hash codes can be
+        // combined in later
+        var hash = 0;
+        var children = new Bag[count];
+        var keyHashes = new int[count];
+        var childCount = 0;
+        for (int i = 0; i < count; ++i) {
+            var pair = container[i];
+            if (pair.value instanceof Bag) {
+                children[childCount] = (Bag) pair.value;
+                keyHashes[childCount++] = pair.key.hashCode ();
+            } else {
+                hash += hashPair (pair.key.hashCode (), hashValue (pair.value));
+            }
+        }
+        setHash (hash, children, keyHashes, childCount, true);
+    }
+
+    @Override
+    void measure (Footprint footprint) {
+        footprint.addBag (Footprint.bagSize (2, 1, 2));
+        measureCaches (footprint);
+
+        // a container (and index) shared by copy-on-write copies is only counted once
+        if (footprint.visit (container)) {
+            footprint.addContainer (container.length, count, Footprint.REFERENCE);
+            for (int i = 0; i < count; ++i) {
+                var pair = container[i];
+                footprint.addPair (Footprint.align (Footprint.OBJECT_HEADER + (2 * Footprint.REFERENCE)));
+                footprint.addKey (pair.key);
+                footprint.addValue (pair.value);
+            }
+        }
+        if ((index != null) && footprint.visit (index)) {
+            footprint.addHashIndex (index.size ());
+        }
+    }
+
     @Override
     public String toString (String format) {
         return FormatWriter.write (this, format);
@@ -367,34 +815,253 @@ public class BagObject extends Bag implements Selectable<BagObject> {
     public BagObject select (SelectKey selectKey) {
         if (selectKey != null) {
             var bagObject = new BagObject ();
-            var keys = keys ();
-            for (var key : keys) {
+            bagObject.typed = typed;
+            forEach ((key, value) -> {
                 // XXX I need to think about this a bit, so that the selection keys can hoist
                 // XXX sub-trees out of the object, I did this so it could be a simple yes/no
                 // XXX query on the keys in the object, so the select key could be include or
                 // XXX exclude... Maybe I should not try to be so clever...
                 var asKey = selectKey.select (key);
                 if (asKey != null) {
-                    bagObject.put (asKey, getObject (key));
+                    bagObject.put (asKey, value);
                 }
-            }
+            });
             return bagObject;
         }
         return this;
     }
 
+    /**
+     * Return a read-only view of the pairs chosen by a SelectKey, as in "select", without copying
+     * them. The view reads through to this BagObject, so it reflects later changes to it.
+     *
+     * @param selectKey A SelectKey with the keys to choose.
+     * @return A read-only BagObject, or this BagObject if the selectKey is null.
+     */
+    public BagObject selectView (SelectKey selectKey) {
+        return (selectKey != null) ? new BagObjectView.Selected (this, selectKey) : this;
+    }
+
+    /**
+     * Return a normal BagObject with the contents of this one. Views (from "selectView") return a
+     * new BagObject with their current pairs, any other BagObject is returned as is.
+     *
+     * @return A BagObject that is not a view.
+     */
+    public BagObject materialize () {
+        return this;
+    }
+
+    /**
+     * Merge a list of BagObjects into a new BagObject. When a key appears in more than one of
+     * them, the value from the last one wins. The pairs of each BagObject are already in key order,
+     * so they are merged in a single pass, without searching or shifting anything. The values are
+     * not copied, child bags are shared with the merged BagObjects.
+     *
+     * @param bagObjects The BagObjects to merge, in increasing order of precedence.
+     * @return A new BagObject.
+     */
     public static BagObject merge (BagObject... bagObjects) {
+        return merge (false, bagObjects);
+    }
+
+    /**
+     * Merge a list of BagObjects into a new BagObject, as in "merge", except that when a key
+     * refers to BagObjects in more than one of them, those are merged recursively instead of the
+     * last one replacing the others. This is how layered configurations (defaults, then
+     * overrides) are combined. Any other value (including a BagArray) replaces what came before
+     * it.
+     *
+     * @param bagObjects The BagObjects to merge, in increasing order of precedence.
+     * @return A new BagObject.
+     */
+    public static BagObject deepMerge (BagObject... bagObjects) {
+        return merge (true, bagObjects);
+    }
+
+    private static BagObject merge (boolean deep, BagObject[] bagObjects) {
+        // get the pair arrays of the sources in key order, and not shared, since child bags are
+        // going to be handed out from them
+        var sourceCount = bagObjects.length;
+        var sources = new BagObject[sourceCount];
         var totalCount = 0;
-        for (var bagObject : bagObjects) {
-            totalCount += bagObject.getCount ();
-        }
-        var mergedBagObject = new BagObject (totalCount);
-        for (var bagObject : bagObjects) {
-            var keys = bagObject.keys ();
-            for (var key : bagObject.keys ()) {
-                mergedBagObject.put (key, bagObject.getObject (key));
+        var typed = false;
+        for (int i = 0; i < sourceCount; ++i) {
+            var source = sources[i] = bagObjects[i].materialize ();
+            source.ensureSorted ();
+            source.unshare ();
+            totalCount += source.count;
+            typed |= source.typed;
+        }
+
+        // walk all of the sources at once, taking the lowest key at each step. the number of
+        // sources is usually small, so the lowest key is found with a linear scan of the cursors
+        var pairs = new Pair[Math.max (totalCount, DEFAULT_CONTAINER_SIZE)];
+        var count = 0;
+        var cursors = new int[sourceCount];
+        var values = new Object[sourceCount];
+        while (true) {
+            String key = null;
+            for (int i = 0; i < sourceCount; ++i) {
+                if (cursors[i] < sources[i].count) {
+                    var sourceKey = sources[i].container[cursors[i]].key;
+                    if ((key == null) || (sourceKey.compareTo (key) < 0)) {
+                        key = sourceKey;
+                    }
+                }
+            }
+            if (key == null) {
+                break;
+            }
+
+            // gather the values for the key in source order, and advance past them
+            var found = 0;
+            for (int i = 0; i < sourceCount; ++i) {
+                if ((cursors[i] < sources[i].count) && sources[i].container[cursors[i]].key.equals (key)) {
+                    values[found++] = sources[i].container[cursors[i]++].value;
+                }
+            }
+
+            // the last value wins, unless it's a BagObject in a deep merge, in which case it's
+            // merged with the run of BagObjects before it
+            var value = values[found - 1];
+            if (deep && (value instanceof BagObject)) {
+                var first = found - 1;
+                while ((first > 0) && (values[first - 1] instanceof BagObject)) {
+                    --first;
+                }
+                if (first < (found - 1)) {
+                    value = merge (true, Arrays.copyOfRange (values, first, found, BagObject[].class));
+                }
             }
+            (pairs[count++] = new Pair (key)).value = value;
+        }
+
+        var mergedBagObject = new BagObject (0);
+        mergedBagObject.container = pairs;
+        mergedBagObject.count = count;
+        mergedBagObject.typed = typed;
+        if (count > HASH_THRESHOLD) {
+            mergedBagObject.buildIndex ();
         }
         return mergedBagObject;
     }
+
+    /**
+     * A Builder fills a new BagObject in bulk. Pairs are appended in arrival order without
+     * searching or shifting anything, and "build" sorts them once (stably, so an already sorted
+     * input costs a single pass) and removes duplicate keys, keeping the last value stored for each
+     * key just as a sequence of calls to "put" would. Building an object of N pairs is O(N log N),
+     * rather than the O(N^2) of N calls to "put".
+     * <p>
+     * Keys that are paths (containing "/") can't be appended blindly, so the first one switches the
+     * Builder over to calling "put" on the object directly. A Builder is used to build one object.
+     */
+    public static class Builder {
+        private final BagObject bagObject;
+        private Pair[] pairs;
+        private int count;
+        private boolean sorted;
+        private boolean built;
+
+        /**
+         * Create a new Builder with a default underlying storage size.
+         */
+        public Builder () {
+            this (UNKNOWN_SIZE);
+        }
+
+        /**
+         * Create a new Builder with hint for the number of pairs that will be stored.
+         *
+         * @param size The expected number of pairs, treated as a hint to optimize memory allocation.
+         */
+        public Builder (int size) {
+            bagObject = new BagObject (0);
+            pairs = new Pair[Math.max (size, DEFAULT_CONTAINER_SIZE)];
+            sorted = true;
+        }
+
+        /**
+         * Build a typed BagObject (see BagObject.typed).
+         *
+         * @return The Builder, so that operations can be chained together.
+         */
+        public Builder typed () {
+            bagObject.typed = true;
+            return this;
+        }
+
+        /**
+         * Store an object at the requested key, as in BagObject.put. Null values are not stored.
+         *
+         * @param key A string value used to index the element.
+         * @param object The element to store.
+         * @return The Builder, so that operations can be chained together.
+         */
+        public Builder put (String key, Object object) {
+            if (built) {
+                throw new IllegalStateException ("BagObject already built");
+            }
+            object = bagObject.objectify (object);
+            if (object != null) {
+                if (pairs == null) {
+                    // we already fell back to storing directly
+                    bagObject.put (key, object);
+                } else if (key.contains (PATH_SEPARATOR)) {
+                    // store what we have so far, and switch to storing directly
+                    finish ();
+                    bagObject.put (key, object);
+                } else {
+                    if (count == pairs.length) {
+                        pairs = Arrays.copyOf (pairs, count * 2);
+                    }
+                    if (sorted && (count > 0) && (pairs[count - 1].key.compareTo (key) > 0)) {
+                        sorted = false;
+                    }
+                    (pairs[count++] = new Pair (key)).value = object;
+                }
+            }
+            return this;
+        }
+
+        private void finish () {
+            if (pairs != null) {
+                // the sort is stable, so duplicate keys stay in the order they were stored, and the
+                // last one of each run is the one to keep
+                if (! sorted) {
+                    Arrays.sort (pairs, 0, count, PAIR_ORDER);
+                }
+                var unique = 0;
+                for (int i = 0; i < count; ++i) {
+                    if ((unique > 0) && pairs[unique - 1].key.equals (pairs[i].key)) {
+                        pairs[unique - 1] = pairs[i];
+                    } else {
+                        pairs[unique++] = pairs[i];
+                    }
+                }
+                Arrays.fill (pairs, unique, count, null);
+                bagObject.container = pairs;
+                bagObject.count = unique;
+                if (unique > HASH_THRESHOLD) {
+                    bagObject.buildIndex ();
+                }
+                pairs = null;
+            }
+        }
+
+        /**
+         * Return the BagObject with all of the stored pairs.
+         *
+         * @return The new BagObject.
+         */
+        public BagObject build () {
+            if (built) {
+                throw new IllegalStateException ("BagObject already built");
+            }
+            finish ();
+            built = true;
+            return bagObject;
+        }
+    }
 }
@@ -1,7 +1,10 @@
 package com.brettonw.bedrock.bag;
 
 import com.brettonw.bedrock.bag.formats.FormatReader;
+import com.brettonw.bedrock.bag.formats.FormatReaderBinary;
+import com.brettonw.bedrock.bag.formats.FormatReaderJsonStream;
 import com.brettonw.bedrock.bag.formats.MimeType;
+import com.brettonw.bedrock.bag.formats.StringPool;
 import com.brettonw.bedrock.logger.*;
 
 
@@ -9,6 +12,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.function.Supplier;
 
 public class BagObjectFrom {
@@ -60,6 +64,17 @@ public class BagObjectFrom {
         return fail.get ();
     }
 
+    // from a file, with the mime type specified, sharing repeated strings through a pool
+    static public BagObject file (File file, String mimeType, StringPool stringPool) {
+        try {
+            var sourceAdapter = new SourceAdapterReader(file, mimeType).setStringPool (stringPool);
+            return FormatReader.readBagObject (sourceAdapter);
+        } catch (Exception exception) {
+            log.error (exception);
+        }
+        return null;
+    }
+
     // from a resource, with the mime type specified
     static public BagObject resource (Class context, String name) {
         return resource (context, name, () -> null);
@@ -98,6 +113,14 @@ public class BagObjectFrom {
 
     static public BagObject inputStream (InputStream inputStream, String mimeType, Supplier<BagObject> fail) {
         try {
+            // JSON is parsed as it is read, rather than read into a string first. the format
+            // readers register the mime types, so they have to be loaded to check them
+            FormatReader.register ();
+            if (MimeType.getFromMimeType (mimeType).equals (MimeType.JSON)) {
+                try (inputStream) {
+                    return new FormatReaderJsonStream (inputStream).readBagObject ();
+                }
+            }
             var sourceAdapter = new SourceAdapterReader(inputStream, mimeType);
             return FormatReader.readBagObject (sourceAdapter);
         } catch (Exception exception) {
@@ -106,6 +129,31 @@ public class BagObjectFrom {
         return fail.get ();
     }
 
+    // from the bytes of a binary document (see FormatWriterBinary)
+    static public BagObject bytes (byte[] bytes) {
+        return bytes (bytes, () -> null);
+    }
+
+    static public BagObject bytes (byte[] bytes, Supplier<BagObject> fail) {
+        return byteBuffer (ByteBuffer.wrap (bytes), fail);
+    }
+
+    static public BagObject byteBuffer (ByteBuffer byteBuffer) {
+        return byteBuffer (byteBuffer, () -> null);
+    }
+
+    static public BagObject byteBuffer (ByteBuffer byteBuffer, Supplier<BagObject> fail) {
+        try {
+            var bagObject = new FormatReaderBinary (byteBuffer).readBagObject ();
+            if (bagObject != null) {
+                return bagObject;
+            }
+        } catch (Exception exception) {
+            log.error (exception);
+        }
+        return fail.get ();
+    }
+
     // from a HTTP connection (get)
     static public BagObject url (String urlString) {
         return url (urlString, () -> null);
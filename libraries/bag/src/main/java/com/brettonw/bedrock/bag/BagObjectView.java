@@ -0,0 +1,252 @@
+package com.brettonw.bedrock.bag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A read-only BagObject whose pairs are computed on demand, rather than stored in it, as from
+ * "selectView", or the rows of a ColumnarBagArray. Subclasses supply the keys (in sorted order),
+ * and the value for each of them. Views can be read, walked, and written out as text like any
+ * other BagObject, but any attempt to modify one throws an UnsupportedOperationException.
+ * <p>
+ * Note that a view is a different class than a BagObject, so it only compares equal to another
+ * view of the same kind. Use "materialize" to compare its contents with a normal BagObject.
+ */
+abstract class BagObjectView extends BagObject {
+    BagObjectView () {
+        super (0);
+    }
+
+    /**
+     * Return the keys of the view, in sorted order. The array is not modified by the caller.
+     */
+    abstract String[] viewKeys ();
+
+    /**
+     * Return the value for the key at the given position in viewKeys.
+     */
+    abstract Object viewValue (int index);
+
+    private static UnsupportedOperationException readOnly () {
+        return new UnsupportedOperationException ("read-only view");
+    }
+
+    private Object getValue (String key) {
+        var index = Arrays.binarySearch (viewKeys (), key);
+        return (index >= 0) ? viewValue (index) : null;
+    }
+
+    /**
+     * Return a new BagObject with the current pairs of the view. Values that are bags are not
+     * copied, they are shared with the source of the view.
+     *
+     * @return A new BagObject.
+     */
+    @Override
+    public BagObject materialize () {
+        var keys = viewKeys ();
+        var bagObject = new BagObject (keys.length);
+        bagObject.typed = typed;
+        for (int i = 0; i < keys.length; ++i) {
+            // the keys are in order, so each put is an append
+            bagObject.put (keys[i], viewValue (i));
+        }
+        return bagObject;
+    }
+
+    @Override
+    public int getCount () {
+        return viewKeys ().length;
+    }
+
+    @Override
+    public BagObject hashed () {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagObject typed () {
+        if (! typed) {
+            throw readOnly ();
+        }
+        return this;
+    }
+
+    @Override
+    public BagObject copyOnWrite () {
+        return materialize ().copyOnWrite ();
+    }
+
+    @Override
+    public BagObject freeze () {
+        return materialize ().freeze ();
+    }
+
+    @Override
+    public Object getObject (String key) {
+        var path = Key.split (key);
+        var found = getValue (path[0]);
+        return ((path.length == 1) || (found == null)) ? found : ((Bag) found).getObject (path[1]);
+    }
+
+    @Override
+    Object getObject (KeyPath keyPath, int level) {
+        return getValue (keyPath.getKey (level));
+    }
+
+    @Override
+    public BagObject put (String key, Object object) {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagObject put (KeyPath keyPath, Object object) {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagObject add (String key, Object object) {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagObject add (KeyPath keyPath, Object object) {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagObject remove (String key) {
+        throw readOnly ();
+    }
+
+    @Override
+    public BagObject remove (KeyPath keyPath) {
+        throw readOnly ();
+    }
+
+    @Override
+    public boolean has (String key) {
+        return getObject (key) != null;
+    }
+
+    @Override
+    public boolean has (KeyPath keyPath) {
+        return getObject (keyPath) != null;
+    }
+
+    @Override
+    public String[] keys () {
+        return viewKeys ().clone ();
+    }
+
+    @Override
+    public void forEach (BiConsumer<String, Object> action) {
+        var keys = viewKeys ();
+        for (int i = 0; i < keys.length; ++i) {
+            action.accept (keys[i], viewValue (i));
+        }
+    }
+
+    @Override
+    boolean equalContents (Bag bag) {
+        return materialize ().equalContents (((BagObject) bag).materialize ());
+    }
+
+    @Override
+    public int hashCode () {
+        // the source can change at any time, so the hash code is not cached
+        return materialize ().hashCode ();
+    }
+
+    /**
+     * The pairs of a BagObject chosen (and renamed) by a SelectKey, as from "select". The view maps
+     * its keys to the keys of the source the first time they are needed (and again if the source
+     * is modified), and reads the values through to the source, so it reflects later changes to
+     * it. A key renamed to a path (e.g. "a/b") is nested, as "put" would do in "select", so the
+     * value of the top level key is built from the source values each time it is read.
+     */
+    static class Selected extends BagObjectView {
+        private final BagObject source;
+        private final SelectKey selectKey;
+
+        // the keys of the view in sorted order, and for each one, the keys they were renamed to
+        // (which are paths under it) and the keys of the source they come from, in source order
+        private String[] keys;
+        private String[][] asKeys;
+        private String[][] sourceKeys;
+        private int sourceModCount;
+
+        Selected (BagObject source, SelectKey selectKey) {
+            this.source = source;
+            this.selectKey = selectKey;
+            typed = source.typed;
+        }
+
+        @Override
+        String[] viewKeys () {
+            if ((keys == null) || (sourceModCount != source.modCount)) {
+                // the source keys are in order, so when two of them map to the same key in the
+                // view, the last one wins, just as it would in "select"
+                var map = new TreeMap<String, ArrayList<String[]>> ();
+                for (var key : source.keys ()) {
+                    var asKey = selectKey.select (key);
+                    if (asKey != null) {
+                        var topKey = Key.split (asKey)[0];
+                        map.computeIfAbsent (topKey, k -> new ArrayList<> ()).add (new String[] { asKey, key });
+                    }
+                }
+                var count = map.size ();
+                keys = new String[count];
+                asKeys = new String[count][];
+                sourceKeys = new String[count][];
+                var i = 0;
+                for (var entry : map.entrySet ()) {
+                    var renames = entry.getValue ();
+                    keys[i] = entry.getKey ();
+                    asKeys[i] = new String[renames.size ()];
+                    sourceKeys[i] = new String[renames.size ()];
+                    for (int j = 0, end = renames.size (); j < end; ++j) {
+                        asKeys[i][j] = renames.get (j)[0];
+                        sourceKeys[i][j] = renames.get (j)[1];
+                    }
+                    ++i;
+                }
+                sourceModCount = source.modCount;
+            }
+            return keys;
+        }
+
+        @Override
+        Object viewValue (int index) {
+            var value = (Object) null;
+            var renames = asKeys[index];
+            var last = renames.length - 1;
+            if (renames[last].equals (keys[index])) {
+                // the last one wins, and it isn't nested
+                value = source.getObject (sourceKeys[index][last]);
+            } else {
+                // build the nested value the way "select" would
+                var bagObject = new BagObject ();
+                bagObject.typed = typed;
+                for (int i = 0; i <= last; ++i) {
+                    bagObject.put (renames[i], source.getObject (sourceKeys[index][i]));
+                }
+                value = bagObject.getObject (keys[index]);
+            }
+
+            // reading a child bag might have taken a private copy of the source's storage, which
+            // counts as a modification, but doesn't change the keys
+            sourceModCount = source.modCount;
+            return value;
+        }
+
+        @Override
+        void measure (Footprint footprint) {
+            // a view retains its source
+            super.measure (footprint);
+            footprint.addValue (source);
+        }
+    }
+}
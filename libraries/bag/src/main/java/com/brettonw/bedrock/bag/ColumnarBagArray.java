@@ -0,0 +1,462 @@
+package com.brettonw.bedrock.bag;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * A read-only BagArray of same-shaped BagObjects (as from a table format reader), stored by
+ * column in direct (off-heap) ByteBuffers instead of as an object per row and per cell. Columns
+ * of booleans, integers, and decimals are stored as fixed-width values, string columns with a
+ * small number of distinct values are stored as codes into a shared dictionary, and other string
+ * columns are stored as UTF-8 bytes. The heap only holds a few objects per column, no matter how
+ * many rows there are, so a large reference table costs the garbage collector almost nothing.
+ * <p>
+ * The rows are handed out as lightweight, read-only BagObject views, which decode their values
+ * when they are read. Rows can be queried, selected, written out as text, and materialized like
+ * any other BagObject. "sort" reorders the rows without moving any of the column data. Values are
+ * returned in the form they were stored in, except that a column mixing strings with native
+ * values returns them all as strings (which compare and write out the same). Only flat objects
+ * can be stored, a row containing a child bag is rejected.
+ */
+public class ColumnarBagArray extends BagArrayView {
+    // string columns with at most this many distinct values (and no more than half as many as
+    // there are values) are stored as dictionary codes
+    private static final int DICTIONARY_LIMIT = 4096;
+
+    private enum ColumnType { BOOLEAN, LONG, DOUBLE, DICTIONARY, STRING }
+
+    private static class Column {
+        final String name;
+        ColumnType type;
+
+        // fixed-width values, dictionary codes, or UTF-8 bytes
+        ByteBuffer data;
+
+        // the start of each value in the data of a STRING column, and the end of the last one
+        ByteBuffer offsets;
+        String[] dictionary;
+
+        // which rows have a value in this column, null if all of them do
+        BitSet present;
+
+        Column (String name) {
+            this.name = name;
+        }
+    }
+
+    private final int rowCount;
+    private final String[] names;
+    private final Column[] columns;
+    private final boolean complete;
+
+    // the order of the rows after a sort, null until then
+    private ByteBuffer order;
+
+    /**
+     * Create a new ColumnarBagArray with the contents of a BagArray of BagObjects.
+     *
+     * @param bagArray The rows to store.
+     * @throws IllegalArgumentException if an element is not a BagObject, or one of them contains a
+     * child bag.
+     */
+    public ColumnarBagArray (BagArray bagArray) {
+        typed = bagArray.typed;
+        rowCount = bagArray.getCount ();
+
+        // gather the column names, and check that the rows are flat objects
+        var rows = new BagObject[rowCount];
+        var nameSet = new TreeSet<String> ();
+        for (int i = 0; i < rowCount; ++i) {
+            var object = bagArray.getObject (i);
+            if (! (object instanceof BagObject)) {
+                throw new IllegalArgumentException ("Element " + i + " is not a BagObject");
+            }
+            rows[i] = (BagObject) object;
+            rows[i].forEach ((key, value) -> {
+                if (value instanceof Bag) {
+                    throw new IllegalArgumentException ("'" + key + "' is not a scalar value");
+                }
+                nameSet.add (key);
+            });
+        }
+        names = nameSet.toArray (new String[0]);
+
+        // encode the columns one at a time
+        columns = new Column[names.length];
+        var values = new Object[rowCount];
+        var allPresent = true;
+        for (int c = 0; c < names.length; ++c) {
+            for (int i = 0; i < rowCount; ++i) {
+                values[i] = rows[i].getObject (names[c]);
+            }
+            columns[c] = encode (names[c], values);
+            allPresent &= (columns[c].present == null);
+        }
+        complete = allPresent;
+    }
+
+    private static ByteBuffer allocate (long size) {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException ("Column is too large");
+        }
+        return ByteBuffer.allocateDirect ((int) Math.max (size, 1)).order (ByteOrder.nativeOrder ());
+    }
+
+    private static boolean isLong (Object value) {
+        if ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+            return true;
+        }
+        if (value instanceof String) {
+            // only strings that read back exactly the same way
+            var string = (String) value;
+            var length = string.length ();
+            if ((length > 0) && (length <= 20)) {
+                for (int i = (string.charAt (0) == '-') ? 1 : 0; i < length; ++i) {
+                    if (! Character.isDigit (string.charAt (i))) {
+                        return false;
+                    }
+                }
+                try {
+                    return Long.toString (Long.parseLong (string)).equals (string);
+                } catch (NumberFormatException exception) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDouble (Object value) {
+        if (value instanceof Double) {
+            return true;
+        }
+        if (value instanceof String) {
+            // only strings that read back exactly the same way
+            var string = (String) value;
+            var length = string.length ();
+            if ((length > 0) && (length <= 32) && (string.indexOf ('.') >= 0)) {
+                try {
+                    return Double.toString (Double.parseDouble (string)).equals (string);
+                } catch (NumberFormatException exception) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBoolean (Object value) {
+        return (value instanceof Boolean) || "true".equals (value) || "false".equals (value);
+    }
+
+    private static long utf8Length (String string) {
+        var length = 0L;
+        for (int i = 0, end = string.length (); i < end; ++i) {
+            var c = string.charAt (i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate (c)) {
+                // a surrogate pair is one 4 byte character
+                length += 4;
+                ++i;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private Column encode (String name, Object[] values) {
+        // find the narrowest type that holds every value exactly
+        var column = new Column (name);
+        var present = new BitSet (rowCount);
+        boolean allBoolean = true, allLong = true, allDouble = true;
+        for (int i = 0; i < rowCount; ++i) {
+            var value = values[i];
+            if (value != null) {
+                present.set (i);
+                allBoolean = allBoolean && isBoolean (value);
+                allLong = allLong && isLong (value);
+                allDouble = allDouble && isDouble (value);
+            }
+        }
+        column.present = (present.cardinality () < rowCount) ? present : null;
+
+        if (allBoolean) {
+            column.type = ColumnType.BOOLEAN;
+            column.data = allocate (rowCount);
+            for (int i = 0; i < rowCount; ++i) {
+                if (values[i] != null) {
+                    column.data.put (i, (byte) (Boolean.parseBoolean (values[i].toString ()) ? 1 : 0));
+                }
+            }
+        } else if (allLong) {
+            column.type = ColumnType.LONG;
+            column.data = allocate ((long) rowCount * Long.BYTES);
+            for (int i = 0; i < rowCount; ++i) {
+                if (values[i] != null) {
+                    column.data.putLong (i * Long.BYTES, Bag.asLongValue (values[i], 0));
+                }
+            }
+        } else if (allDouble) {
+            column.type = ColumnType.DOUBLE;
+            column.data = allocate ((long) rowCount * Double.BYTES);
+            for (int i = 0; i < rowCount; ++i) {
+                if (values[i] != null) {
+                    column.data.putDouble (i * Double.BYTES, Bag.asDoubleValue (values[i], 0));
+                }
+            }
+        } else {
+            // strings, try to gather a dictionary of the distinct values, which is only worth
+            // having if they repeat
+            var limit = Math.min (DICTIONARY_LIMIT, present.cardinality () / 2);
+            var codes = new HashMap<String, Integer> ();
+            for (int i = 0; (i < rowCount) && (codes.size () <= limit); ++i) {
+                if (values[i] != null) {
+                    codes.putIfAbsent (values[i].toString (), codes.size ());
+                }
+            }
+            if (codes.size () <= limit) {
+                column.type = ColumnType.DICTIONARY;
+                column.dictionary = new String[codes.size ()];
+                codes.forEach ((string, code) -> column.dictionary[code] = string);
+                column.data = allocate ((long) rowCount * Integer.BYTES);
+                for (int i = 0; i < rowCount; ++i) {
+                    if (values[i] != null) {
+                        column.data.putInt (i * Integer.BYTES, codes.get (values[i].toString ()));
+                    }
+                }
+            } else {
+                column.type = ColumnType.STRING;
+                var size = 0L;
+                for (int i = 0; i < rowCount; ++i) {
+                    if (values[i] != null) {
+                        size += utf8Length (values[i].toString ());
+                    }
+                }
+                column.data = allocate (size);
+                column.offsets = allocate ((rowCount + 1L) * Integer.BYTES);
+                var offset = 0;
+                for (int i = 0; i < rowCount; ++i) {
+                    column.offsets.putInt (i * Integer.BYTES, offset);
+                    if (values[i] != null) {
+                        var bytes = values[i].toString ().getBytes (StandardCharsets.UTF_8);
+                        column.data.put (offset, bytes);
+                        offset += bytes.length;
+                    }
+                }
+                column.offsets.putInt (rowCount * Integer.BYTES, offset);
+            }
+        }
+        return column;
+    }
+
+    private Object getValue (int row, Column column) {
+        if ((column.present != null) && (! column.present.get (row))) {
+            return null;
+        }
+        return switch (column.type) {
+            case BOOLEAN -> {
+                var value = column.data.get (row) != 0;
+                yield typed ? (Object) value : Boolean.toString (value);
+            }
+            case LONG -> {
+                var value = column.data.getLong (row * Long.BYTES);
+                yield typed ? (Object) value : Long.toString (value);
+            }
+            case DOUBLE -> {
+                var value = column.data.getDouble (row * Double.BYTES);
+                yield typed ? (Object) value : Double.toString (value);
+            }
+            case DICTIONARY -> column.dictionary[column.data.getInt (row * Integer.BYTES)];
+            case STRING -> {
+                var start = column.offsets.getInt (row * Integer.BYTES);
+                var bytes = new byte[column.offsets.getInt ((row + 1) * Integer.BYTES) - start];
+                column.data.get (start, bytes);
+                yield new String (bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    private Column getColumn (String name) {
+        var index = (name != null) ? Arrays.binarySearch (names, name) : -1;
+        return (index >= 0) ? columns[index] : null;
+    }
+
+    private int getRow (int index) {
+        return (order != null) ? order.getInt (index * Integer.BYTES) : index;
+    }
+
+    @Override
+    public int getCount () {
+        return rowCount;
+    }
+
+    /**
+     * Return a read-only view of the row at the given index. The view is created on each call, and
+     * decodes its values as they are read.
+     *
+     * @param index An integer value specifying the offset from the beginning of the array.
+     * @return The row as a BagObject, or null if the index is out of range.
+     */
+    @Override
+    public Object getObject (int index) {
+        return ((index >= 0) && (index < rowCount)) ? new Row (this, getRow (index)) : null;
+    }
+
+    /**
+     * Return a new BagArray with a BagObject for each row.
+     *
+     * @return A new BagArray.
+     */
+    @Override
+    public BagArray materialize () {
+        var bagArray = new BagArray (rowCount);
+        bagArray.typed = typed;
+        for (int i = 0; i < rowCount; ++i) {
+            bagArray.add (new Row (this, getRow (i)).materialize ());
+        }
+        return bagArray;
+    }
+
+    /**
+     * Reorder the rows, as in BagArray.sort. Only the order of the rows changes, the column data
+     * is not moved.
+     *
+     * @param keys array of SortKey
+     * @return The ColumnarBagArray, so that operations can be chained together.
+     */
+    @Override
+    public BagArray sort (SortKey... keys) {
+        var sortKeys = (keys != null) ? keys : SortKey.DEFAULT;
+        var sortColumns = new Column[sortKeys.length];
+        for (int k = 0; k < sortKeys.length; ++k) {
+            sortColumns[k] = getColumn (sortKeys[k].getKey ());
+        }
+        Comparator<Integer> comparator = (a, b) -> {
+            for (int k = 0; k < sortKeys.length; ++k) {
+                var sortKey = sortKeys[k];
+                var cmp = (sortKey.getKey () == null) ?
+                        // with no key, the rows are compared themselves, as in BagArray.sort
+                        sortKey.compare (new Row (this, a), new Row (this, b)) :
+                        sortKey.compare (
+                                (sortColumns[k] != null) ? getValue (a, sortColumns[k]) : null,
+                                (sortColumns[k] != null) ? getValue (b, sortColumns[k]) : null);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        };
+
+        // sort the row numbers, starting from the current order so the sort is stable with
+        // respect to it
+        var rows = new Integer[rowCount];
+        for (int i = 0; i < rowCount; ++i) {
+            rows[i] = getRow (i);
+        }
+        Arrays.sort (rows, comparator);
+        var newOrder = allocate ((long) rowCount * Integer.BYTES);
+        for (int i = 0; i < rowCount; ++i) {
+            newOrder.putInt (i * Integer.BYTES, rows[i]);
+        }
+        order = newOrder;
+        ++modCount;
+        return this;
+    }
+
+    /**
+     * Return the number of bytes of column data stored off the heap.
+     *
+     * @return The total capacity of the direct buffers.
+     */
+    public long getOffHeapSize () {
+        var size = (order != null) ? (long) order.capacity () : 0L;
+        for (var column : columns) {
+            size += column.data.capacity () + ((column.offsets != null) ? column.offsets.capacity () : 0);
+        }
+        return size;
+    }
+
+    @Override
+    void measure (Footprint footprint) {
+        // only the heap is measured, see getOffHeapSize for the rest
+        super.measure (footprint);
+        footprint.addBagOverhead (Footprint.arraySize (names.length, Footprint.REFERENCE) * 2);
+        for (var column : columns) {
+            footprint.addKey (column.name);
+            if (column.present != null) {
+                footprint.addBagOverhead (Footprint.arraySize ((rowCount + 63) / 64, Long.BYTES));
+            }
+            if (column.dictionary != null) {
+                footprint.addContainer (column.dictionary.length, column.dictionary.length, Footprint.REFERENCE);
+                for (var string : column.dictionary) {
+                    footprint.addValue (string);
+                }
+            }
+        }
+    }
+
+    /**
+     * A read-only view of one row.
+     */
+    static class Row extends BagObjectView {
+        private final ColumnarBagArray table;
+        private final int row;
+
+        // the keys present in this row, and the columns they are in, when not every row has every
+        // column
+        private String[] keys;
+        private int[] columnIndices;
+
+        Row (ColumnarBagArray table, int row) {
+            this.table = table;
+            this.row = row;
+            typed = table.typed;
+        }
+
+        @Override
+        String[] viewKeys () {
+            if (keys == null) {
+                if (table.complete) {
+                    keys = table.names;
+                } else {
+                    var found = 0;
+                    var indices = new int[table.columns.length];
+                    for (int c = 0; c < table.columns.length; ++c) {
+                        var present = table.columns[c].present;
+                        if ((present == null) || present.get (row)) {
+                            indices[found++] = c;
+                        }
+                    }
+                    columnIndices = Arrays.copyOf (indices, found);
+                    keys = new String[found];
+                    for (int i = 0; i < found; ++i) {
+                        keys[i] = table.names[columnIndices[i]];
+                    }
+                }
+            }
+            return keys;
+        }
+
+        @Override
+        Object viewValue (int index) {
+            return table.getValue (row, table.columns[(columnIndices != null) ? columnIndices[index] : index]);
+        }
+
+        @Override
+        void measure (Footprint footprint) {
+            // a row retains its table
+            super.measure (footprint);
+            footprint.addValue (table);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.brettonw.bedrock.bag;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A thread-safe BagObject, for shared mutable state (counters, registries) that is updated by
+ * many threads at once. The pairs are kept in a ConcurrentHashMap, so reads are lock-free and
+ * writes only lock the hash bin they touch. Child BagObjects created implicitly by a path are
+ * ConcurrentBagObjects too, so paths are thread-safe all the way down. Bags stored explicitly are
+ * stored as given, and are only as thread-safe as they are.
+ * <p>
+ * BagArrays built by "add" are replaced, not modified, when a value is added to them, so a reader
+ * never sees one change. The replacement shares the elements of the array it replaces, so only
+ * their references are copied, and child bags in it stay the same objects. "computeIfAbsent",
+ * "compute", and "merge" operate atomically on a path.
+ * The JSON text is the same as for a BagObject with the same contents.
+ */
+public class ConcurrentBagObject extends BagObject {
+    private final ConcurrentHashMap<String, Object> map;
+
+    /**
+     * Create a new, empty ConcurrentBagObject.
+     */
+    public ConcurrentBagObject () {
+        super (0);
+        map = new ConcurrentHashMap<> ();
+    }
+
+    /**
+     * Create a new ConcurrentBagObject with the contents of another BagObject. Child BagObjects
+     * are copied into ConcurrentBagObjects.
+     */
+    public ConcurrentBagObject (BagObject bagObject) {
+        this ();
+        typed = bagObject.typed;
+        for (var key : bagObject.keys ()) {
+            var value = bagObject.getObject (key);
+            map.put (key, (value instanceof BagObject) ? new ConcurrentBagObject ((BagObject) value) : copyValue (value));
+        }
+    }
+
+    private ConcurrentBagObject newChild () {
+        var bagObject = new ConcurrentBagObject ();
+        bagObject.typed = typed;
+        return bagObject;
+    }
+
+    private ConcurrentBagObject getOrAddChild (String key) {
+        var found = map.computeIfAbsent (key, k -> newChild ());
+        if (found instanceof ConcurrentBagObject) {
+            return (ConcurrentBagObject) found;
+        }
+        throw new UnsupportedOperationException ("'" + key + "' is not a ConcurrentBagObject");
+    }
+
+    private ConcurrentBagObject getOrAddParent (KeyPath keyPath) {
+        // walk down to the ConcurrentBagObject that holds the last key in the path, creating
+        // children for the intermediate keys as necessary
+        var bagObject = this;
+        for (int level = 0, last = keyPath.getLength () - 1; level < last; ++level) {
+            bagObject = bagObject.getOrAddChild (keyPath.getKey (level));
+        }
+        return bagObject;
+    }
+
+    /**
+     * Return a shallow, unsynchronized copy of the current contents as a plain BagObject.
+     */
+    BagObject snapshot () {
+        var keys = keys ();
+        var bagObject = new BagObject (keys.length);
+        bagObject.typed = typed;
+        for (var key : keys) {
+            var value = map.get (key);
+            if (value != null) {
+                // the keys are in order, so each put is an append
+                bagObject.put (key, value);
+            }
+        }
+        return bagObject;
+    }
+
+    @Override
+    public int getCount () {
+        return map.size ();
+    }
+
+    /**
+     * A ConcurrentBagObject is always hash-indexed, so this does nothing.
+     *
+     * @return The ConcurrentBagObject, so that operations can be chained together.
+     */
+    @Override
+    public ConcurrentBagObject hashed () {
+        return this;
+    }
+
+    @Override
+    public boolean isHashed () {
+        return true;
+    }
+
+    /**
+     * Return a deep copy of the current contents, as a plain BagObject.
+     *
+     * @return A new BagObject.
+     */
+    @Override
+    public BagObject copyOnWrite () {
+        return new BagObject (this);
+    }
+
+    /**
+     * Return a frozen copy of the current contents, as a plain BagObject.
+     *
+     * @return A frozen BagObject.
+     */
+    @Override
+    public BagObject freeze () {
+        return snapshot ().freeze ();
+    }
+
+    /**
+     * Return a shallow copy of the current contents, as a plain BagObject.
+     *
+     * @return A new BagObject.
+     */
+    @Override
+    public BagObject materialize () {
+        return snapshot ();
+    }
+
+    /**
+     * The keys of a ConcurrentBagObject can change at any time, so the selection is made up front,
+     * as in "select".
+     *
+     * @return A new BagObject.
+     */
+    @Override
+    public BagObject selectView (SelectKey selectKey) {
+        return select (selectKey);
+    }
+
+    @Override
+    public Object getObject (String key) {
+        var path = Key.split (key);
+        var found = map.get (path[0]);
+        return ((path.length == 1) || (found == null)) ? found : ((Bag) found).getObject (path[1]);
+    }
+
+    @Override
+    Object getObject (KeyPath keyPath, int level) {
+        return map.get (keyPath.getKey (level));
+    }
+
+    @Override
+    public ConcurrentBagObject put (String key, Object object) {
+        object = objectify (object);
+        if (object != null) {
+            var path = Key.split (key);
+            if (path.length == 1) {
+                map.put (key, object);
+            } else {
+                getOrAddChild (path[0]).put (path[1], object);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public ConcurrentBagObject put (KeyPath keyPath, Object object) {
+        object = objectify (object);
+        if (object != null) {
+            getOrAddParent (keyPath).map.put (keyPath.getKey (keyPath.getLength () - 1), object);
+        }
+        return this;
+    }
+
+    private Object addTo (Object found, Object object) {
+        // the array is copied rather than modified, so that readers never see it change. only the
+        // references to the elements are copied, so child bags in it are kept as they are
+        object = objectify (object);
+        if (found == null) {
+            return (object != null) ? object : newChildArray ().add (null);
+        }
+        var bagArray = (found instanceof BagArray) ?
+                ((BagArray) found).shallowCopy (((BagArray) found).getCount () + 1) :
+                newChildArray ().add (found);
+        return bagArray.add (object);
+    }
+
+    private BagArray newChildArray () {
+        var bagArray = new BagArray (2);
+        bagArray.typed = typed;
+        return bagArray;
+    }
+
+    @Override
+    public ConcurrentBagObject add (String key, Object object) {
+        var path = Key.split (key);
+        if (path.length == 1) {
+            map.compute (key, (k, found) -> addTo (found, object));
+        } else {
+            getOrAddChild (path[0]).add (path[1], object);
+        }
+        return this;
+    }
+
+    @Override
+    public ConcurrentBagObject add (KeyPath keyPath, Object object) {
+        getOrAddParent (keyPath).map.compute (keyPath.getKey (keyPath.getLength () - 1), (k, found) -> addTo (found, object));
+        return this;
+    }
+
+    @Override
+    public ConcurrentBagObject remove (String key) {
+        var path = Key.split (key);
+        if (path.length == 1) {
+            map.remove (key);
+        } else {
+            var found = map.get (path[0]);
+            if (found instanceof BagObject) {
+                ((BagObject) found).remove (path[1]);
+            }
+        }
+        return this;
+    }
+
+    private Object getParent (KeyPath keyPath) {
+        // walk down to the container of the last key in the path, without creating anything
+        Object found = this;
+        for (int level = 0, last = keyPath.getLength () - 1; (level < last) && (found instanceof Bag); ++level) {
+            found = ((Bag) found).getObject (keyPath, level);
+        }
+        return found;
+    }
+
+    @Override
+    public ConcurrentBagObject remove (KeyPath keyPath) {
+        var parent = getParent (keyPath);
+        if (parent instanceof BagObject) {
+            ((BagObject) parent).remove (keyPath.getKey (keyPath.getLength () - 1));
+        }
+        return this;
+    }
+
+    @Override
+    public boolean has (String key) {
+        var path = Key.split (key);
+        var found = map.get (path[0]);
+        return (path.length == 1) ? (found != null) : ((found instanceof BagObject) && ((BagObject) found).has (path[1]));
+    }
+
+    @Override
+    public boolean has (KeyPath keyPath) {
+        var parent = getParent (keyPath);
+        return (parent instanceof BagObject) && (((BagObject) parent).getObject (keyPath, keyPath.getLength () - 1) != null);
+    }
+
+    @Override
+    public String[] keys () {
+        var keys = map.keySet ().toArray (new String[0]);
+        Arrays.sort (keys);
+        return keys;
+    }
+
+    /**
+     * Perform an action on each of the pairs, in key order. Pairs that are removed while the walk is
+     * in progress are skipped, and pairs that are added might not be seen.
+     *
+     * @param action A function of the key and the value of each pair.
+     */
+    @Override
+    public void forEach (BiConsumer<String, Object> action) {
+        for (var key : keys ()) {
+            var value = map.get (key);
+            if (value != null) {
+                action.accept (key, value);
+            }
+        }
+    }
+
+    /**
+     * Atomically store the result of the function at the requested path, if there isn't already a
+     * value there. Intermediate BagObjects are created as needed.
+     *
+     * @param key A string value used to index the element, using "/" as separators.
+     * @param function A function to compute the value from the last key in the path. It is called
+     *                 at most once, and only if the value is absent.
+     * @return The existing or computed value (as stored), or null if the function returned null.
+     */
+    public Object computeIfAbsent (String key, Function<String, Object> function) {
+        var keyPath = Key.compile (key);
+        return getOrAddParent (keyPath).map.computeIfAbsent (keyPath.getKey (keyPath.getLength () - 1), k -> objectify (function.apply (k)));
+    }
+
+    /**
+     * Atomically replace the value at the requested path with the result of the function.
+     * Intermediate BagObjects are created as needed.
+     *
+     * @param key A string value used to index the element, using "/" as separators.
+     * @param function A function from the last key in the path and the current value (or null) to
+     *                 the new value. A null result removes the value.
+     * @return The new value (as stored), or null if it was removed.
+     */
+    public Object compute (String key, BiFunction<String, Object, Object> function) {
+        var keyPath = Key.compile (key);
+        return getOrAddParent (keyPath).map.compute (keyPath.getKey (keyPath.getLength () - 1), (k, found) -> objectify (function.apply (k, found)));
+    }
+
+    /**
+     * Atomically merge a value into the value at the requested path, as in Map.merge. This is
+     * convenient for counters, e.g. merge ("hits/home", 1, ...).
+     *
+     * @param key A string value used to index the element, using "/" as separators.
+     * @param object The value to store if there is no current value.
+     * @param function A function from the current value and the given value to the new value. A
+     *                 null result removes the value.
+     * @return The new value (as stored), or null if it was removed.
+     */
+    public Object merge (String key, Object object, BiFunction<Object, Object, Object> function) {
+        var keyPath = Key.compile (key);
+        var value = objectify (object);
+        return getOrAddParent (keyPath).map.merge (keyPath.getKey (keyPath.getLength () - 1), value, (found, given) -> objectify (function.apply (found, given)));
+    }
+
+    @Override
+    void measure (Footprint footprint) {
+        super.measure (footprint);
+        // the nodes of the map hold the pairs
+        footprint.addHashTable (map.size ());
+        for (var entry : map.entrySet ()) {
+            footprint.addPair (Footprint.HASH_NODE);
+            footprint.addKey (entry.getKey ());
+            footprint.addValue (entry.getValue ());
+        }
+    }
+
+    @Override
+    boolean equalContents (Bag bag) {
+        var bagObject = (ConcurrentBagObject) bag;
+        if (map.size () != bagObject.map.size ()) {
+            return false;
+        }
+        for (var entry : map.entrySet ()) {
+            if (! equalValues (entry.getValue (), bagObject.map.get (entry.getKey ()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The hash code is computed on every call, as the contents can change at any time. It uses the
+     * same formula as BagObject.
+     */
+    @Override
+    public int hashCode () {
+        var hash = 0;
+        for (var entry : map.entrySet ()) {
+            var value = entry.getValue ();
+            hash += hashPair (entry.getKey ().hashCode (), (value instanceof Bag) ? value.hashCode () : hashValue (value));
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,323 @@
+package com.brettonw.bedrock.bag;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An estimate of the heap retained by a tree of Bags, broken down by where the bytes go: the bag
+ * instances themselves (with their cached hash codes and text), the hash indexes of wide
+ * BagObjects, the key/value pair objects, the used part of the backing arrays, the unused
+ * capacity of the backing arrays (the "slack" left by the growth policies), and the key and value
+ * strings. Objects that are reachable more than once (child bags stored in two places, storage
+ * shared by copy-on-write copies, interned strings) are counted once.
+ * <p>
+ * The sizes assume a 64-bit JVM with compressed references (the default for heaps smaller than
+ * 32GB), and compact strings. They are estimates, good enough to size caches and heaps, or to
+ * weigh entries for eviction, but not exact.
+ */
+public class Footprint {
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+    static final int ALIGNMENT = 8;
+
+    // the fields declared by Bag itself, which every bag instance carries
+    private static final int BAG_REFERENCES = 3;
+    private static final int BAG_INTS = 3;
+    private static final int BAG_BOOLEANS = 2;
+
+    // the sizes of the nodes in a HashMap or ConcurrentHashMap, and of the maps themselves
+    static final int HASH_NODE = 32;
+    private static final int HASH_MAP = 48;
+    private static final int SMALL_INTEGER_CACHE = 128;
+
+    private final Set<Object> visited;
+    private final Map<String, String> strings;
+
+    private int bagCount;
+    private long bagBytes;
+    private long indexBytes;
+    private int pairCount;
+    private long pairBytes;
+    private long containerBytes;
+    private long slackBytes;
+    private long keyBytes;
+    private long valueBytes;
+    private int duplicateStringCount;
+    private long duplicateStringBytes;
+
+    private Footprint (boolean findDuplicates) {
+        visited = Collections.newSetFromMap (new IdentityHashMap<> ());
+        strings = findDuplicates ? new HashMap<> () : null;
+    }
+
+    /**
+     * Measure the heap retained by a Bag and everything reachable from it.
+     *
+     * @param bag The root of the tree to measure.
+     * @return The Footprint of the tree.
+     */
+    public static Footprint measure (Bag bag) {
+        return measure (bag, false);
+    }
+
+    /**
+     * Measure the heap retained by a Bag and everything reachable from it, optionally looking for
+     * strings that are stored more than once (equal, but separate instances), which are the
+     * candidates for interning.
+     *
+     * @param bag The root of the tree to measure.
+     * @param findDuplicates Whether or not to look for duplicate strings.
+     * @return The Footprint of the tree.
+     */
+    public static Footprint measure (Bag bag, boolean findDuplicates) {
+        var footprint = new Footprint (findDuplicates);
+        footprint.addValue (bag);
+        return footprint;
+    }
+
+    static long align (long size) {
+        return (size + (ALIGNMENT - 1)) & ~((long) (ALIGNMENT - 1));
+    }
+
+    static long arraySize (int length, int elementSize) {
+        return align (ARRAY_HEADER + ((long) length * elementSize));
+    }
+
+    /**
+     * Return the size of an instance of a Bag subclass, with the given fields in addition to the
+     * ones every Bag has.
+     */
+    static long bagSize (int references, int ints, int booleans) {
+        return align (OBJECT_HEADER +
+                ((BAG_REFERENCES + references) * REFERENCE) +
+                ((BAG_INTS + ints) * Integer.BYTES) +
+                (BAG_BOOLEANS + booleans));
+    }
+
+    static long stringSize (String string) {
+        // a String is a header, a reference to the byte array, the hash, and two flags. the array
+        // holds one byte per character if they are all Latin-1, and two otherwise
+        var length = string.length ();
+        var bytesPerChar = 1;
+        for (int i = 0; i < length; ++i) {
+            if (string.charAt (i) > 0xff) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return align (OBJECT_HEADER + REFERENCE + Integer.BYTES + 2) + arraySize (length, bytesPerChar);
+    }
+
+    static int hashTableCapacity (int size) {
+        // the smallest power of 2 that holds the entries at the default load factor
+        var capacity = 16;
+        while ((capacity * 3L) < (size * 4L)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns true the first time an object is seen, so that shared objects are only counted once.
+     */
+    boolean visit (Object object) {
+        return visited.add (object);
+    }
+
+    void addBag (long bytes) {
+        ++bagCount;
+        bagBytes += bytes;
+    }
+
+    void addBagOverhead (long bytes) {
+        bagBytes += bytes;
+    }
+
+    void addBagOverhead (String string) {
+        if ((string != null) && visit (string)) {
+            bagBytes += stringSize (string);
+        }
+    }
+
+    void addHashTable (int size) {
+        indexBytes += HASH_MAP + arraySize (hashTableCapacity (size), REFERENCE);
+    }
+
+    void addHashIndex (int size) {
+        // a HashMap from keys to positions, positions past the small Integer cache are boxed
+        // separately
+        addHashTable (size);
+        indexBytes += ((long) size * HASH_NODE) +
+                ((long) Math.max (0, size - SMALL_INTEGER_CACHE) * align (OBJECT_HEADER + Integer.BYTES));
+    }
+
+    void addContainer (int length, int count, int elementSize) {
+        var slack = (long) (length - count) * elementSize;
+        containerBytes += arraySize (length, elementSize) - slack;
+        slackBytes += slack;
+    }
+
+    void addPair (long bytes) {
+        ++pairCount;
+        pairBytes += bytes;
+    }
+
+    private long addString (String string) {
+        var size = stringSize (string);
+        if (strings != null) {
+            var found = strings.putIfAbsent (string, string);
+            if (found != null) {
+                ++duplicateStringCount;
+                duplicateStringBytes += size;
+            }
+        }
+        return size;
+    }
+
+    void addKey (String key) {
+        if (visit (key)) {
+            keyBytes += addString (key);
+        }
+    }
+
+    void addValue (Object value) {
+        if ((value != null) && visit (value)) {
+            if (value instanceof Bag) {
+                ((Bag) value).measure (this);
+            } else if (value instanceof String) {
+                valueBytes += addString ((String) value);
+            } else {
+                // a boxed number or boolean
+                valueBytes += ((value instanceof Long) || (value instanceof Double)) ?
+                        align (OBJECT_HEADER + Long.BYTES) :
+                        align (OBJECT_HEADER + Integer.BYTES);
+            }
+        }
+    }
+
+    /**
+     * @return The estimated number of bytes retained by the tree.
+     */
+    public long getTotal () {
+        return bagBytes + indexBytes + pairBytes + containerBytes + slackBytes + keyBytes + valueBytes;
+    }
+
+    /**
+     * Return the total as an int, for caches that weigh their entries (e.g. as a Weigher), clamped
+     * to Integer.MAX_VALUE.
+     *
+     * @return The estimated number of bytes retained by the tree, as an int.
+     */
+    public int getWeight () {
+        return (int) Math.min (getTotal (), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return The number of bags in the tree.
+     */
+    public int getBagCount () {
+        return bagCount;
+    }
+
+    /**
+     * @return The bytes used by the bag instances, their cached hash codes, and cached text.
+     */
+    public long getBagBytes () {
+        return bagBytes;
+    }
+
+    /**
+     * @return The bytes used by the hash indexes of wide (or concurrent) BagObjects.
+     */
+    public long getIndexBytes () {
+        return indexBytes;
+    }
+
+    /**
+     * @return The number of key/value pairs in the BagObjects of the tree.
+     */
+    public int getPairCount () {
+        return pairCount;
+    }
+
+    /**
+     * @return The bytes used by the key/value pair objects.
+     */
+    public long getPairBytes () {
+        return pairBytes;
+    }
+
+    /**
+     * @return The bytes used by the occupied part of the backing arrays.
+     */
+    public long getContainerBytes () {
+        return containerBytes;
+    }
+
+    /**
+     * @return The bytes used by the unoccupied part of the backing arrays.
+     */
+    public long getSlackBytes () {
+        return slackBytes;
+    }
+
+    /**
+     * @return The bytes used by the key strings.
+     */
+    public long getKeyBytes () {
+        return keyBytes;
+    }
+
+    /**
+     * @return The bytes used by the values (strings and native values).
+     */
+    public long getValueBytes () {
+        return valueBytes;
+    }
+
+    /**
+     * @return The number of strings that are equal to another one in the tree, but stored as a
+     * separate instance, if duplicates were requested.
+     */
+    public int getDuplicateStringCount () {
+        return duplicateStringCount;
+    }
+
+    /**
+     * @return The bytes used by duplicate strings (included in the key and value bytes), that
+     * interning would save, if duplicates were requested.
+     */
+    public long getDuplicateStringBytes () {
+        return duplicateStringBytes;
+    }
+
+    /**
+     * Return the Footprint as a BagObject, for reporting.
+     *
+     * @return A new BagObject.
+     */
+    public BagObject toBagObject () {
+        return new BagObject ()
+                .put ("total", getTotal ())
+                .put ("bags", bagCount)
+                .put ("bagBytes", bagBytes)
+                .put ("indexBytes", indexBytes)
+                .put ("pairs", pairCount)
+                .put ("pairBytes", pairBytes)
+                .put ("containerBytes", containerBytes)
+                .put ("slackBytes", slackBytes)
+                .put ("keyBytes", keyBytes)
+                .put ("valueBytes", valueBytes)
+                .put ("duplicateStrings", duplicateStringCount)
+                .put ("duplicateStringBytes", duplicateStringBytes);
+    }
+
+    @Override
+    public String toString () {
+        return toBagObject ().toString ();
+    }
+}
@@ -21,6 +21,25 @@ public final class Key {
         return stringBuilder.toString ();
     }
 
+    /**
+     * Compile a path for repeated use in indexing a Bag. The result is immutable, so it can be
+     * computed once (a static final, for example) and shared freely.
+     * @param path a String with the components in path form, separated by "/"
+     * @return a KeyPath that indexes the same elements as the path
+     */
+    public static KeyPath compile (String path) {
+        return new KeyPath (path.split (BagObject.PATH_SEPARATOR, -1));
+    }
+
+    /**
+     * Compile a path from multiple string components, as if they had been concatenated with "cat".
+     * @param components the different levels of the hierarchy to index
+     * @return a KeyPath that indexes the same elements as the concatenated path
+     */
+    public static KeyPath compile (Object... components) {
+        return compile (cat (components));
+    }
+
     static String[] split (String key) {
         return key.split (BagObject.PATH_SEPARATOR, 2);
     }
@@ -0,0 +1,86 @@
+package com.brettonw.bedrock.bag;
+
+import java.util.Arrays;
+
+/**
+ * A precompiled, immutable path used for hierarchical indexing in BagObjects and BagArrays. The
+ * string form of a path ("com/brettonw/bedrock/key") is split every time it is used to index a
+ * Bag, a KeyPath is split once (by Key.compile) and can be kept and reused, so that a lookup walks
+ * the tree without allocating anything.
+ */
+public final class KeyPath {
+    // the array index values for the special keywords, and for keys that are not array indices
+    static final int NOT_AN_INDEX = -1;
+    static final int FIRST = -2;
+    static final int LAST = -3;
+
+    private final String[] keys;
+    private final int[] indices;
+
+    KeyPath (String[] keys) {
+        this.keys = keys;
+
+        // precompute the array index interpretation of each key, so BagArray lookups don't have to
+        // parse anything
+        indices = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            indices[i] = toIndex (keys[i]);
+        }
+    }
+
+    private static int toIndex (String key) {
+        switch (key) {
+            case "#first": return FIRST;
+            case "#last": return LAST;
+            default:
+                try {
+                    return Math.max (Integer.parseInt (key), NOT_AN_INDEX);
+                } catch (NumberFormatException exception) {
+                    return NOT_AN_INDEX;
+                }
+        }
+    }
+
+    /**
+     * Return the number of components in the path.
+     *
+     * @return the count of keys in the path.
+     */
+    public int getLength () {
+        return keys.length;
+    }
+
+    /**
+     * Return one component of the path.
+     *
+     * @param level the depth in the hierarchy, starting at 0.
+     * @return the key at the requested level.
+     */
+    public String getKey (int level) {
+        return keys[level];
+    }
+
+    int getIndex (int level, int count) {
+        var index = indices[level];
+        switch (index) {
+            case FIRST: return 0;
+            case LAST: return count - 1;
+            default: return index;
+        }
+    }
+
+    @Override
+    public boolean equals (Object object) {
+        return (object instanceof KeyPath) && Arrays.equals (keys, ((KeyPath) object).keys);
+    }
+
+    @Override
+    public int hashCode () {
+        return Arrays.hashCode (keys);
+    }
+
+    @Override
+    public String toString () {
+        return String.join (BagObject.PATH_SEPARATOR, keys);
+    }
+}
@@ -137,8 +137,8 @@ public class Serializer {
     }
 
     private static BagObject serializeJavaObjectType (Object object, Class type) {
-        // this bedrock object will hold the value(s) of the fields
-        var bagObject = new BagObject ();
+        // this builder will hold the value(s) of the fields, which come in no particular order
+        var builder = new BagObject.Builder ();
         try {
             @SuppressWarnings("unchecked")
             // gather all of the fields declared; public, private, static, etc., then loop over them
@@ -170,9 +170,9 @@ public class Serializer {
                             var fieldObjectType = getBoxedType(fieldObject.getClass());
                             var fieldType = getBoxedType(field.getType());
                             if (fieldObjectType.isAssignableFrom(fieldType)) {
-                                bagObject.put(field.getName(), serialize(fieldObject));
+                                builder.put(field.getName(), serialize(fieldObject));
                             } else {
-                                bagObject.put(field.getName(), serializeWithType(fieldObject, WITHOUT_VERSION));
+                                builder.put(field.getName(), serializeWithType(fieldObject, WITHOUT_VERSION));
                             }
                         }
                     } catch (IllegalAccessException exception) {
@@ -194,7 +194,7 @@ public class Serializer {
                     var objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
                     objectOutputStream.writeObject(object);
                     var encodedObject = Base64.getEncoder().encodeToString(byteArrayOutputStream.toByteArray());
-                    bagObject.put(BASE64_ENCODED, encodedObject);
+                    builder.put(BASE64_ENCODED, encodedObject);
                     log.info ("Object serialized via BASE-64 encoding");
                 } catch (IOException ioException) {
                     // XXX well #^@#$&! - we'll return an empty serialization
@@ -205,7 +205,7 @@ public class Serializer {
                 log.error ("Object not serializable");
             }
         }
-        return bagObject;
+        return builder.build ();
     }
 
     private static BagArray serializeArrayType (Object object) {
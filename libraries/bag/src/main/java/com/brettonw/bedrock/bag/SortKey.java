@@ -65,15 +65,24 @@ public class SortKey {
     }
 
     public int compare (String left, String right) {
+        return compare ((Object) left, (Object) right);
+    }
+
+    private static double toDouble (Object object) {
+        // values from a typed bag are already numbers, so we only parse strings
+        return (object instanceof Number) ? ((Number) object).doubleValue () : Double.parseDouble (object.toString ());
+    }
+
+    public int compare (Object left, Object right) {
         // XXX should consider how to handle nulls
         return switch (type) {
             case ALPHABETIC -> switch (order) {
-                case ASCENDING -> left.compareTo(right);
-                case DESCENDING -> right.compareTo(left);
+                case ASCENDING -> left.toString ().compareTo(right.toString ());
+                case DESCENDING -> right.toString ().compareTo(left.toString ());
             };
             case NUMERIC -> switch (order) {
-                case ASCENDING -> Double.valueOf(left).compareTo(Double.valueOf(right));
-                case DESCENDING -> Double.valueOf(right).compareTo(Double.valueOf(left));
+                case ASCENDING -> Double.compare (toDouble (left), toDouble (right));
+                case DESCENDING -> Double.compare (toDouble (right), toDouble (left));
             };
         };
     }
@@ -2,6 +2,7 @@ package com.brettonw.bedrock.bag;
 
 import com.brettonw.bedrock.bag.formats.FormatReader;
 import com.brettonw.bedrock.bag.formats.MimeType;
+import com.brettonw.bedrock.bag.formats.StringPool;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -17,6 +18,7 @@ import java.util.function.Supplier;
 public class SourceAdapter {
     protected String mimeType;
     protected String stringData;
+    protected StringPool stringPool;
 
     public SourceAdapter () {}
 
@@ -35,6 +37,22 @@ public class SourceAdapter {
         return this;
     }
 
+    /**
+     * Set a pool for the format reader to share key and value strings through, so that repeated
+     * strings in the input are stored once. The default is not to pool strings.
+     *
+     * @param stringPool A StringPool, which might be shared with other reads, or null.
+     * @return The SourceAdapter, so that operations can be chained together.
+     */
+    public SourceAdapter setStringPool (StringPool stringPool) {
+        this.stringPool = stringPool;
+        return this;
+    }
+
+    public StringPool getStringPool () {
+        return stringPool;
+    }
+
     public String getMimeType () {
         return mimeType;
     }
@@ -0,0 +1,437 @@
+package com.brettonw.bedrock.bag;
+
+import com.brettonw.bedrock.bag.formats.BinaryEncoding;
+import com.brettonw.bedrock.bag.formats.MimeType;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static com.brettonw.bedrock.bag.formats.BinaryEncoding.*;
+
+/**
+ * Source Adapter for an indexed Bag file (MimeType.INDEXED), which is memory mapped rather than
+ * read, so opening one takes the same time no matter how large it is. The Bags it returns are
+ * read-only views that decode their elements from the mapped file when they are touched, and
+ * only those, so the memory used follows what is read rather than the size of the file. Child
+ * bags are returned as views too. "materialize" decodes a whole subtree into normal Bags.
+ * <p>
+ * Indexed files are written with "write". Every value is stored at its own offset in the file, and
+ * every array and object is followed by an index of the offsets of its elements (by key, in sorted
+ * order, for an object), so any element can be found without reading the ones before it. Keys
+ * are stored once, in a dictionary at the end of the file. The values themselves are encoded as in
+ * the binary format (see BinaryEncoding). This adapter has no string data, the
+ * format readers hand its Bags back directly.
+ */
+public class SourceAdapterMapped extends SourceAdapter {
+    private static final byte[] MAGIC = { 'B', 'X' };
+    private static final byte VERSION = 1;
+
+    // the trailer is the root offset, the dictionary offset, and the magic number
+    private static final int TRAILER_SIZE = (Long.BYTES * 2) + 2;
+
+    // files are mapped in segments, as a single mapping can't be larger than 2GB
+    private static final int SEGMENT_SHIFT = 30;
+
+    // the size of an entry in the index of an object, the key number and the value offset
+    private static final int OBJECT_ENTRY = Integer.BYTES + Long.BYTES;
+
+    private final ByteBuffer[] segments;
+    private final int segmentShift;
+    private final long size;
+    private final String[] keys;
+    private final long rootOffset;
+
+    /**
+     * Open an indexed Bag file.
+     *
+     * @param file The file to open.
+     * @throws IOException if the file can't be mapped, or is not an indexed Bag file.
+     */
+    public SourceAdapterMapped (File file) throws IOException {
+        this (file, SEGMENT_SHIFT);
+    }
+
+    SourceAdapterMapped (File file, int segmentShift) throws IOException {
+        mimeType = MimeType.INDEXED;
+        this.segmentShift = segmentShift;
+        try (var channel = FileChannel.open (file.toPath (), StandardOpenOption.READ)) {
+            // the mappings stay valid after the channel is closed
+            size = channel.size ();
+            var segmentSize = 1L << segmentShift;
+            segments = new ByteBuffer[(int) ((size + segmentSize - 1) >>> segmentShift)];
+            for (int i = 0; i < segments.length; ++i) {
+                var start = (long) i << segmentShift;
+                segments[i] = channel.map (FileChannel.MapMode.READ_ONLY, start, Math.min (segmentSize, size - start));
+            }
+        }
+
+        // check the file, and read the dictionary of keys
+        if ((size < MAGIC.length + 1 + TRAILER_SIZE) ||
+                (get (0) != MAGIC[0]) || (get (1) != MAGIC[1]) ||
+                (get (size - 2) != MAGIC[0]) || (get (size - 1) != MAGIC[1])) {
+            throw new IOException ("Not an indexed Bag file (" + file + ")");
+        }
+        if (get (2) != VERSION) {
+            throw new IOException ("Unsupported indexed Bag file version (" + get (2) + ")");
+        }
+        rootOffset = getFixed (size - TRAILER_SIZE, Long.BYTES);
+        try {
+            var cursor = new Cursor (getFixed (size - TRAILER_SIZE + Long.BYTES, Long.BYTES));
+            var count = cursor.varint ();
+            if ((count < 0) || (count > size)) {
+                throw new IllegalStateException ("Invalid key count (" + count + ")");
+            }
+            keys = new String[(int) count];
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = cursor.string ();
+            }
+        } catch (IllegalArgumentException | IllegalStateException | IndexOutOfBoundsException exception) {
+            throw new IOException ("Damaged indexed Bag file (" + file + "): " + exception.getMessage ());
+        }
+    }
+
+    /**
+     * The indexed format has no text form.
+     *
+     * @return null
+     */
+    @Override
+    public String getStringData () {
+        return null;
+    }
+
+    /**
+     * Return the root of the file.
+     *
+     * @return A read-only BagObject or BagArray view of the root of the file.
+     */
+    public Bag getBag () {
+        return (Bag) readValue (rootOffset);
+    }
+
+    /**
+     * Return the root of the file, if it is a BagArray.
+     *
+     * @return A read-only view of the root of the file, or null if it is not a BagArray.
+     */
+    public BagArray getBagArray () {
+        var bag = getBag ();
+        return (bag instanceof BagArray) ? (BagArray) bag : null;
+    }
+
+    /**
+     * Return the root of the file, if it is a BagObject.
+     *
+     * @return A read-only view of the root of the file, or null if it is not a BagObject.
+     */
+    public BagObject getBagObject () {
+        var bag = getBag ();
+        return (bag instanceof BagObject) ? (BagObject) bag : null;
+    }
+
+    // reading from the mapped file, values can cross the boundaries between segments
+
+    private byte get (long position) {
+        return segments[(int) (position >>> segmentShift)].get ((int) (position & ((1L << segmentShift) - 1)));
+    }
+
+    private long getFixed (long position, int length) {
+        var value = 0L;
+        for (int i = 0; i < length; ++i) {
+            value = (value << 8) | (get (position + i) & 0xFF);
+        }
+        return value;
+    }
+
+    // a position in the mapped file, that advances as values are read from it
+    private class Cursor implements ByteSource<RuntimeException> {
+        private long position;
+
+        Cursor (long position) {
+            if ((position < 0) || (position >= size)) {
+                throw new IllegalStateException ("Offset (" + position + ") is outside the file");
+            }
+            this.position = position;
+        }
+
+        @Override
+        public byte read () {
+            return get (position++);
+        }
+
+        long varint () {
+            return readVarint (this);
+        }
+
+        String string () {
+            var length = varint ();
+            if (length > size - position) {
+                throw new IllegalStateException ("String is longer than the file");
+            }
+            var bytes = new byte[(int) length];
+            for (int i = 0; i < bytes.length; ) {
+                // copy as much as possible from each segment
+                var segment = segments[(int) (position >>> segmentShift)].duplicate ();
+                segment.position ((int) (position & ((1L << segmentShift) - 1)));
+                var count = Math.min (bytes.length - i, segment.remaining ());
+                segment.get (bytes, i, count);
+                i += count;
+                position += count;
+            }
+            return new String (bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private Object readValue (long offset) {
+        // offset 0 is the header, so it stands for a null
+        if (offset == 0) {
+            return null;
+        }
+        var cursor = new Cursor (offset);
+        var tag = cursor.read ();
+        switch (tag) {
+            case NULL: return null;
+            case STRING: return cursor.string ();
+            case TRUE: case FALSE: case LONG: case DOUBLE: case FLOAT:
+                return readScalar (tag, cursor);
+            case OBJECT: case TYPED_OBJECT: {
+                var count = (int) cursor.varint ();
+                return new MappedBagObject (this, cursor.position, count, tag == TYPED_OBJECT);
+            }
+            case ARRAY: case TYPED_ARRAY: {
+                var count = (int) cursor.varint ();
+                return new MappedBagArray (this, cursor.position, count, tag == TYPED_ARRAY);
+            }
+            default:
+                throw new IllegalStateException ("Unknown tag (" + tag + ") at offset (" + offset + ")");
+        }
+    }
+
+    private static Object materialize (Object value) {
+        // decode a whole subtree
+        return (value instanceof MappedBagObject) ? ((MappedBagObject) value).materialize () :
+                (value instanceof MappedBagArray) ? ((MappedBagArray) value).materialize () :
+                value;
+    }
+
+    /**
+     * A read-only view of an array in the file.
+     */
+    static class MappedBagArray extends BagArrayView {
+        private final SourceAdapterMapped file;
+        private final long index;
+        private final int count;
+
+        MappedBagArray (SourceAdapterMapped file, long index, int count, boolean typed) {
+            this.file = file;
+            this.index = index;
+            this.count = count;
+            this.typed = typed;
+        }
+
+        @Override
+        public int getCount () {
+            return count;
+        }
+
+        @Override
+        public Object getObject (int i) {
+            return ((i >= 0) && (i < count)) ? file.readValue (file.getFixed (index + ((long) i * Long.BYTES), Long.BYTES)) : null;
+        }
+
+        /**
+         * Return a new BagArray with the elements of the view, decoding every child bag too.
+         *
+         * @return A new BagArray.
+         */
+        @Override
+        public BagArray materialize () {
+            var bagArray = new BagArray (count);
+            bagArray.typed = typed;
+            for (int i = 0; i < count; ++i) {
+                bagArray.add (SourceAdapterMapped.materialize (getObject (i)));
+            }
+            return bagArray;
+        }
+    }
+
+    /**
+     * A read-only view of an object in the file.
+     */
+    static class MappedBagObject extends BagObjectView {
+        private final SourceAdapterMapped file;
+        private final long index;
+        private final int count;
+
+        // the keys of the object, read from the index the first time they are needed
+        private String[] keys;
+
+        MappedBagObject (SourceAdapterMapped file, long index, int count, boolean typed) {
+            this.file = file;
+            this.index = index;
+            this.count = count;
+            this.typed = typed;
+        }
+
+        @Override
+        String[] viewKeys () {
+            if (keys == null) {
+                var found = new String[count];
+                for (int i = 0; i < count; ++i) {
+                    found[i] = file.keys[(int) file.getFixed (index + ((long) i * OBJECT_ENTRY), Integer.BYTES)];
+                }
+                keys = found;
+            }
+            return keys;
+        }
+
+        @Override
+        Object viewValue (int i) {
+            return file.readValue (file.getFixed (index + ((long) i * OBJECT_ENTRY) + Integer.BYTES, Long.BYTES));
+        }
+
+        /**
+         * Return a new BagObject with the pairs of the view, decoding every child bag too.
+         *
+         * @return A new BagObject.
+         */
+        @Override
+        public BagObject materialize () {
+            var keys = viewKeys ();
+            var bagObject = new BagObject (keys.length);
+            bagObject.typed = typed;
+            for (int i = 0; i < keys.length; ++i) {
+                bagObject.put (keys[i], SourceAdapterMapped.materialize (viewValue (i)));
+            }
+            return bagObject;
+        }
+    }
+
+    // writing an indexed file, children are written before their parents, so the offsets of
+    // their values are known when the index is written
+    private static class Writer implements ByteSink<IOException> {
+        private final OutputStream outputStream;
+        private long position;
+        private final HashMap<String, Integer> keyNumbers = new HashMap<> ();
+        private final ArrayList<String> keys = new ArrayList<> ();
+
+        Writer (OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write (int b) throws IOException {
+            outputStream.write (b);
+            ++position;
+        }
+
+        void write (byte[] bytes) throws IOException {
+            outputStream.write (bytes);
+            position += bytes.length;
+        }
+
+        void writeVarint (long value) throws IOException {
+            BinaryEncoding.writeVarint (this, value);
+        }
+
+        void writeFixed (long value, int length) throws IOException {
+            BinaryEncoding.writeFixed (this, value, length);
+        }
+
+        void writeString (String string) throws IOException {
+            var bytes = string.getBytes (StandardCharsets.UTF_8);
+            writeVarint (bytes.length);
+            write (bytes);
+        }
+
+        int getKeyNumber (String key) {
+            return keyNumbers.computeIfAbsent (key, k -> {
+                keys.add (k);
+                return keys.size () - 1;
+            });
+        }
+
+        long writeValue (Object object) throws IOException {
+            if (object == null) {
+                return 0;
+            }
+            if (object instanceof BagObject) {
+                var bagObject = (BagObject) object;
+                var pairKeys = bagObject.keys ();
+                // the keys should already be in order, but the index depends on it
+                Arrays.sort (pairKeys);
+                var offsets = new long[pairKeys.length];
+                for (int i = 0; i < pairKeys.length; ++i) {
+                    offsets[i] = writeValue (bagObject.getObject (pairKeys[i]));
+                }
+                var offset = position;
+                write (bagObject.isTyped () ? TYPED_OBJECT : OBJECT);
+                writeVarint (pairKeys.length);
+                for (int i = 0; i < pairKeys.length; ++i) {
+                    writeFixed (getKeyNumber (pairKeys[i]), Integer.BYTES);
+                    writeFixed (offsets[i], Long.BYTES);
+                }
+                return offset;
+            }
+            if (object instanceof BagArray) {
+                var bagArray = (BagArray) object;
+                var count = bagArray.getCount ();
+                var offsets = new long[count];
+                for (int i = 0; i < count; ++i) {
+                    offsets[i] = writeValue (bagArray.getObject (i));
+                }
+                var offset = position;
+                write (bagArray.isTyped () ? TYPED_ARRAY : ARRAY);
+                writeVarint (count);
+                for (var elementOffset : offsets) {
+                    writeFixed (elementOffset, Long.BYTES);
+                }
+                return offset;
+            }
+
+            var offset = position;
+            if (! writeScalar (this, object)) {
+                write (STRING);
+                writeString (object.toString ());
+            }
+            return offset;
+        }
+
+        void writeFile (Bag bag) throws IOException {
+            write (MAGIC);
+            write (VERSION);
+            var rootOffset = writeValue (bag);
+            var dictionaryOffset = position;
+            writeVarint (keys.size ());
+            for (var key : keys) {
+                writeString (key);
+            }
+            writeFixed (rootOffset, Long.BYTES);
+            writeFixed (dictionaryOffset, Long.BYTES);
+            write (MAGIC);
+        }
+    }
+
+    /**
+     * Write a Bag to an indexed Bag file, to be opened with a SourceAdapterMapped.
+     *
+     * @param bag The BagObject or BagArray to write.
+     * @param file The file to write.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write (Bag bag, File file) throws IOException {
+        try (var outputStream = new BufferedOutputStream (new FileOutputStream (file), 1 << 16)) {
+            new Writer (outputStream).writeFile (bag);
+        }
+    }
+}
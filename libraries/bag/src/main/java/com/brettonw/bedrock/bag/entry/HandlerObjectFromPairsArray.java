@@ -24,18 +24,25 @@ public class HandlerObjectFromPairsArray implements Handler {
         var bagArray = (BagArray) arrayHandler.getEntry (input);
         if (bagArray != null) {
             // create a bedrock object from the array of pairs
-            var bagObject = new BagObject (bagArray.getCount ());
+            if (accumulateEntries) {
+                var bagObject = new BagObject (bagArray.getCount ());
+                bagArray.forEach (object -> {
+                    var pair = (BagArray) object;
+                    bagObject.add (pair.getString (0), pair.getString (1));
+                });
+                return bagObject;
+            }
+
+            // without accumulation, the last value for a key wins, so the pairs can be gathered in
+            // a builder and sorted once
+            var builder = new BagObject.Builder (bagArray.getCount ());
             bagArray.forEach (object -> {
                 var pair = (BagArray) object;
-                    if (accumulateEntries) {
-                        bagObject.add (pair.getString (0), pair.getString (1));
-                    } else {
-                        bagObject.put (pair.getString (0), pair.getString (1));
-                    }
+                builder.put (pair.getString (0), pair.getString (1));
             });
 
             // return the result
-            return bagObject;
+            return builder.build ();
         }
         return null;
     }
@@ -20,13 +20,13 @@ public class HandlerObjectFromTitlesArray implements Handler {
             // create a bedrock object from the array of entries using the titles array
             var count = titlesArray.getCount ();
             if (count == bagArray.getCount ()) {
-                var bagObject = new BagObject (count);
+                var builder = new BagObject.Builder (count);
                 for (int i = 0; i <count; ++i) {
-                    bagObject.put (titlesArray.getString (i), bagArray.getObject (i));
+                    builder.put (titlesArray.getString (i), bagArray.getObject (i));
                 }
 
                 // return the result
-                return bagObject;
+                return builder.build ();
             }
         }
         return null;
@@ -18,9 +18,17 @@ public class Equality extends BooleanExpr {
     public Object evaluate (Bag bag) {
         var leftResult = left.evaluate (bag);
         var rightResult = right.evaluate (bag);
+        if (isNativeValue (leftResult) || isNativeValue (rightResult)) {
+            // a native value from a typed bag compares to a string by its text form
+            return (leftResult != null) && (rightResult != null) && leftResult.toString ().equals (rightResult.toString ());
+        }
         return (leftResult != null) ? leftResult.equals (rightResult) : (rightResult == null);
     }
 
+    private static boolean isNativeValue (Object object) {
+        return (object instanceof Number) || (object instanceof Boolean);
+    }
+
     public static BagObject bag (BagObject left, BagObject right) {
         return bag (EQUALITY, left, right);
     }
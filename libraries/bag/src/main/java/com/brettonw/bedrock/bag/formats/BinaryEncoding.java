@@ -0,0 +1,124 @@
+package com.brettonw.bedrock.bag.formats;
+
+/**
+ * The value tags and encodings shared by the binary Bag formats, the document format of
+ * FormatWriterBinary and FormatReaderBinary, and the indexed file format of SourceAdapterMapped.
+ * Each value is a one byte tag followed by its contents. Counts and lengths are unsigned varints,
+ * integers are zig-zag varints (so small negative numbers stay small), and decimals are
+ * big-endian IEEE 754 bits. Strings and bags are laid out differently by each format, so only
+ * their tags are here.
+ * <p>
+ * The bytes are written to a ByteSink, and read from a ByteSource, so that each format can keep
+ * its own buffering (and its own checked exceptions, if any).
+ */
+public final class BinaryEncoding {
+    public static final byte NULL = 0;
+    public static final byte STRING = 1;
+    public static final byte OBJECT = 2;
+    public static final byte ARRAY = 3;
+    public static final byte TYPED_OBJECT = 4;
+    public static final byte TYPED_ARRAY = 5;
+    public static final byte TRUE = 6;
+    public static final byte FALSE = 7;
+    public static final byte LONG = 8;
+    public static final byte DOUBLE = 9;
+    public static final byte FLOAT = 10;
+
+    private BinaryEncoding () {}
+
+    /**
+     * Where the bytes of an encoded value are written.
+     */
+    @FunctionalInterface
+    public interface ByteSink<E extends Exception> {
+        void write (int b) throws E;
+    }
+
+    /**
+     * Where the bytes of an encoded value are read from.
+     */
+    @FunctionalInterface
+    public interface ByteSource<E extends Exception> {
+        byte read () throws E;
+    }
+
+    public static <E extends Exception> void writeVarint (ByteSink<E> sink, long value) throws E {
+        while ((value & ~0x7FL) != 0) {
+            sink.write ((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        sink.write ((int) value);
+    }
+
+    public static <E extends Exception> long readVarint (ByteSource<E> source) throws E {
+        var value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            var b = source.read ();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException ("Varint is too long");
+    }
+
+    public static <E extends Exception> void writeFixed (ByteSink<E> sink, long value, int size) throws E {
+        for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+            sink.write ((int) (value >>> shift) & 0xFF);
+        }
+    }
+
+    public static <E extends Exception> long readFixed (ByteSource<E> source, int size) throws E {
+        var value = 0L;
+        for (int i = 0; i < size; ++i) {
+            value = (value << 8) | (source.read () & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Write a boolean or number with its tag, in the native form a typed bag keeps it in.
+     *
+     * @return true if the value was written, false if it isn't a boolean or a number.
+     */
+    public static <E extends Exception> boolean writeScalar (ByteSink<E> sink, Object object) throws E {
+        if (object instanceof Boolean) {
+            sink.write (((Boolean) object) ? TRUE : FALSE);
+        } else if ((object instanceof Long) || (object instanceof Integer) || (object instanceof Short) || (object instanceof Byte)) {
+            var value = ((Number) object).longValue ();
+            sink.write (LONG);
+            writeVarint (sink, (value << 1) ^ (value >> 63));
+        } else if (object instanceof Double) {
+            sink.write (DOUBLE);
+            writeFixed (sink, Double.doubleToLongBits ((Double) object), Long.BYTES);
+        } else if (object instanceof Float) {
+            // floats are kept as floats, so they write out as text the same way
+            sink.write (FLOAT);
+            writeFixed (sink, Float.floatToIntBits ((Float) object), Integer.BYTES);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read the contents of a boolean or number, after its tag.
+     *
+     * @return The value, boxed in its native type.
+     * @throws IllegalArgumentException if the tag isn't a boolean or a number.
+     */
+    public static <E extends Exception> Object readScalar (byte tag, ByteSource<E> source) throws E {
+        switch (tag) {
+            case TRUE: return Boolean.TRUE;
+            case FALSE: return Boolean.FALSE;
+            case LONG: {
+                var value = readVarint (source);
+                return (value >>> 1) ^ -(value & 1);
+            }
+            case DOUBLE: return Double.longBitsToDouble (readFixed (source, Long.BYTES));
+            case FLOAT: return Float.intBitsToFloat ((int) readFixed (source, Integer.BYTES));
+            default:
+                throw new IllegalArgumentException ("Unknown tag (" + tag + ")");
+        }
+    }
+}
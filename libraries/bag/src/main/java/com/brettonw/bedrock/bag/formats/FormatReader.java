@@ -3,6 +3,7 @@ package com.brettonw.bedrock.bag.formats;
 import com.brettonw.bedrock.bag.BagArray;
 import com.brettonw.bedrock.bag.BagObject;
 import com.brettonw.bedrock.bag.SourceAdapter;
+import com.brettonw.bedrock.bag.SourceAdapterMapped;
 import com.brettonw.bedrock.logger.*;
 
 
@@ -15,6 +16,7 @@ public class FormatReader {
     private static final Logger log = LogManager.getLogger (FormatReader.class);
 
     protected final String input;
+    protected StringPool stringPool;
 
     protected FormatReader () {
         this (null);
@@ -28,6 +30,24 @@ public class FormatReader {
         this.input = input;
     }
 
+    /**
+     * Set a pool to share key and value strings through, see StringPool.
+     *
+     * @param stringPool A StringPool, or null to not pool strings.
+     * @return The FormatReader, so that operations can be chained together.
+     */
+    public FormatReader setStringPool (StringPool stringPool) {
+        this.stringPool = stringPool;
+        return this;
+    }
+
+    /**
+     * Return the pooled instance of a string read from the input, if there is a pool.
+     */
+    protected String intern (String string) {
+        return (stringPool != null) ? stringPool.intern (string) : string;
+    }
+
     // static type registration by name
     private static final Map<String, Function<String, FormatReader>> formatReaders = new HashMap<> ();
 
@@ -71,8 +91,12 @@ public class FormatReader {
      * @return
      */
     public static BagArray readBagArray (SourceAdapter sourceAdapter) {
+        // a mapped file has no text to read, its bags are already available
+        if (sourceAdapter instanceof SourceAdapterMapped) {
+            return ((SourceAdapterMapped) sourceAdapter).getBagArray ();
+        }
         var formatReader = getFormatReader(sourceAdapter.getStringData(), sourceAdapter.getMimeType(), ArrayFormatReader.class);
-        return (formatReader != null) ? ((ArrayFormatReader)formatReader).readBagArray () : null;
+        return (formatReader != null) ? ((ArrayFormatReader)formatReader.setStringPool (sourceAdapter.getStringPool ())).readBagArray () : null;
     }
 
     /**
@@ -81,8 +105,11 @@ public class FormatReader {
      * @return
      */
     public static BagObject readBagObject (SourceAdapter sourceAdapter) {
+        if (sourceAdapter instanceof SourceAdapterMapped) {
+            return ((SourceAdapterMapped) sourceAdapter).getBagObject ();
+        }
         var formatReader = getFormatReader(sourceAdapter.getStringData(), sourceAdapter.getMimeType(), ObjectFormatReader.class);
-        return (formatReader != null) ? ((ObjectFormatReader)formatReader).readBagObject () : null;
+        return (formatReader != null) ? ((ObjectFormatReader)formatReader.setStringPool (sourceAdapter.getStringPool ())).readBagObject () : null;
     }
 
     /**
@@ -96,8 +123,10 @@ public class FormatReader {
         // rather than have a compile-time and run-time dependency, we just list the sub-
         // classes of FormatReader here that need to be loaded.
         var formatReaders = new Class[] {
+                FormatReaderBinary.class,
                 FormatReaderComposite.class,
                 FormatReaderJson.class,
+                FormatReaderJsonLines.class,
                 FormatReaderTable.class
         };
         for (var type : formatReaders) {
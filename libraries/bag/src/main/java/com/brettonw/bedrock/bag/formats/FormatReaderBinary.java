@@ -0,0 +1,174 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagObject;
+import com.brettonw.bedrock.logger.*;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static com.brettonw.bedrock.bag.formats.BinaryEncoding.*;
+import static com.brettonw.bedrock.bag.formats.FormatWriterBinary.MAGIC;
+import static com.brettonw.bedrock.bag.formats.FormatWriterBinary.VERSION;
+
+/**
+ * Reads the binary format written by FormatWriterBinary, either from the bytes directly, or from
+ * the Base64 text the registered writer produces (as when it is read through a SourceAdapter).
+ * Every count and length in the input is checked against the bytes that remain, so a damaged
+ * document is reported as an error rather than causing a huge allocation.
+ */
+public class FormatReaderBinary extends FormatReader implements ArrayFormatReader, ObjectFormatReader {
+    private static final Logger log = LogManager.getLogger (FormatReaderBinary.class);
+
+    private ByteBuffer buffer;
+    private String[] keys;
+
+    public FormatReaderBinary () {}
+
+    /**
+     * Read from the Base64 text form of a document.
+     *
+     * @param input The Base64 text, line breaks and other non-Base64 characters are ignored.
+     */
+    public FormatReaderBinary (String input) {
+        super (input);
+        try {
+            buffer = (input != null) ? ByteBuffer.wrap (Base64.getMimeDecoder ().decode (input)) : null;
+        } catch (IllegalArgumentException exception) {
+            log.error ("Invalid Base64 input: " + exception.getMessage ());
+        }
+    }
+
+    /**
+     * Read from the bytes of a document.
+     *
+     * @param bytes The document.
+     */
+    public FormatReaderBinary (byte[] bytes) {
+        this (ByteBuffer.wrap (bytes));
+    }
+
+    /**
+     * Read from the bytes of a document, starting at the current position of the buffer. The
+     * position of the buffer is not changed.
+     *
+     * @param byteBuffer The document.
+     */
+    public FormatReaderBinary (ByteBuffer byteBuffer) {
+        buffer = byteBuffer.slice ();
+    }
+
+    private long readVarint () {
+        return BinaryEncoding.readVarint (buffer::get);
+    }
+
+    private int readCount () {
+        // every element takes at least one byte, so no count can be larger than what remains
+        var count = readVarint ();
+        if ((count < 0) || (count > buffer.remaining ())) {
+            throw new IllegalArgumentException ("Count (" + count + ") is larger than the input");
+        }
+        return (int) count;
+    }
+
+    private String readKey () {
+        var index = readVarint ();
+        if ((index < 0) || (index >= keys.length)) {
+            throw new IllegalArgumentException ("Key index (" + index + ") is not in the dictionary");
+        }
+        return keys[(int) index];
+    }
+
+    private String readString () {
+        var length = readCount ();
+        String string;
+        if (buffer.hasArray ()) {
+            string = new String (buffer.array (), buffer.arrayOffset () + buffer.position (), length, StandardCharsets.UTF_8);
+            buffer.position (buffer.position () + length);
+        } else {
+            var bytes = new byte[length];
+            buffer.get (bytes);
+            string = new String (bytes, StandardCharsets.UTF_8);
+        }
+        return intern (string);
+    }
+
+    private Object readValue () {
+        var tag = buffer.get ();
+        switch (tag) {
+            case NULL: return null;
+            case STRING: return readString ();
+            case TRUE: case FALSE: case LONG: case DOUBLE: case FLOAT:
+                return readScalar (tag, buffer::get);
+            case OBJECT: case TYPED_OBJECT: {
+                var count = readCount ();
+                var builder = new BagObject.Builder (count);
+                if (tag == TYPED_OBJECT) {
+                    builder.typed ();
+                }
+                for (int i = 0; i < count; ++i) {
+                    builder.put (readKey (), readValue ());
+                }
+                return builder.build ();
+            }
+            case ARRAY: case TYPED_ARRAY: {
+                var count = readCount ();
+                var bagArray = new BagArray (count);
+                if (tag == TYPED_ARRAY) {
+                    bagArray.typed ();
+                }
+                for (int i = 0; i < count; ++i) {
+                    bagArray.add (readValue ());
+                }
+                return bagArray;
+            }
+            default:
+                throw new IllegalArgumentException ("Unknown tag (" + tag + ")");
+        }
+    }
+
+    private Object read () {
+        if (buffer != null) {
+            try {
+                for (var b : MAGIC) {
+                    if (buffer.get () != b) {
+                        throw new IllegalArgumentException ("Not a binary Bag document");
+                    }
+                }
+                var version = buffer.get ();
+                if (version != VERSION) {
+                    throw new IllegalArgumentException ("Unsupported version (" + version + ")");
+                }
+                keys = new String[readCount ()];
+                for (int i = 0; i < keys.length; ++i) {
+                    keys[i] = readString ();
+                }
+                return readValue ();
+            } catch (BufferUnderflowException exception) {
+                log.error ("Invalid binary input: unexpected end of input");
+            } catch (IllegalArgumentException | IndexOutOfBoundsException exception) {
+                log.error ("Invalid binary input: " + exception.getMessage ());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public BagArray readBagArray () {
+        var value = read ();
+        return (value instanceof BagArray) ? (BagArray) value : null;
+    }
+
+    @Override
+    public BagObject readBagObject () {
+        var value = read ();
+        return (value instanceof BagObject) ? (BagObject) value : null;
+    }
+
+    static {
+        MimeType.addExtensionMapping (MimeType.BINARY, "bag");
+        FormatReader.registerFormatReader (MimeType.BINARY, false, FormatReaderBinary::new);
+    }
+}
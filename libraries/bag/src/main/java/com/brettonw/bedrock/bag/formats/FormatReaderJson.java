@@ -17,6 +17,25 @@ public class FormatReaderJson extends FormatReaderParsed implements ArrayFormatR
         super (input);
     }
 
+    // read a range of the input as the elements of an array, without its brackets, so that
+    // FormatReaderJsonParallel can read the chunks of one input string in place
+    FormatReaderJson (String input, int start, int end, int lineNumber, int lastLineIndex) {
+        super (input);
+        index = start;
+        inputLength = end;
+        this.lineNumber = lineNumber;
+        this.lastLineIndex = lastLineIndex;
+    }
+
+    boolean readChunk (BagArray bagArray) {
+        // <Elements>, which can't be empty, and must use up the whole range
+        if (readElements (bagArray) && require (bagArray.getCount () > 0, "Valid value")) {
+            consumeWhiteSpace ();
+            return require (index == inputLength, "',' or ']'");
+        }
+        return false;
+    }
+
     @Override
     public BagArray readBagArray () {
         // <Array> :: [ ] | [ <Elements> ]
@@ -56,22 +75,23 @@ public class FormatReaderJson extends FormatReaderParsed implements ArrayFormatR
     @Override
     public BagObject readBagObject () {
         // <Object> ::= { } | { <Members> }
-        var bagObject = new BagObject ();
-        return (expect('{') && readMembers (bagObject) && require(expect ('}'), "Valid pair (<String>:<Value>) or '}'")) ? bagObject : null;
+        // the pairs are gathered in a builder, so the object is sorted once at the end
+        var builder = new BagObject.Builder ();
+        return (expect('{') && readMembers (builder) && require(expect ('}'), "Valid pair (<String>:<Value>) or '}'")) ? builder.build () : null;
     }
 
-    private boolean readMembers (BagObject bagObject) {
+    private boolean readMembers (BagObject.Builder builder) {
         // <Members> ::= <Pair> | <Pair> , <Members>
         var result = true;
-        if (readPair (bagObject)) {
+        if (readPair (builder)) {
             while (expect (',')) {
-                result = require (readPair (bagObject), "Valid pair (<String>:<Value>)");
+                result = require (readPair (builder), "Valid pair (<String>:<Value>)");
             }
         }
         return result;
     }
 
-    private boolean storeValue (BagObject bagObject, String key) {
+    private boolean storeValue (BagObject.Builder builder, String key) {
         // the goal here is to try to read a "value" from the input stream, and store it into the
         // BagObject. BagObject can NOT store null values, so we have a special handling case to
         // make sure we properly convert "null" string to null value - as distinguished from a failed
@@ -81,29 +101,29 @@ public class FormatReaderJson extends FormatReaderParsed implements ArrayFormatR
         if (value != null) {
             // special case for "null"
             if (!((value instanceof String) && (((String) value).equalsIgnoreCase ("null")))) {
-                bagObject.put (key, value);
+                builder.put (key, value);
             }
             return true;
         }
         return false;
     }
 
-    private boolean readPair (BagObject bagObject) {
+    private boolean readPair (BagObject.Builder builder) {
         // <Pair> ::= <String> : <Value>
         var key = readString ();
-        return (key != null) && (key.length () > 0) && require (':') && require (storeValue (bagObject, key), "Valid value");
+        return (key != null) && (key.length () > 0) && require (':') && require (storeValue (builder, key), "Valid value");
     }
 
     private static final char[] BARE_VALUE_STOP_CHARS = sortString (" \u00a0\t\n:{}[]\",");
     private static final char[] QUOTED_STRING_STOP_CHARS = sortString ("\n\"");
 
-    private static char[] sortString (String string) {
+    static char[] sortString (String string) {
         var chars = string.toCharArray ();
         Arrays.sort (chars);
         return chars;
     }
 
-    private boolean notIn (char[] stopChars, char c) {
+    static boolean notIn (char[] stopChars, char c) {
         int i = 0;
         int end = stopChars.length;
         char stopChar = 0;
@@ -131,7 +151,7 @@ public class FormatReaderJson extends FormatReaderParsed implements ArrayFormatR
         if (expect('"')) {
             // digest the string, and be sure to eat the end quote
             var start = consumeUntilStop (QUOTED_STRING_STOP_CHARS);
-            result = input.substring (start, index++);
+            result = intern (input.substring (start, index++));
         }
         return result;
     }
@@ -147,7 +167,7 @@ public class FormatReaderJson extends FormatReaderParsed implements ArrayFormatR
 
         // capture the result if we actually consumed some characters
         if (index > start) {
-            result = input.substring (start, index);
+            result = intern (input.substring (start, index));
         }
 
         return result;
@@ -0,0 +1,147 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagObject;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A reader for JSON Lines (also called newline delimited JSON, or NDJSON), where each line of the
+ * input is a JSON object, with no enclosing array. The records are read one at a time as they are
+ * needed, through the buffered input of FormatReaderJsonStream, so an input of any size can be
+ * processed with "iterator" or "stream" in the memory needed for one record. Blank lines are
+ * skipped.
+ * <p>
+ * As a registered FormatReader, all of the lines are read into a BagArray. Each line can hold any
+ * JSON value there (an object, an array, a string, or null), so anything FormatWriterJsonLines
+ * writes is read back as it was, but the records from "iterator" and "stream" have to be objects.
+ */
+public class FormatReaderJsonLines extends FormatReader implements ArrayFormatReader, Iterable<BagObject> {
+    private final FormatReaderJsonStream records;
+
+    public FormatReaderJsonLines () {
+        records = null;
+    }
+
+    /**
+     * Read JSON Lines from a string.
+     *
+     * @param input The JSON Lines text.
+     */
+    public FormatReaderJsonLines (String input) {
+        this (new StringReader (input));
+    }
+
+    /**
+     * Read JSON Lines from a Reader. The Reader is not closed, that is up to the caller.
+     *
+     * @param reader The source of the JSON Lines text.
+     */
+    public FormatReaderJsonLines (Reader reader) {
+        records = new FormatReaderJsonStream (reader);
+    }
+
+    /**
+     * Read JSON Lines from an InputStream, which is always decoded as UTF-8. The InputStream is not
+     * closed, that is up to the caller.
+     *
+     * @param inputStream The source of the JSON Lines text.
+     */
+    public FormatReaderJsonLines (InputStream inputStream) {
+        records = new FormatReaderJsonStream (inputStream);
+    }
+
+    @Override
+    public FormatReader setStringPool (StringPool stringPool) {
+        if (records != null) {
+            records.setStringPool (stringPool);
+        }
+        return super.setStringPool (stringPool);
+    }
+
+    /**
+     * Retrieve whether the input had an error, which ends the records early.
+     *
+     * @return true if a record couldn't be read.
+     */
+    public boolean hasError () {
+        return records.error;
+    }
+
+    private BagObject readRecord () {
+        // the white space between records (including the line endings) is consumed by the reader,
+        // so the input is finished when there is nothing left after it
+        records.consumeWhiteSpace ();
+        if (records.check ()) {
+            var record = records.readBagObject ();
+            records.require (record != null, "JSON object");
+            return record;
+        }
+        return null;
+    }
+
+    /**
+     * Iterate over the records of the input, reading each one as it is needed. The input can only
+     * be read once, so only one iterator should be used.
+     *
+     * @return An Iterator over the records.
+     */
+    @Override
+    public Iterator<BagObject> iterator () {
+        return new Iterator<> () {
+            private BagObject next = readRecord ();
+
+            @Override
+            public boolean hasNext () {
+                return next != null;
+            }
+
+            @Override
+            public BagObject next () {
+                if (next == null) {
+                    throw new NoSuchElementException ();
+                }
+                var result = next;
+                next = readRecord ();
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Stream the records of the input, reading each one as it is needed.
+     *
+     * @return A sequential, ordered Stream of the records.
+     */
+    public Stream<BagObject> stream () {
+        return StreamSupport.stream (Spliterators.spliteratorUnknownSize (iterator (), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public BagArray readBagArray () {
+        var bagArray = new BagArray ();
+        for (records.consumeWhiteSpace (); records.check (); records.consumeWhiteSpace ()) {
+            // a bare "null" is a null value, as in FormatReaderJson
+            var value = records.readValue ();
+            if (! records.require (value != null, "Valid value")) {
+                return null;
+            }
+            bagArray.add (((value instanceof String) && ((String) value).equalsIgnoreCase ("null")) ? null : value);
+        }
+        return hasError () ? null : bagArray;
+    }
+
+    static {
+        MimeType.addExtensionMapping (MimeType.JSON_LINES, "jsonl", "ndjson");
+        MimeType.addMimeTypeMapping (MimeType.JSON_LINES, "application/jsonl", "application/x-jsonlines");
+        FormatReader.registerFormatReader (MimeType.JSON_LINES, false, FormatReaderJsonLines::new);
+    }
+}
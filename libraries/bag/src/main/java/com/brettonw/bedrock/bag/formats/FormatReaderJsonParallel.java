@@ -0,0 +1,200 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagObject;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A JSON reader for large top level arrays, that reads the elements of the array on multiple
+ * threads. One quick pass over the input finds the separators between the top level elements
+ * (keeping track of nesting and quoted strings), and divides the elements into chunks of roughly
+ * the same length. The chunks are read in place by FormatReaderJson on a ForkJoinPool, and their
+ * elements are gathered into one BagArray in their original order.
+ * <p>
+ * The result is the same as reading the input with FormatReaderJson, which this uses directly for
+ * objects, and for arrays too small to be worth dividing. Errors are reported by the chunk that
+ * finds them, and make the read return null.
+ * <p>
+ * A StringPool set on the reader is shared by all of the chunks, but each chunk reads through a
+ * local pool of its own in front of it (see StringPool.local), so the lock on the shared pool is
+ * only taken once per distinct string in a chunk, not for every string.
+ */
+public class FormatReaderJsonParallel extends FormatReader implements ArrayFormatReader, ObjectFormatReader {
+    // inputs shorter than this are read on the calling thread
+    static final int MIN_CHUNK_LENGTH = 1 << 16;
+
+    // how many chunks to make for each thread, so that threads finishing early can take up the
+    // work of the others
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+    private final int minChunkLength;
+
+    /**
+     * Read JSON from a string, using the common ForkJoinPool.
+     *
+     * @param input The JSON text.
+     */
+    public FormatReaderJsonParallel (String input) {
+        this (input, ForkJoinPool.commonPool ());
+    }
+
+    /**
+     * Read JSON from a string, using the given ForkJoinPool.
+     *
+     * @param input The JSON text.
+     * @param pool The ForkJoinPool to read the chunks of a large array on.
+     */
+    public FormatReaderJsonParallel (String input, ForkJoinPool pool) {
+        this (input, pool, MIN_CHUNK_LENGTH);
+    }
+
+    FormatReaderJsonParallel (String input, ForkJoinPool pool, int minChunkLength) {
+        super (input);
+        this.pool = pool;
+        this.minChunkLength = minChunkLength;
+    }
+
+    private FormatReader single () {
+        return new FormatReaderJson (input).setStringPool (stringPool);
+    }
+
+    @Override
+    public BagObject readBagObject () {
+        return ((ObjectFormatReader) single ()).readBagObject ();
+    }
+
+    // the ranges of the input to read, each one a run of elements without the separators at either
+    // end, and the line it starts on
+    private static class Chunk {
+        final int start;
+        final int end;
+        final int lineNumber;
+        final int lastLineIndex;
+        BagArray elements;
+
+        Chunk (int start, int end, int lineNumber, int lastLineIndex) {
+            this.start = start;
+            this.end = end;
+            this.lineNumber = lineNumber;
+            this.lastLineIndex = lastLineIndex;
+        }
+    }
+
+    private ArrayList<Chunk> findChunks () {
+        // find the opening bracket of the top level array
+        var length = input.length ();
+        var i = 0;
+        var lineNumber = 1;
+        var lastLineIndex = 0;
+        for (; (i < length) && Character.isWhitespace (input.charAt (i)); ++i) {
+            if (input.charAt (i) == '\n') {
+                ++lineNumber;
+                lastLineIndex = i + 1;
+            }
+        }
+        if ((i == length) || (input.charAt (i) != '[')) {
+            return null;
+        }
+
+        // walk the input, cutting a chunk at the first top level separator after each chunk is
+        // long enough, until the closing bracket
+        var chunkLength = Math.max (minChunkLength, length / (pool.getParallelism () * CHUNKS_PER_THREAD));
+        var chunks = new ArrayList<Chunk> ();
+        var chunk = new Chunk (++i, 0, lineNumber, lastLineIndex);
+        var depth = 0;
+        var quoted = false;
+        for (; i < length; ++i) {
+            var c = input.charAt (i);
+            if (c == '\\') {
+                // an escape is a free pass for the next character, as in FormatReaderJson
+                ++i;
+            } else if (c == '\n') {
+                ++lineNumber;
+                lastLineIndex = i + 1;
+            } else if (c == '"') {
+                quoted = ! quoted;
+            } else if (! quoted) {
+                switch (c) {
+                    case '{': case '[':
+                        ++depth;
+                        break;
+                    case '}': case ']':
+                        if (depth-- == 0) {
+                            chunks.add (new Chunk (chunk.start, i, chunk.lineNumber, chunk.lastLineIndex));
+                            return chunks;
+                        }
+                        break;
+                    case ',':
+                        if ((depth == 0) && (i - chunk.start >= chunkLength)) {
+                            chunks.add (new Chunk (chunk.start, i, chunk.lineNumber, chunk.lastLineIndex));
+                            chunk = new Chunk (i + 1, 0, lineNumber, lastLineIndex);
+                        }
+                        break;
+                }
+            }
+        }
+
+        // the array was never closed
+        return null;
+    }
+
+    private class ReadChunks extends RecursiveAction {
+        private final ArrayList<Chunk> chunks;
+        private final int from;
+        private final int to;
+
+        ReadChunks (ArrayList<Chunk> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute () {
+            if (to - from > 1) {
+                var middle = (from + to) >>> 1;
+                invokeAll (new ReadChunks (chunks, from, middle), new ReadChunks (chunks, middle, to));
+            } else {
+                var chunk = chunks.get (from);
+                var bagArray = new BagArray ();
+                var reader = new FormatReaderJson (input, chunk.start, chunk.end, chunk.lineNumber, chunk.lastLineIndex);
+                // each chunk has a local pool in front of the shared one, so the threads don't
+                // all wait on its lock for every string they read
+                reader.setStringPool ((stringPool != null) ? stringPool.local () : null);
+                chunk.elements = reader.readChunk (bagArray) ? bagArray : null;
+            }
+        }
+    }
+
+    @Override
+    public BagArray readBagArray () {
+        // small inputs, and inputs that aren't a well formed array, are read on this thread, which
+        // also reports any errors in the usual way
+        var chunks = (input.length () >= minChunkLength * 2) ? findChunks () : null;
+        if ((chunks == null) || (chunks.size () < 2)) {
+            return ((ArrayFormatReader) single ()).readBagArray ();
+        }
+
+        pool.invoke (new ReadChunks (chunks, 0, chunks.size ()));
+
+        // stitch the chunks together in order
+        var count = 0;
+        for (var chunk : chunks) {
+            if (chunk.elements == null) {
+                return null;
+            }
+            count += chunk.elements.getCount ();
+        }
+        var bagArray = new BagArray (count);
+        for (var chunk : chunks) {
+            for (int i = 0, end = chunk.elements.getCount (); i < end; ++i) {
+                bagArray.add (chunk.elements.getObject (i));
+            }
+        }
+        return bagArray;
+    }
+}
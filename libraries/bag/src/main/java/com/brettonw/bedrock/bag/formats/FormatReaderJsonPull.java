@@ -0,0 +1,376 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagObject;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A pull parser for JSON, reading the same grammar as FormatReaderJson through the buffered input
+ * of FormatReaderJsonStream, but handing the structure of the input to the caller one event at a
+ * time instead of building Bags from it. The caller walks the input with "next", can skip over
+ * the subtree of any value without building it, and can build just the subtree it wants with
+ * "readSubtree", e.g.:
+ * <pre>
+ * var reader = new FormatReaderJsonPull (inputStream);
+ * for (var event = reader.next (); event != null; event = reader.next ()) {
+ *     if ((event == FormatReaderJsonPull.Event.KEY) &amp;&amp; reader.getString ().equals ("wanted")) {
+ *         var value = reader.readSubtree ();
+ *     }
+ * }
+ * </pre>
+ * The path-filtered versions of readBagObject and readBagArray use the events to build only the
+ * subtrees at a set of key paths, skipping everything else.
+ * <p>
+ * A FormatReaderJsonPull reads its input once, from the start, so it should only be used for one
+ * of these ways of reading.
+ */
+public class FormatReaderJsonPull extends FormatReaderJsonStream {
+    /**
+     * The events a FormatReaderJsonPull reports, in the order they occur in the input.
+     */
+    public enum Event {
+        START_OBJECT,
+        END_OBJECT,
+        START_ARRAY,
+        END_ARRAY,
+        KEY,
+        VALUE
+    }
+
+    // the containers we are in, innermost last, and whether each has an element yet
+    private boolean[] isObject;
+    private boolean[] hasElement;
+    private int depth;
+
+    // a key has been read, and its value hasn't
+    private boolean keyRead;
+    private boolean rootRead;
+
+    private Event event;
+    private String string;
+
+    /**
+     * Read JSON events from a Reader.
+     *
+     * @param reader The source of the JSON text.
+     */
+    public FormatReaderJsonPull (Reader reader) {
+        super (reader);
+        isObject = new boolean[16];
+        hasElement = new boolean[16];
+    }
+
+    /**
+     * Read JSON events from an InputStream, which is always decoded as UTF-8.
+     *
+     * @param inputStream The source of the JSON text.
+     */
+    public FormatReaderJsonPull (InputStream inputStream) {
+        super (inputStream);
+        isObject = new boolean[16];
+        hasElement = new boolean[16];
+    }
+
+    /**
+     * Read JSON events from a string.
+     *
+     * @param input The JSON text.
+     */
+    public FormatReaderJsonPull (String input) {
+        this (new StringReader (input));
+    }
+
+    /**
+     * Retrieve the last event returned by "next".
+     *
+     * @return The last event, or null if "next" hasn't been called, or the input is finished.
+     */
+    public Event getEvent () {
+        return event;
+    }
+
+    /**
+     * Retrieve the text of the last KEY or VALUE event.
+     *
+     * @return The key, or the value as written (without quotes), or null for a bare "null" value.
+     */
+    public String getString () {
+        return string;
+    }
+
+    /**
+     * Retrieve how many containers (objects or arrays) the reader is inside. A START event
+     * increases the depth, and the matching END event returns it to where it was.
+     *
+     * @return The current depth, 0 at the top level.
+     */
+    public int getDepth () {
+        return depth;
+    }
+
+    private void push (boolean object) {
+        if (depth == isObject.length) {
+            isObject = Arrays.copyOf (isObject, depth * 2);
+            hasElement = Arrays.copyOf (hasElement, depth * 2);
+        }
+        isObject[depth] = object;
+        hasElement[depth++] = false;
+    }
+
+    private void endValue () {
+        // a value (or a container that just ended) is an element of the container it is in
+        if (depth > 0) {
+            hasElement[depth - 1] = true;
+        } else {
+            rootRead = true;
+        }
+    }
+
+    private Event endContainer () {
+        var object = isObject[--depth];
+        endValue ();
+        return (event = object ? Event.END_OBJECT : Event.END_ARRAY);
+    }
+
+    private Event fail (String explanation) {
+        require (false, explanation);
+        return (event = null);
+    }
+
+    /**
+     * Advance to the next event in the input.
+     *
+     * @return The next event, or null if the input is finished, or has an error.
+     */
+    public Event next () {
+        string = null;
+        if (error || ((depth == 0) && rootRead)) {
+            return (event = null);
+        }
+
+        // between the elements of a container, look for its end, or the separator before the next
+        // element, and read the key of the next pair in an object
+        if ((depth > 0) && (! keyRead)) {
+            var object = isObject[depth - 1];
+            if (expect (object ? '}' : ']')) {
+                return endContainer ();
+            }
+            if (hasElement[depth - 1] && (! expect (','))) {
+                return fail (object ? "',' or '}'" : "',' or ']'");
+            }
+            if (object) {
+                var key = readString ();
+                if ((key == null) || (key.length () == 0) || (! require (':'))) {
+                    return fail ("Valid pair (<String>:<Value>)");
+                }
+                string = key;
+                keyRead = true;
+                return (event = Event.KEY);
+            }
+        }
+
+        // <Value> ::= <String> | <Object> | <Array>
+        keyRead = false;
+        consumeWhiteSpace ();
+        if (! check ()) {
+            return fail ("Valid value");
+        }
+        switch (buffer[position]) {
+            case '{':
+                ++position;
+                push (true);
+                return (event = Event.START_OBJECT);
+            case '[':
+                ++position;
+                push (false);
+                return (event = Event.START_ARRAY);
+            case '"':
+                string = readString ();
+                break;
+            default:
+                var value = readBareValue ();
+                if (value == null) {
+                    return fail ("Valid value");
+                }
+                string = value.equalsIgnoreCase ("null") ? null : value;
+                break;
+        }
+        endValue ();
+        return (event = Event.VALUE);
+    }
+
+    private void skipContainer () {
+        // scan the characters up to the end of the current container without building anything,
+        // keeping track of nesting and quoted strings (which might contain brackets)
+        var nesting = 0;
+        var quoted = false;
+        var escaped = false;
+        while (check ()) {
+            var c = buffer[position++];
+            if (quoted) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    quoted = false;
+                }
+            } else {
+                switch (c) {
+                    case '"': quoted = true; break;
+                    case '{': case '[': ++nesting; break;
+                    case '}': case ']':
+                        if (nesting-- == 0) {
+                            endContainer ();
+                            return;
+                        }
+                        break;
+                    case '\n': ++lineNumber; break;
+                }
+            }
+        }
+        require (false, "'}' or ']'");
+        event = null;
+    }
+
+    /**
+     * Skip over a subtree of the input without building it. After a START event, this skips the
+     * rest of that container, through its END event. After a KEY event, this skips the value of
+     * the pair. Anywhere else, this skips the next value.
+     */
+    public void skip () {
+        if ((event != Event.START_OBJECT) && (event != Event.START_ARRAY)) {
+            next ();
+        }
+        if ((event == Event.START_OBJECT) || (event == Event.START_ARRAY)) {
+            skipContainer ();
+        }
+    }
+
+    /**
+     * Build a subtree of the input. After a START event, this builds the rest of that container,
+     * through its END event. After a KEY event, this builds the value of the pair. Anywhere else,
+     * this builds the next value.
+     *
+     * @return A BagObject, BagArray, or String, or null if the value is a bare "null", there is no
+     * value, or the input has an error.
+     */
+    public Object readSubtree () {
+        if ((event != Event.START_OBJECT) && (event != Event.START_ARRAY)) {
+            var valueEvent = next ();
+            if (valueEvent == Event.VALUE) {
+                return string;
+            }
+            if ((valueEvent != Event.START_OBJECT) && (valueEvent != Event.START_ARRAY)) {
+                return null;
+            }
+        }
+
+        // the container was just started, so the reader is at its first element
+        var result = (Object) null;
+        if (event == Event.START_OBJECT) {
+            var builder = new BagObject.Builder ();
+            if (readMembers (builder) && require (expect ('}'), "Valid pair (<String>:<Value>) or '}'")) {
+                result = builder.build ();
+            }
+        } else {
+            var bagArray = new BagArray ();
+            if (readElements (bagArray) && require (']')) {
+                result = bagArray;
+            }
+        }
+        if (result != null) {
+            endContainer ();
+        } else {
+            event = null;
+        }
+        return result;
+    }
+
+    // the requested paths, as a tree of keys. a node with no children is the end of a path
+    private static class PathTree {
+        final HashMap<String, PathTree> children = new HashMap<> ();
+
+        PathTree (String... paths) {
+            for (var path : paths) {
+                var node = this;
+                for (var key : path.split ("/")) {
+                    node = node.children.computeIfAbsent (key, k -> new PathTree ());
+                }
+            }
+        }
+    }
+
+    private Object readFiltered (PathTree node) {
+        // the container was just started. arrays don't use up a key from the path, so each of
+        // their elements is filtered by the same part of the tree. values that aren't containers
+        // are skipped, as they can't hold the rest of a path
+        if (event == Event.START_OBJECT) {
+            var builder = new BagObject.Builder ();
+            while (next () == Event.KEY) {
+                var key = string;
+                var child = node.children.get (key);
+                if (child == null) {
+                    skip ();
+                } else {
+                    var value = child.children.isEmpty () ? readSubtree () : readFilteredValue (child);
+                    if (value != null) {
+                        builder.put (key, value);
+                    }
+                }
+            }
+            return (event == Event.END_OBJECT) ? builder.build () : null;
+        } else {
+            var bagArray = new BagArray ();
+            while (true) {
+                var value = readFilteredValue (node);
+                if ((event == Event.END_ARRAY) || (event == null)) {
+                    break;
+                }
+                if (value != null) {
+                    bagArray.add (value);
+                }
+            }
+            return (event == Event.END_ARRAY) ? bagArray : null;
+        }
+    }
+
+    private Object readFilteredValue (PathTree node) {
+        var valueEvent = next ();
+        if ((valueEvent == Event.START_OBJECT) || (valueEvent == Event.START_ARRAY)) {
+            var value = readFiltered (node);
+            // an object that had none of the paths isn't worth keeping
+            return ((value instanceof BagObject) && (((BagObject) value).getCount () == 0)) ? null : value;
+        }
+        return null;
+    }
+
+    /**
+     * Read a BagObject that holds only the subtrees of the input at the given key paths (e.g.
+     * "a/b"), skipping everything else. Arrays along a path are kept as arrays, with each of their
+     * elements filtered by the rest of the path, so "rows/name" reads the "name" of every element
+     * of "rows". Objects that don't have any of the paths are left out.
+     *
+     * @param paths The key paths to read, separated by "/".
+     * @return The filtered BagObject, or null if the input isn't an object, or has an error.
+     */
+    public BagObject readBagObject (String... paths) {
+        return (next () == Event.START_OBJECT) ? (BagObject) readFiltered (new PathTree (paths)) : null;
+    }
+
+    /**
+     * Read a BagArray that holds only the subtrees of the input at the given key paths, as in
+     * readBagObject, with each element of the top level array filtered by the paths.
+     *
+     * @param paths The key paths to read, separated by "/".
+     * @return The filtered BagArray, or null if the input isn't an array, or has an error.
+     */
+    public BagArray readBagArray (String... paths) {
+        return (next () == Event.START_ARRAY) ? (BagArray) readFiltered (new PathTree (paths)) : null;
+    }
+}
@@ -0,0 +1,255 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagObject;
+import com.brettonw.bedrock.logger.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A JSON reader that parses its input as it is read from a Reader, through a fixed size buffer,
+ * rather than reading the whole input into a string first. It reads the same JSON-ish grammar as
+ * FormatReaderJson, and builds the same Bags, but the memory it needs beyond the Bags it builds is
+ * the buffer and the longest single value in the input.
+ * <p>
+ * The Reader is not closed, that is up to the caller. Line endings can be "\n" or "\r\n".
+ */
+public class FormatReaderJsonStream extends FormatReader implements ArrayFormatReader, ObjectFormatReader {
+    private static final Logger log = LogManager.getLogger (FormatReaderJsonStream.class);
+
+    private static final int BUFFER_SIZE = 1 << 14;
+
+    private static final char[] BARE_VALUE_STOP_CHARS = FormatReaderJson.sortString (" \u00a0\t\r\n:{}[]\",");
+    private static final char[] QUOTED_STRING_STOP_CHARS = FormatReaderJson.sortString ("\r\n\"");
+
+    private final Reader reader;
+    protected final char[] buffer;
+    protected int position;
+    private int limit;
+    private boolean endOfInput;
+
+    // the characters of the current string or bare value, reused for each of them
+    private final StringBuilder token;
+
+    protected int lineNumber;
+    protected boolean error;
+
+    /**
+     * Read JSON from a Reader.
+     *
+     * @param reader The source of the JSON text.
+     */
+    public FormatReaderJsonStream (Reader reader) {
+        this.reader = reader;
+        buffer = new char[BUFFER_SIZE];
+        token = new StringBuilder ();
+        lineNumber = 1;
+    }
+
+    /**
+     * Read JSON from an InputStream, which is always decoded as UTF-8.
+     *
+     * @param inputStream The source of the JSON text.
+     */
+    public FormatReaderJsonStream (InputStream inputStream) {
+        this (new InputStreamReader (inputStream, StandardCharsets.UTF_8));
+    }
+
+    private boolean fill () {
+        // make sure there is at least one character in the buffer, unless the input is finished
+        if (position < limit) {
+            return true;
+        }
+        if (! endOfInput) {
+            try {
+                do {
+                    limit = reader.read (buffer, 0, buffer.length);
+                } while (limit == 0);
+            } catch (IOException exception) {
+                log.error ("Error while reading input: " + exception.getMessage ());
+                error = true;
+                limit = -1;
+            }
+            position = 0;
+            if (limit > 0) {
+                return true;
+            }
+            limit = 0;
+            endOfInput = true;
+        }
+        return false;
+    }
+
+    protected boolean check () {
+        return (! error) && fill ();
+    }
+
+    protected void consumeWhiteSpace () {
+        // consume white space (space, carriage return, tab, etc.
+        while (check ()) {
+            switch (buffer[position]) {
+                // tab, space, nbsp, and the carriage return of a "\r\n" line ending
+                case '\t': case ' ': case '\u00a0': case '\r':
+                    ++position;
+                    break;
+                case '\n':
+                    ++position;
+                    ++lineNumber;
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    protected boolean expect (char c) {
+        consumeWhiteSpace ();
+
+        // the next character should be the one we expect
+        if (check () && (buffer[position] == c)) {
+            ++position;
+            return true;
+        }
+        return false;
+    }
+
+    protected boolean require (char c) {
+        return require (expect (c), "'" + c + "'");
+    }
+
+    protected boolean require (boolean condition, String explanation) {
+        if ((! condition) && (! error)) {
+            // the input before the error is gone, so just say where it is
+            log.error ("Error while parsing input on line " + lineNumber + ": " + explanation + " REQUIRED");
+            error = true;
+        }
+        return condition;
+    }
+
+    private void consumeUntilStop (char[] stopChars) {
+        token.setLength (0);
+        var escaped = false;
+        while (check ()) {
+            // copy runs of characters out of the buffer at a time
+            var start = position;
+            while (position < limit) {
+                var c = buffer[position];
+                if (escaped) {
+                    // using the escape mechanism is like a free pass for the next character, but
+                    // we don't do any transformation on the value, just return it as written
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (! FormatReaderJson.notIn (stopChars, c)) {
+                    token.append (buffer, start, position - start);
+                    return;
+                }
+                ++position;
+            }
+            token.append (buffer, start, position - start);
+        }
+    }
+
+    @Override
+    public BagArray readBagArray () {
+        // <Array> :: [ ] | [ <Elements> ]
+        var bagArray = new BagArray ();
+        return (expect ('[') && readElements (bagArray) && require (']')) ? bagArray : null;
+    }
+
+    private boolean storeValue (BagArray bagArray) {
+        // read a value and store it, converting a bare "null" to a null value, as in
+        // FormatReaderJson
+        var value = readValue ();
+        if (value != null) {
+            if ((value instanceof String) && (((String) value).equalsIgnoreCase ("null"))) {
+                value = null;
+            }
+            bagArray.add (value);
+            return true;
+        }
+        return false;
+    }
+
+    protected boolean readElements (BagArray bagArray) {
+        // <Elements> ::= <Value> | <Value> , <Elements>
+        var result = true;
+        if (storeValue (bagArray)) {
+            while (expect (',')) {
+                result = require (storeValue (bagArray), "Valid value");
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public BagObject readBagObject () {
+        // <Object> ::= { } | { <Members> }
+        var builder = new BagObject.Builder ();
+        return (expect ('{') && readMembers (builder) && require (expect ('}'), "Valid pair (<String>:<Value>) or '}'")) ? builder.build () : null;
+    }
+
+    protected boolean readMembers (BagObject.Builder builder) {
+        // <Members> ::= <Pair> | <Pair> , <Members>
+        var result = true;
+        if (readPair (builder)) {
+            while (expect (',')) {
+                result = require (readPair (builder), "Valid pair (<String>:<Value>)");
+            }
+        }
+        return result;
+    }
+
+    private boolean storeValue (BagObject.Builder builder, String key) {
+        // a bare "null" is a valid value, but it isn't stored in a BagObject
+        var value = readValue ();
+        if (value != null) {
+            if (! ((value instanceof String) && (((String) value).equalsIgnoreCase ("null")))) {
+                builder.put (key, value);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean readPair (BagObject.Builder builder) {
+        // <Pair> ::= <String> : <Value>
+        var key = readString ();
+        return (key != null) && (key.length () > 0) && require (':') && require (storeValue (builder, key), "Valid value");
+    }
+
+    protected String readString () {
+        // " chars "
+        var result = (String) null;
+        if (expect ('"')) {
+            // digest the string, and be sure to eat the end quote
+            consumeUntilStop (QUOTED_STRING_STOP_CHARS);
+            result = intern (token.toString ());
+            if (check ()) {
+                ++position;
+            }
+        }
+        return result;
+    }
+
+    protected String readBareValue () {
+        // <chars>, technically sloppy, but it's part of the simplified structure we support
+        consumeUntilStop (BARE_VALUE_STOP_CHARS);
+        return (token.length () > 0) ? intern (token.toString ()) : null;
+    }
+
+    protected Object readValue () {
+        // <Value> ::= <String> | <Object> | <Array>
+        consumeWhiteSpace ();
+        return check () ? switch (buffer[position]) {
+            case '{' -> readBagObject ();
+            case '[' -> readBagArray ();
+            case '"' -> readString ();
+            default -> readBareValue ();
+        } : null;
+    }
+}
@@ -46,11 +46,12 @@ public class FormatReaderTable extends FormatReader implements ArrayFormatReader
                 bagArray.forEach (object -> {
                     var entryArray = (BagArray) object;
                     if (count == entryArray.getCount ()) {
-                        var bagObject = new BagObject (count);
+                        var builder = new BagObject.Builder (count);
                         for (int i = 0; i < count; ++i) {
-                            bagObject.put (titlesArray.getString (i), entryArray.getObject (i));
+                            var value = entryArray.getObject (i);
+                            builder.put (intern (titlesArray.getString (i)), (value instanceof String) ? intern ((String) value) : value);
                         }
-                        mappedBagArray.add (bagObject);
+                        mappedBagArray.add (builder.build ());
                     } else {
                         log.warn ("Mismatched size of entry and titles (skipping row)");
                     }
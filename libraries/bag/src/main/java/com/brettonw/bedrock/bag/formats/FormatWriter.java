@@ -1,11 +1,17 @@
 package com.brettonw.bedrock.bag.formats;
 
+import com.brettonw.bedrock.bag.Bag;
 import com.brettonw.bedrock.bag.BagArray;
 import com.brettonw.bedrock.bag.BagObject;
 import com.brettonw.bedrock.logger.*;
 
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Supplier;
@@ -28,6 +34,30 @@ abstract public class FormatWriter {
     abstract public String write (BagObject bagObject);
     abstract public String write (BagArray bagArray);
 
+    /**
+     * Write a BagObject to an Appendable, with the same text "write" would return. Writers that
+     * can produce their output in a single pass override this to write it directly, without
+     * building it in memory first.
+     *
+     * @param bagObject The BagObject to write.
+     * @param appendable Where to write it.
+     * @throws IOException if the Appendable can't be written to.
+     */
+    public void write (BagObject bagObject, Appendable appendable) throws IOException {
+        appendable.append (write (bagObject));
+    }
+
+    /**
+     * Write a BagArray to an Appendable, with the same text "write" would return.
+     *
+     * @param bagArray The BagArray to write.
+     * @param appendable Where to write it.
+     * @throws IOException if the Appendable can't be written to.
+     */
+    public void write (BagArray bagArray, Appendable appendable) throws IOException {
+        appendable.append (write (bagArray));
+    }
+
     // static type registration by name
     private static final Map<String, FormatWriter> formatWriters = new HashMap<>();
 
@@ -51,11 +81,54 @@ abstract public class FormatWriter {
         return null;
     }
 
+    /**
+     * Write a Bag in the given format to an Appendable (like a Writer or a StringBuilder).
+     *
+     * @param bag The BagObject or BagArray to write.
+     * @param format The MIME type of the format to write.
+     * @param appendable Where to write it.
+     * @return true if the format is known, and the Bag was written.
+     * @throws IOException if the Appendable can't be written to.
+     */
+    public static boolean write (Bag bag, String format, Appendable appendable) throws IOException {
+        var formatWriter = formatWriters.get (format);
+        if (formatWriter != null) {
+            if (bag instanceof BagObject) {
+                formatWriter.write ((BagObject) bag, appendable);
+                return true;
+            }
+            if (bag instanceof BagArray) {
+                formatWriter.write ((BagArray) bag, appendable);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write a Bag in the given format to an OutputStream, encoded as UTF-8. The stream is flushed,
+     * but not closed.
+     *
+     * @param bag The BagObject or BagArray to write.
+     * @param format The MIME type of the format to write.
+     * @param outputStream Where to write it.
+     * @return true if the format is known, and the Bag was written.
+     * @throws IOException if the OutputStream can't be written to.
+     */
+    public static boolean write (Bag bag, String format, OutputStream outputStream) throws IOException {
+        var writer = new BufferedWriter (new OutputStreamWriter (outputStream, StandardCharsets.UTF_8));
+        var written = write (bag, format, writer);
+        writer.flush ();
+        return written;
+    }
+
     static {
         // rather than have a compile-time and run-time dependency, we just list the sub-
         // classes of FormatWriter here that need to be loaded.
         var formatWriters = new Class[] {
+                FormatWriterBinary.class,
                 FormatWriterJson.class,
+                FormatWriterJsonLines.class,
                 FormatWriterText.class
         };
         for (var type : formatWriters) {
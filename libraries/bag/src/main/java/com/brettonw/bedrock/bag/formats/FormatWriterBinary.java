@@ -0,0 +1,158 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.Bag;
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+
+import static com.brettonw.bedrock.bag.formats.BinaryEncoding.*;
+
+/**
+ * Writes Bags in a compact binary form (MimeType.BINARY), read back by FormatReaderBinary. A
+ * document starts with a magic number and version, then a dictionary of the keys used in it (each
+ * written once), then the root value. Values are encoded as described in BinaryEncoding, with
+ * strings as their length and UTF-8 bytes. Objects refer to their keys by their position in the
+ * dictionary. Bags are written as typed or not, and values in a typed bag keep their native type.
+ * <p>
+ * The registered writer (and so Bag.toString (MimeType.BINARY)) returns the document as Base64
+ * text, so it can go anywhere the text formats can. Use "toBytes" or "toByteBuffer" to get the
+ * bytes directly.
+ */
+public class FormatWriterBinary extends FormatWriter {
+    static final byte[] MAGIC = { 'B', 'G' };
+    static final byte VERSION = 1;
+
+    public FormatWriterBinary () { super (); }
+
+    // a growable byte array, cheaper to write single bytes to than a stream
+    private static class Output implements ByteSink<RuntimeException> {
+        private byte[] bytes = new byte[256];
+        private int count;
+
+        private void ensure (int size) {
+            if (count + size > bytes.length) {
+                bytes = Arrays.copyOf (bytes, Math.max (bytes.length * 2, count + size));
+            }
+        }
+
+        @Override
+        public void write (int b) {
+            ensure (1);
+            bytes[count++] = (byte) b;
+        }
+
+        void write (byte[] b, int offset, int length) {
+            ensure (length);
+            System.arraycopy (b, offset, bytes, count, length);
+            count += length;
+        }
+
+        void writeVarint (long value) {
+            BinaryEncoding.writeVarint (this, value);
+        }
+
+        void writeString (String string) {
+            var utf8 = string.getBytes (StandardCharsets.UTF_8);
+            writeVarint (utf8.length);
+            write (utf8, 0, utf8.length);
+        }
+    }
+
+    // the state of writing one document
+    private static class Document {
+        private final HashMap<String, Integer> keys = new HashMap<> ();
+        private final Output keyOutput = new Output ();
+        private final Output output = new Output ();
+
+        private int getKeyIndex (String key) {
+            var index = keys.get (key);
+            if (index == null) {
+                keys.put (key, index = keys.size ());
+                keyOutput.writeString (key);
+            }
+            return index;
+        }
+
+        private void writeValue (Object object) {
+            if (object instanceof String) {
+                output.write (STRING);
+                output.writeString ((String) object);
+            } else if (object instanceof BagObject) {
+                var bagObject = (BagObject) object;
+                output.write (bagObject.isTyped () ? TYPED_OBJECT : OBJECT);
+                output.writeVarint (bagObject.getCount ());
+                bagObject.forEach ((key, value) -> {
+                    output.writeVarint (getKeyIndex (key));
+                    writeValue (value);
+                });
+            } else if (object instanceof BagArray) {
+                var bagArray = (BagArray) object;
+                var count = bagArray.getCount ();
+                output.write (bagArray.isTyped () ? TYPED_ARRAY : ARRAY);
+                output.writeVarint (count);
+                for (int i = 0; i < count; ++i) {
+                    writeValue (bagArray.getObject (i));
+                }
+            } else if (! writeScalar (output, object)) {
+                output.write (NULL);
+            }
+        }
+
+        private byte[] finish () {
+            // the header and key dictionary come before the root value, so a reader has all of the
+            // keys in hand before it needs them
+            var header = new Output ();
+            header.write (MAGIC, 0, MAGIC.length);
+            header.write (VERSION);
+            header.writeVarint (keys.size ());
+            header.write (keyOutput.bytes, 0, keyOutput.count);
+            header.write (output.bytes, 0, output.count);
+            return Arrays.copyOf (header.bytes, header.count);
+        }
+    }
+
+    private static byte[] encode (Bag bag) {
+        var document = new Document ();
+        document.writeValue (bag);
+        return document.finish ();
+    }
+
+    /**
+     * Return a Bag in the binary format.
+     *
+     * @param bag The BagObject or BagArray to write.
+     * @return A new byte array.
+     */
+    public static byte[] toBytes (Bag bag) {
+        return encode (bag);
+    }
+
+    /**
+     * Return a Bag in the binary format.
+     *
+     * @param bag The BagObject or BagArray to write.
+     * @return A new ByteBuffer, ready to be read from.
+     */
+    public static ByteBuffer toByteBuffer (Bag bag) {
+        return ByteBuffer.wrap (encode (bag));
+    }
+
+    @Override
+    public String write (BagObject bagObject) {
+        return Base64.getEncoder ().encodeToString (encode (bagObject));
+    }
+
+    @Override
+    public String write (BagArray bagArray) {
+        return Base64.getEncoder ().encodeToString (encode (bagArray));
+    }
+
+    static {
+        FormatWriter.registerFormatWriter (MimeType.BINARY, false, FormatWriterBinary::new);
+    }
+}
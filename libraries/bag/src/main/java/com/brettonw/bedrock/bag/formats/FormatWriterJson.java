@@ -3,61 +3,125 @@ package com.brettonw.bedrock.bag.formats;
 import com.brettonw.bedrock.bag.BagArray;
 import com.brettonw.bedrock.bag.BagObject;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 public class FormatWriterJson extends FormatWriter {
     static final String[] CURLY_BRACKETS = { "{", "}" };
     static final String[] SQUARE_BRACKETS = { "[", "]" };
 
     public FormatWriterJson () { super (); }
 
-    private String getJsonString (Object object) {
+    // the JSON is written in a single pass, straight to the output, so no text is built up for
+    // the children of a bag and then copied into the text of their parent
+
+    private void appendQuoted (String string, Appendable appendable) throws IOException {
+        appendable.append ('"').append (string).append ('"');
+    }
+
+    void appendJson (Object object, Appendable appendable) throws IOException {
         if (object != null) {
             switch (object.getClass ().getCanonicalName ()) {
-                case "java.lang.String": return quote ((String) object);
+                case "java.lang.String":
+                    appendQuoted ((String) object, appendable);
+                    return;
+
+                // numbers and booleans from a typed bag are written exactly as the string they
+                // would have been converted to in a string-only bag
+                case "java.lang.Long": case "java.lang.Integer": case "java.lang.Short": case "java.lang.Byte":
+                case "java.lang.Boolean":
+                case "java.lang.Double": case "java.lang.Float":
+                    appendQuoted (object.toString (), appendable);
+                    return;
                 //case "BagObject":
                 case "com.brettonw.bedrock.bag.BagObject":
-                    return write ((BagObject) object);
+                    write ((BagObject) object, appendable);
+                    return;
                 //case "BagArray":
                 case "com.brettonw.bedrock.bag.BagArray":
-                    return write ((BagArray) object);
+                    write ((BagArray) object, appendable);
+                    return;
 
-                // we omit the default case, because there should not be any other types stored in
-                // the Bag classes - as in, they would not make it into the container, as the
-                // "objectify" method will gate that
+                // there should not be any other types stored in the Bag classes - as in, they
+                // would not make it into the container, as the "objectify" method will gate that -
+                // except for subclasses of the bag types (e.g. ConcurrentBagObject)
+                default:
+                    if (object instanceof BagObject) {
+                        write ((BagObject) object, appendable);
+                        return;
+                    }
+                    if (object instanceof BagArray) {
+                        write ((BagArray) object, appendable);
+                        return;
+                    }
+                    break;
             }
         }
         // if we stored a null, we need to emit it as a value. This will only happen in the
         // array types, and is handled on the parsing side with a special case for reading
         // the bare value 'null' (not quoted)
-        return "null";
+        appendable.append ("null");
+    }
+
+    @Override
+    public void write (BagObject bagObject, Appendable appendable) throws IOException {
+        appendable.append (CURLY_BRACKETS[0]);
+        try {
+            var first = new boolean[] { true };
+            bagObject.forEach ((key, value) -> {
+                // forEach can't pass an IOException through, so it is carried out unchecked
+                try {
+                    if (! first[0]) {
+                        appendable.append (',');
+                    }
+                    first[0] = false;
+                    appendQuoted (key, appendable);
+                    appendable.append (':');
+                    appendJson (value, appendable);
+                } catch (IOException exception) {
+                    throw new UncheckedIOException (exception);
+                }
+            });
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause ();
+        }
+        appendable.append (CURLY_BRACKETS[1]);
+    }
+
+    @Override
+    public void write (BagArray bagArray, Appendable appendable) throws IOException {
+        appendable.append (SQUARE_BRACKETS[0]);
+        for (int i = 0, end = bagArray.getCount (); i < end; ++i) {
+            if (i > 0) {
+                appendable.append (',');
+            }
+            appendJson (bagArray.getObject (i), appendable);
+        }
+        appendable.append (SQUARE_BRACKETS[1]);
     }
 
     @Override
     public String write (BagObject bagObject) {
         var stringBuilder = new StringBuilder ();
-        var separator = "";
-        var keys= bagObject.keys();
-        for (var key : keys) {
-            stringBuilder
-                    .append (separator)
-                    .append (quote (key))
-                    .append (":")
-                    .append (getJsonString (bagObject.getObject (key)));
-            separator = ",";
+        try {
+            write (bagObject, stringBuilder);
+        } catch (IOException exception) {
+            // a StringBuilder doesn't throw
+            throw new UncheckedIOException (exception);
         }
-        return enclose(stringBuilder.toString(), CURLY_BRACKETS);
+        return stringBuilder.toString ();
     }
 
     @Override
     public String write (BagArray bagArray) {
         var stringBuilder = new StringBuilder ();
-        var separator = "";
-        for (int i = 0, end = bagArray.getCount(); i < end; ++i) {
-            stringBuilder
-                    .append(separator)
-                    .append(getJsonString(bagArray.getObject(i)));
-            separator = ",";
+        try {
+            write (bagArray, stringBuilder);
+        } catch (IOException exception) {
+            // a StringBuilder doesn't throw
+            throw new UncheckedIOException (exception);
         }
-        return enclose(stringBuilder.toString(), SQUARE_BRACKETS);
+        return stringBuilder.toString ();
     }
 
     static {
@@ -0,0 +1,65 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A writer for JSON Lines, with each element of a BagArray written as JSON on a line of its own,
+ * and no enclosing array. A BagObject is written as a single record, so records can be written
+ * to an Appendable one at a time as they are produced, e.g. from FormatReaderJsonLines.stream.
+ * Elements that aren't objects are written too, and FormatReaderJsonLines reads them back into a
+ * BagArray, but only objects are records to its "iterator" and "stream".
+ */
+public class FormatWriterJsonLines extends FormatWriter {
+    private final FormatWriterJson json;
+
+    public FormatWriterJsonLines () {
+        super ();
+        json = new FormatWriterJson ();
+    }
+
+    @Override
+    public void write (BagObject bagObject, Appendable appendable) throws IOException {
+        json.write (bagObject, appendable);
+        appendable.append ('\n');
+    }
+
+    @Override
+    public void write (BagArray bagArray, Appendable appendable) throws IOException {
+        for (int i = 0, end = bagArray.getCount (); i < end; ++i) {
+            json.appendJson (bagArray.getObject (i), appendable);
+            appendable.append ('\n');
+        }
+    }
+
+    @Override
+    public String write (BagObject bagObject) {
+        var stringBuilder = new StringBuilder ();
+        try {
+            write (bagObject, stringBuilder);
+        } catch (IOException exception) {
+            // a StringBuilder doesn't throw
+            throw new UncheckedIOException (exception);
+        }
+        return stringBuilder.toString ();
+    }
+
+    @Override
+    public String write (BagArray bagArray) {
+        var stringBuilder = new StringBuilder ();
+        try {
+            write (bagArray, stringBuilder);
+        } catch (IOException exception) {
+            // a StringBuilder doesn't throw
+            throw new UncheckedIOException (exception);
+        }
+        return stringBuilder.toString ();
+    }
+
+    static {
+        FormatWriter.registerFormatWriter (MimeType.JSON_LINES, false, FormatWriterJsonLines::new);
+    }
+}
@@ -35,25 +35,22 @@ public class FormatWriterText extends FormatWriter {
     @Override
     public String write (BagObject bagObject) {
         var stringBuilder = new StringBuilder ();
-        var keys = bagObject.keys ();
-        for (var key : keys) {
+        bagObject.forEach ((key, object) -> {
             // the reader has a flag to accumulate values or overwrite them. accumulated values will be gathered into
             // an array - as the writer, we will assume the presence of the array means multiple lines
-            var bagArray = bagObject.getBagArray (key);
-            if (bagArray != null) {
+            if (object instanceof BagArray) {
+                var bagArray = (BagArray) object;
                 for (int i = 0, end = bagArray.getCount (); i < end; ++i) {
                     var value = bagArray.getString (i);
                     if (value != null) {
                         stringBuilder.append(key).append(pairSeparator).append(value).append(entrySeparator);
                     }
                 }
-            } else {
-                var  value = bagObject.getString (key);
-                if (value != null) {
-                    stringBuilder.append(key).append(pairSeparator).append(value).append(entrySeparator);
-                }
+            } else if (! (object instanceof BagObject)) {
+                // strings and native values, there is no text form for a child object
+                stringBuilder.append(key).append(pairSeparator).append(object).append(entrySeparator);
             }
-        }
+        });
         return stringBuilder.toString ();
     }
 
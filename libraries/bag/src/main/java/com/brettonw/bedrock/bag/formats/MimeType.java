@@ -14,12 +14,15 @@ public class MimeType {
     // CSV -> https://tools.ietf.org/html/rfc4180
 
     public static final String JSON = "application/json";
+    public static final String JSON_LINES = "application/x-ndjson";
     public static final String XML = "application/xml";
     public static final String CSV = "text/csv";
     public static final String URL = "application/x-www-form-urlencoded";
     public static final String TEXT = "application/text";
     public static final String PROP = "text/x-java-properties";
     public static final String FIXED = "text/fixed";
+    public static final String BINARY = "application/x-bedrock-bag";
+    public static final String INDEXED = "application/x-bedrock-bag-indexed";
 
     public static final String DEFAULT = JSON;
 
@@ -0,0 +1,128 @@
+package com.brettonw.bedrock.bag.formats;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A StringPool is used by the format readers to share one instance of each distinct key and
+ * value string, instead of making a new one every time it occurs in the input. Table-shaped data
+ * (an array of objects with the same keys, and a small set of repeated values) is much smaller
+ * when it is read through a pool.
+ * <p>
+ * A pool is given to a read on its SourceAdapter (see SourceAdapter.setStringPool), and can be
+ * used for one read, or shared among many of them. It can be bounded by size, in which case the
+ * least recently used strings are dropped from it, or it can hold its strings weakly, in which
+ * case they are dropped when nothing else uses them. Long strings are rarely repeated, so they are
+ * not pooled at all. A pool is safe to use from multiple threads.
+ */
+public class StringPool {
+    public static final int DEFAULT_SIZE = 4096;
+    public static final int MAX_LENGTH = 128;
+
+    private final Map<String, Object> map;
+    private final boolean weak;
+
+    // a local pool is a front for a shared one, see "local"
+    private final StringPool shared;
+
+    /**
+     * Create a new StringPool with the default size bound.
+     */
+    public StringPool () {
+        this (DEFAULT_SIZE);
+    }
+
+    /**
+     * Create a new StringPool that holds at most the given number of strings, dropping the least
+     * recently used ones to make room for new ones.
+     *
+     * @param maxSize The maximum number of strings in the pool.
+     */
+    public StringPool (int maxSize) {
+        map = new LinkedHashMap<> (16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<String, Object> eldest) {
+                return size () > maxSize;
+            }
+        };
+        weak = false;
+        shared = null;
+    }
+
+    private StringPool (Map<String, Object> map) {
+        this.map = map;
+        weak = true;
+        shared = null;
+    }
+
+    private StringPool (StringPool shared) {
+        map = new HashMap<> ();
+        weak = false;
+        this.shared = shared;
+    }
+
+    /**
+     * Return a pool for one thread to use in front of this one. It remembers the strings it has
+     * already looked up in this pool, so the lock on this pool is only taken once for each
+     * distinct string, rather than for every string read. The strings are the same instances as
+     * in this pool. A local pool is meant to be used for one read, and then dropped.
+     *
+     * @return A new StringPool, backed by this one.
+     */
+    StringPool local () {
+        return new StringPool (this);
+    }
+
+    /**
+     * Create a new StringPool that holds its strings weakly, so that it doesn't keep them alive
+     * when nothing else uses them. This is useful for a pool that is shared for the life of an
+     * application.
+     *
+     * @return A new StringPool.
+     */
+    public static StringPool weak () {
+        return new StringPool (new WeakHashMap<> ());
+    }
+
+    /**
+     * Return the pooled instance of a string, adding it to the pool if there isn't one yet.
+     *
+     * @param string The string to look up.
+     * @return An equal string, the one in the pool if there is one.
+     */
+    public synchronized String intern (String string) {
+        if ((string == null) || (string.length () > MAX_LENGTH)) {
+            return string;
+        }
+        var found = map.get (string);
+        if (shared != null) {
+            if (found == null) {
+                found = shared.intern (string);
+                map.put (string, found);
+            }
+            return (String) found;
+        }
+        if (found != null) {
+            // a weak pool maps the string to a weak reference to itself, as the value would
+            // otherwise keep the key alive
+            var pooled = weak ? ((WeakReference<?>) found).get () : found;
+            if (pooled != null) {
+                return (String) pooled;
+            }
+        }
+        map.put (string, weak ? new WeakReference<> (string) : string);
+        return string;
+    }
+
+    /**
+     * Return the number of strings in the pool.
+     *
+     * @return The number of strings in the pool.
+     */
+    public synchronized int size () {
+        return map.size ();
+    }
+}
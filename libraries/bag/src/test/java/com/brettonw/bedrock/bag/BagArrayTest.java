@@ -9,7 +9,10 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.ArrayList;
 import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -341,4 +344,326 @@ public class BagArrayTest {
         BagTest.report (bagArray.getAndRemove (1000), null, "Test getAndRemove with bogus index");
 
     }
+
+    @Test
+    public void testTyped () {
+        var typed = new BagArray ().typed ();
+        var untyped = new BagArray ();
+        var random = new Random (12345);
+        for (int i = 0; i < 100; ++i) {
+            var value = random.nextInt (1000) / 8.0;
+            var object = BagObject.open ("id", i).put ("value", value);
+            typed.add (new BagObject ().typed ().put ("id", i).put ("value", value));
+            untyped.add (object);
+        }
+        typed.add (12).add (true);
+        untyped.add (12).add (true);
+        BagTest.report (typed.toString (), untyped.toString (), "BagArray - typed JSON matches string-only JSON");
+        BagTest.report (typed.getObject (100) instanceof Integer, true, "BagArray - typed values are stored natively");
+        BagTest.report (typed.getLong (100), 12L, "BagArray - typed long");
+        BagTest.report (typed.getLongValue (100, -1), 12L, "BagArray - typed primitive long");
+        BagTest.report (typed.getDoubleValue (100, -1), 12.0, "BagArray - typed primitive double");
+        BagTest.report (typed.getBoolean (101), true, "BagArray - typed boolean");
+        BagTest.report (typed.getString (101), "true", "BagArray - typed value as string");
+
+        // sorting numerically works the same on typed and string values
+        var sortKeys = SortKey.keys ("value");
+        sortKeys[0].setType (SortType.NUMERIC);
+        var typedSorted = typed.subset (0, 100).sort (sortKeys);
+        var untypedSorted = untyped.subset (0, 100).sort (sortKeys);
+        BagTest.report (typedSorted.isTyped (), true, "BagArray - derived arrays inherit typed mode");
+        BagTest.report (typedSorted.toString (), untypedSorted.toString (), "BagArray - typed sort matches string-only sort");
+    }
+
+    @Test
+    public void testCopy () {
+        var bagArray = new BagArray ().add ("a").add (BagObject.open ("b", 1)).add (BagArray.open ("c"));
+        var copy = new BagArray (bagArray);
+        BagTest.report (copy.toString (), bagArray.toString (), "BagArray - deep copy matches");
+        copy.getBagObject (1).put ("b", 2);
+        copy.getBagArray (2).add ("d");
+        BagTest.report (bagArray.getString ("1/b"), "1", "BagArray - deep copy child object is isolated");
+        BagTest.report (bagArray.getBagArray (2).getCount (), 1, "BagArray - deep copy child array is isolated");
+
+        var cow = bagArray.copyOnWrite ();
+        BagTest.report (cow.toString (), bagArray.toString (), "BagArray - copy on write matches");
+        cow.add ("e");
+        BagTest.report (bagArray.getCount (), 3, "BagArray - copy on write add is isolated");
+        cow.getBagObject (1).put ("b", 3);
+        BagTest.report (bagArray.getString ("1/b"), "1", "BagArray - copy on write child is isolated");
+        BagTest.report (cow.getString ("1/b"), "3", "BagArray - copy on write child is changed");
+
+        cow = bagArray.copyOnWrite ();
+        bagArray.remove (0);
+        bagArray.getBagArray (1).pop ();
+        BagTest.report (cow.getString (0), "a", "BagArray - original changes don't show in copy on write");
+        BagTest.report (cow.getBagArray (2).getCount (), 1, "BagArray - original child changes don't show in copy on write");
+    }
+
+    @Test
+    public void testEquals () {
+        var bagArray = new BagArray ().add ("a").add (null).add (BagObject.open ("b", 1)).add (BagArray.open (2));
+        var typed = new BagArray ().typed ().add ("a").add (null).add (BagObject.open ("b", 1)).add (BagArray.open (2));
+        BagTest.report (bagArray.equals (typed), true, "BagArray should be equal to an equivalent typed bedrock");
+        BagTest.report (bagArray.hashCode (), typed.hashCode (), "BagArray hash should match an equivalent bedrock");
+        BagTest.report (bagArray.equals (BagObject.open ("b", 1)), false, "BagArray should not be equal to a BagObject");
+        BagTest.report (bagArray.equals (new BagArray ().add ("a").add ("null").add (BagObject.open ("b", 1)).add (BagArray.open (2))), false, "BagArray null should not equal \"null\"");
+
+        // the order of elements matters
+        var reversed = new BagArray ().add (BagArray.open (2)).add (BagObject.open ("b", 1)).add (null).add ("a");
+        BagTest.report (bagArray.equals (reversed), false, "BagArray should not be equal in a different order");
+
+        // the cached hash code has to follow changes, including changes made directly to children
+        var hash = typed.hashCode ();
+        typed.getBagArray (3).add (3);
+        BagTest.report (typed.hashCode () != hash, true, "BagArray hash should change with a child");
+        BagTest.report (bagArray.equals (typed), false, "BagArray should not be equal after a child changes");
+        typed.getBagArray (3).pop ();
+        BagTest.report (typed.hashCode (), hash, "BagArray hash should be restored with a child");
+        typed.replace (0, "z");
+        BagTest.report (bagArray.equals (typed), false, "BagArray should not be equal after a replace");
+    }
+
+    @Test
+    public void testFreeze () {
+        var bagArray = new BagArray ().add ("a").add (BagObject.open ("b", 1)).add (BagArray.open ("c"));
+        var frozen = bagArray.freeze ();
+        BagTest.report (frozen.isFrozen (), true, "BagArray - frozen");
+        BagTest.report (frozen.equals (bagArray), true, "BagArray - frozen equals source");
+        BagTest.report (frozen.getBagArray (2).isFrozen (), true, "BagArray - frozen children");
+        var attempts = new Runnable[] {
+                () -> frozen.add ("d"),
+                () -> frozen.replace (0, "d"),
+                () -> frozen.remove (0),
+                () -> frozen.pop (),
+                () -> frozen.sort (),
+                () -> frozen.getBagArray (2).add ("d")
+        };
+        for (var attempt : attempts) {
+            try {
+                attempt.run ();
+                BagTest.report (false, true, "BagArray - frozen modification should fail");
+            } catch (UnsupportedOperationException exception) {
+                BagTest.report (true, true, "BagArray - frozen modification should fail");
+            }
+        }
+        BagTest.report (frozen.getCount (), 3, "BagArray - frozen is unchanged");
+        var copy = frozen.copyOnWrite ().add ("d");
+        BagTest.report (copy.getCount (), 4, "BagArray - copy of frozen is mutable");
+
+        // an empty frozen array still has room for a copy of it to grow
+        BagTest.report (new BagArray ().freeze ().copyOnWrite ().add ("a"), BagArray.open ("a"), "BagArray - copy of empty frozen is mutable");
+        BagTest.report (new BagArray ().freeze ().copyOnWrite ().insert (0, "a").insert (0, "b").getCount (), 2, "BagArray - copy of empty frozen inserts");
+    }
+
+    @Test
+    public void testLarge () {
+        // appending a large number of elements grows the store geometrically
+        var count = 1_000_000;
+        var bagArray = new BagArray ();
+        for (int i = 0; i < count; ++i) {
+            bagArray.add (i);
+        }
+        BagTest.report (bagArray.getCount (), count, "BagArray - large count");
+        BagTest.report (bagArray.getInteger (123_456), 123_456, "BagArray - large indexed access");
+        BagTest.report (bagArray.getInteger (count - 1), count - 1, "BagArray - large last element");
+
+        // trimming doesn't change the contents
+        bagArray.trimToSize ();
+        BagTest.report (bagArray.getCount (), count, "BagArray - trimmed count");
+        bagArray.add ("x");
+        BagTest.report (bagArray.getString (count), "x", "BagArray - add after trim");
+
+        // reserving capacity doesn't change the contents either
+        var reserved = new BagArray ().add ("a").ensureCapacity (1000);
+        BagTest.report (reserved.getCount (), 1, "BagArray - ensureCapacity count");
+        BagTest.report (reserved.add ("b").toString (), "[\"a\",\"b\"]", "BagArray - ensureCapacity contents");
+        var cow = reserved.copyOnWrite ().trimToSize ().add ("c");
+        BagTest.report (reserved.getCount (), 2, "BagArray - trimmed copy on write is isolated");
+        BagTest.report (cow.getCount (), 3, "BagArray - trimmed copy on write count");
+    }
+
+    @Test
+    public void testDeque () {
+        // a work queue, add at the end and dequeue from the front
+        var queue = new BagArray ();
+        var next = 0;
+        for (int i = 0; i < 100_000; ++i) {
+            queue.add (i);
+            if ((i % 3) != 0) {
+                assertEquals (Integer.toString (next++), queue.dequeue (), "BagArray - queue order");
+            }
+        }
+        BagTest.report (queue.getCount (), 100_000 - next, "BagArray - queue count");
+        BagTest.report (queue.getInteger (0), next, "BagArray - queue head");
+
+        // a stack at the front
+        var stack = new BagArray ();
+        for (int i = 0; i < 100_000; ++i) {
+            stack.insert (0, i);
+        }
+        BagTest.report (stack.getInteger (0), 99_999, "BagArray - insert at front");
+        BagTest.report (stack.getInteger ("#last"), 0, "BagArray - insert at front last");
+
+        // random operations at both ends and in the middle, compared to a List
+        var random = new Random (54321);
+        var bagArray = new BagArray ();
+        var list = new ArrayList<String> ();
+        for (int i = 0; i < 20_000; ++i) {
+            var value = Integer.toString (i);
+            var size = list.size ();
+            switch (random.nextInt (7)) {
+                case 0: bagArray.add (value); list.add (value); break;
+                case 1: bagArray.insert (0, value); list.add (0, value); break;
+                case 2: {
+                    var index = random.nextInt (size + 1);
+                    bagArray.insert (index, value); list.add (index, value);
+                    break;
+                }
+                case 3: assertEquals ((size > 0) ? list.remove (0) : null, bagArray.dequeue (), "BagArray - random dequeue"); break;
+                case 4: assertEquals ((size > 0) ? list.remove (size - 1) : null, bagArray.pop (), "BagArray - random pop"); break;
+                case 5: if (size > 0) {
+                    var index = random.nextInt (size);
+                    bagArray.remove (index); list.remove (index);
+                }
+                break;
+                case 6: if (size > 0) {
+                    var index = random.nextInt (size);
+                    bagArray.replace (index, value); list.set (index, value);
+                }
+                break;
+            }
+        }
+        BagTest.report (bagArray.getCount (), list.size (), "BagArray - random count");
+        var expect = new BagArray ();
+        list.forEach (expect::add);
+        BagTest.report (bagArray.toString (), expect.toString (), "BagArray - random contents");
+        BagTest.report (bagArray, expect, "BagArray - random equals");
+
+        // sparse insertion beyond the end pads with nulls, even after removals
+        var sparse = new BagArray ().add ("a").add ("b").add ("c");
+        sparse.dequeue ();
+        sparse.pop ();
+        sparse.insert (3, "d");
+        BagTest.report (sparse.toString (), "[\"b\",null,null,\"d\"]", "BagArray - sparse insert after removal");
+    }
+
+    @Test
+    public void testStreams () {
+        var bagArray = new BagArray ();
+        for (int i = 0; i < 10_000; ++i) {
+            bagArray.add (BagObject.open ("id", i).put ("even", (i % 2) == 0).put ("name", "item-" + i));
+        }
+
+        // sequential and parallel streams see the same elements, in order
+        BagTest.report (bagArray.stream ().count (), 10_000L, "BagArray - stream count");
+        var collected = bagArray.parallelStream ().collect (BagCollectors.toBagArray ());
+        BagTest.report (collected, bagArray, "BagArray - parallel stream collected in order");
+        var evens = bagArray.parallelStream ()
+                .filter (object -> ((BagObject) object).getBoolean ("even"))
+                .collect (BagCollectors.toBagArray ());
+        BagTest.report (evens.getCount (), 5_000, "BagArray - parallel stream filter");
+
+        // collecting into a BagObject, the last value for a key wins
+        var byName = bagArray.parallelStream ()
+                .map (object -> (BagObject) object)
+                .collect (BagCollectors.toBagObject (bagObject -> bagObject.getString ("name"), bagObject -> bagObject.getString ("id")));
+        BagTest.report (byName.getCount (), 10_000, "BagArray - collect to BagObject");
+        BagTest.report (byName.getString ("item-1234"), "1234", "BagArray - collect to BagObject value");
+        var lastWins = BagArray.open (1).add (2).add (3).parallelStream ()
+                .collect (BagCollectors.toBagObject (object -> "key", object -> object));
+        BagTest.report (lastWins.getString ("key"), "3", "BagArray - collect to BagObject last value wins");
+
+        // the parallel versions of map, filter, and query match the serial ones
+        var isEven = (Predicate<Object>) object -> ((BagObject) object).getBoolean ("even");
+        BagTest.report (bagArray.parallelFilter (isEven), bagArray.filter (isEven), "BagArray - parallelFilter");
+        Function<Object, Object> getId = object -> ((BagObject) object).getInteger ("id") * 2;
+        BagTest.report (bagArray.parallelMap (getId), bagArray.map (getId), "BagArray - parallelMap");
+        var match = Exprs.equality ("even", true);
+        var selectKey = new SelectKey (SelectType.INCLUDE, "id");
+        BagTest.report (bagArray.parallelQuery (match, selectKey), bagArray.query (match, selectKey), "BagArray - parallelQuery");
+        BagTest.report (bagArray.parallelQuery (match, selectKey).getCount (), 5_000, "BagArray - parallelQuery count");
+
+        // nulls survive a parallel filter
+        var withNulls = new BagArray ().add (null).add ("a").add (null);
+        BagTest.report (withNulls.parallelFilter (object -> true).toString (), "[null,\"a\",null]", "BagArray - parallelFilter keeps nulls");
+    }
+
+    @Test
+    public void testViews () {
+        var bagArray = new BagArray ();
+        for (int i = 0; i < 100; ++i) {
+            bagArray.add (BagObject.open ("id", i).put ("even", (i % 2) == 0));
+        }
+
+        // a window onto the array, as in subset
+        var page = bagArray.subsetView (10, 5);
+        BagTest.report (page.getCount (), 5, "BagArray - subsetView count");
+        BagTest.report (page.toString (), bagArray.subset (10, 5).toString (), "BagArray - subsetView matches subset");
+        BagTest.report (page.getInteger ("#last/id"), 14, "BagArray - subsetView path");
+        BagTest.report (page.materialize (), bagArray.subset (10, 5), "BagArray - subsetView materialize");
+        BagTest.report (bagArray.subsetView (98, 5).getCount (), 2, "BagArray - subsetView clipped");
+        BagTest.report (page.stream ().count (), 5L, "BagArray - subsetView stream");
+
+        // a filtered view only scans as far as it's read
+        var tested = new int[1];
+        var evens = bagArray.filterView (object -> {
+            ++tested[0];
+            return ((BagObject) object).getBoolean ("even");
+        });
+        BagTest.report (evens.getBagObject (2).getInteger ("id"), 4, "BagArray - filterView element");
+        BagTest.report (tested[0], 5, "BagArray - filterView is lazy");
+        BagTest.report (evens.getCount (), 50, "BagArray - filterView count");
+        BagTest.report (tested[0], 100, "BagArray - filterView count scans the rest");
+        BagTest.report (evens.getCount (), 50, "BagArray - filterView count is kept");
+        BagTest.report (tested[0], 100, "BagArray - filterView count is not computed again");
+        BagTest.report (evens.materialize (), bagArray.filter (object -> ((BagObject) object).getBoolean ("even")), "BagArray - filterView materialize");
+
+        // iterating and streaming a filtered view are lazy too
+        tested[0] = 0;
+        var lazy = bagArray.filterView (object -> {
+            ++tested[0];
+            return ((BagObject) object).getBoolean ("even");
+        });
+        BagTest.report (lazy.iterator ().hasNext (), true, "BagArray - filterView iterator");
+        BagTest.report (((BagObject) lazy.stream ().findFirst ().orElse (null)).getInteger ("id"), 0, "BagArray - filterView findFirst");
+        BagTest.report (tested[0], 1, "BagArray - filterView iterator and stream are lazy");
+        var iterated = 0;
+        for (var ignored : lazy) {
+            ++iterated;
+        }
+        BagTest.report (iterated, 50, "BagArray - filterView iterates all");
+        BagTest.report (lazy.stream ().count (), 50L, "BagArray - filterView streams all");
+
+        // a selected view
+        var selectKey = new SelectKey (SelectType.INCLUDE, "1", "3");
+        BagTest.report (bagArray.selectView (selectKey).toString (), bagArray.select (selectKey).toString (), "BagArray - selectView matches select");
+
+        // views see changes to the source, and can't be changed themselves
+        bagArray.insert (0, BagObject.open ("id", -2).put ("even", true));
+        BagTest.report (evens.getCount (), 51, "BagArray - filterView sees changes");
+        BagTest.report (page.getBagObject (0).getInteger ("id"), 9, "BagArray - subsetView sees changes");
+        var attempts = new Runnable[] {
+                () -> page.add ("x"),
+                () -> page.remove (0),
+                () -> evens.pop (),
+                () -> evens.sort ()
+        };
+        for (var attempt : attempts) {
+            try {
+                attempt.run ();
+                BagTest.report (false, true, "BagArray - view modification should fail");
+            } catch (UnsupportedOperationException exception) {
+                BagTest.report (true, true, "BagArray - view modification should fail");
+            }
+        }
+
+        // views can be stored, copied and frozen like any other BagArray
+        var bagObject = BagObject.open ("page", page);
+        BagTest.report (bagObject.toString (), "{\"page\":" + page.toString () + "}", "BagArray - view as a child");
+        BagTest.report (new BagArray (page), page.materialize (), "BagArray - copy of a view");
+        BagTest.report (page.freeze (), page.materialize (), "BagArray - freeze a view");
+        BagTest.report (BagArray.concat (page, page).getCount (), 10, "BagArray - concat views");
+        BagTest.report (page.equals (bagArray.subsetView (10, 5)), true, "BagArray - views compare by contents");
+    }
 }
@@ -0,0 +1,73 @@
+package com.brettonw.bedrock.bag;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+public class BagDiffTest {
+    @Test
+    public void testDiffObjects () {
+        var source = new BagObject ()
+                .put ("name", "test")
+                .put ("child/value", "x")
+                .put ("child/gone", "y")
+                .put ("list", new BagArray ().add ("one").add ("two").add ("three"));
+        var target = new BagObject ()
+                .put ("name", "test")
+                .put ("child/value", "z")
+                .put ("child/new", "w")
+                .put ("list", new BagArray ().add ("one").add ("2"))
+                .put ("more", new BagObject ().put ("a", "b"));
+
+        var patch = BagDiff.diff (source, target);
+        BagTest.report (patch.getCount (), 6, "BagDiff - minimal patch");
+        BagTest.report (patch.getString ("0/op"), BagDiff.REMOVE, "BagDiff - removed key");
+        BagTest.report (patch.getString ("0/path"), "child/gone", "BagDiff - removed key path");
+        BagTest.report (BagDiff.diff (source, new BagObject (source)).getCount (), 0, "BagDiff - no changes");
+
+        // apply changes the source in place
+        var patched = BagDiff.apply (source, patch);
+        BagTest.report (patched == source, true, "BagDiff - applied in place");
+        BagTest.report (patched, target, "BagDiff - applied");
+
+        // patches survive a round trip through text
+        var copy = new BagObject ().put ("list", new BagArray ().add ("a"));
+        var text = BagDiff.diff (copy, target).toString ();
+        BagTest.report (BagDiff.apply (copy, BagArrayFrom.string (text)), target, "BagDiff - applied from text");
+    }
+
+    @Test
+    public void testDiffArrays () throws Exception {
+        var source = BagArrayFrom.file (new File ("data", "UCS_Satellite_Database_2-1-14.json"));
+        var target = new BagArray (source);
+        target.getBagObject (10).put ("Users", "Changed");
+        target.remove (20);
+        target.add (new BagObject ().put ("name", "new"));
+
+        var patch = BagDiff.diff (source, target);
+        BagTest.report (patch.getCount (), 3, "BagDiff - array patch is small");
+        BagTest.report (BagDiff.apply (new BagArray (source), patch), target, "BagDiff - array applied");
+
+        var shorter = new BagArray ().add ("a");
+        BagTest.report (BagDiff.apply (new BagArray ().add ("a").add ("b").add ("c"), BagDiff.diff (new BagArray ().add ("a").add ("b").add ("c"), shorter)), shorter, "BagDiff - removed elements");
+
+        // typed values keep their types
+        var typedSource = new BagObject ().typed ().put ("n", 1L);
+        var typedTarget = new BagObject ().typed ().put ("n", 2L);
+        BagTest.report (BagDiff.apply (typedSource, BagDiff.diff (typedSource, typedTarget)).getObject ("n"), 2L, "BagDiff - typed value");
+
+        Runnable[] attempts = {
+                () -> BagDiff.apply (new BagObject (), new BagArray ().add ("x")),
+                () -> BagDiff.apply (new BagObject (), new BagArray ().add (new BagObject ().put (BagDiff.OP, "move").put (BagDiff.PATH, "a"))),
+                () -> BagDiff.apply (new BagObject (), new BagArray ().add (new BagObject ().put (BagDiff.OP, BagDiff.ADD).put (BagDiff.PATH, "a/b").put (BagDiff.VALUE, "c")))
+        };
+        for (var attempt : attempts) {
+            try {
+                attempt.run ();
+                BagTest.report (false, true, "BagDiff - expected exception");
+            } catch (IllegalArgumentException exception) {
+                BagTest.report (true, true, "BagDiff - expected exception");
+            }
+        }
+    }
+}
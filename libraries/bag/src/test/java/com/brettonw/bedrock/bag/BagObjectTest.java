@@ -7,9 +7,17 @@ import com.brettonw.bedrock.logger.*;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -222,6 +230,23 @@ public class BagObjectTest {
 
     }
 
+    @Test
+    public void testInputStreamBeforeFormatsAreLoaded () throws Exception {
+        // load the bag classes again in a class loader of their own, so no format reader has
+        // registered its mime types yet, as on the first call in a fresh JVM
+        var urls = new URL[] {
+                BagObjectFrom.class.getProtectionDomain ().getCodeSource ().getLocation (),
+                com.brettonw.bedrock.Base.class.getProtectionDomain ().getCodeSource ().getLocation (),
+                LogManager.class.getProtectionDomain ().getCodeSource ().getLocation ()
+        };
+        try (var classLoader = new URLClassLoader (urls, ClassLoader.getPlatformClassLoader ())) {
+            var inputStream = classLoader.loadClass (BagObjectFrom.class.getName ()).getMethod ("inputStream", InputStream.class, String.class);
+            var bytes = "a=1&b=2".getBytes (StandardCharsets.UTF_8);
+            var bagObject = inputStream.invoke (null, new ByteArrayInputStream (bytes), MimeType.URL);
+            BagTest.report (String.valueOf (bagObject), "{\"a\":\"1\",\"b\":\"2\"}", "BagObject - inputStream reads a form before the formats are loaded");
+        }
+    }
+
     @Test
     public void testJohnF() {
             File testFile = new File ("data", "JohnF.json");
@@ -347,6 +372,43 @@ public class BagObjectTest {
         BagTest.report (bagObject.equals (bagObject3), false, "BagObject should not be equal to a different bedrock" );
         BagTest.report (bagObject.equals (null), false, "BagObject should not be equal to null" );
         BagTest.report (bagObject.equals (Integer.valueOf(5)), false, "BagObject should not be equal to a non-bedrock object" );
+
+        // structural equality ignores the storage mode, and the order pairs were added in
+        var sorted = new BagObject ().put ("a", 1).put ("b", true).put ("c/d", 2.5);
+        var hashed = new BagObject ().hashed ().put ("c/d", 2.5).put ("b", true).put ("a", 1);
+        var typed = new BagObject ().typed ().put ("b", true).put ("a", 1).put ("c/d", 2.5);
+        BagTest.report (sorted.equals (hashed), true, "BagObject should be equal to an equivalent hashed bedrock" );
+        BagTest.report (sorted.equals (typed), true, "BagObject should be equal to an equivalent typed bedrock" );
+        BagTest.report (sorted.hashCode (), hashed.hashCode (), "BagObject hash should match an equivalent hashed bedrock" );
+        BagTest.report (sorted.hashCode (), typed.hashCode (), "BagObject hash should match an equivalent typed bedrock" );
+
+        // the cached hash code has to follow changes, including changes made directly to children
+        var map = new HashMap<BagObject, String> ();
+        map.put (sorted, "sorted");
+        BagTest.report (map.get (typed), "sorted", "BagObject should work as a map key" );
+        var hash = typed.hashCode ();
+        typed.getBagObject ("c").put ("d", 3.5);
+        BagTest.report (typed.hashCode () != hash, true, "BagObject hash should change with a child" );
+        BagTest.report (sorted.equals (typed), false, "BagObject should not be equal after a child changes" );
+        typed.getBagObject ("c").put ("d", 2.5);
+        BagTest.report (typed.hashCode (), hash, "BagObject hash should be restored with a child" );
+        typed.remove ("a");
+        BagTest.report (sorted.equals (typed), false, "BagObject should not be equal after a remove" );
+        typed.put ("a", "1");
+        BagTest.report (sorted.equals (typed), true, "BagObject should be equal after a put" );
+        BagTest.report (sorted.hashCode (), typed.hashCode (), "BagObject hash should match after a put" );
+
+        // values swapped between keys change the hash, for child bags too
+        BagTest.report (new BagObject ().put ("a", 1).put ("b", 2).hashCode () != new BagObject ().put ("a", 2).put ("b", 1).hashCode (), true, "BagObject hash should change when values are swapped" );
+        var x = BagObject.open ("x", 1);
+        var y = BagArray.open ("y");
+        BagTest.report (new BagObject ().put ("a", x).put ("b", y).hashCode () != new BagObject ().put ("a", y).put ("b", x).hashCode (), true, "BagObject hash should change when children are swapped" );
+        BagTest.report (new ConcurrentBagObject ().put ("a", 1).put ("b", 2).hashCode (), new BagObject ().put ("a", 1).put ("b", 2).hashCode (), "ConcurrentBagObject hash should match BagObject" );
+
+        // the whole hash code of a frozen bag is cached
+        var frozen = typed.freeze ();
+        BagTest.report (frozen.hashCode (), typed.hashCode (), "BagObject frozen hash should match" );
+        BagTest.report (frozen.hashCode (), frozen.hashCode (), "BagObject frozen hash should be stable" );
     }
 
     @Test
@@ -358,5 +420,329 @@ public class BagObjectTest {
         BagObject mergedBagObject = BagObject.merge (bagObject, bagObject2, bagObject3);
         BagObject expectBagObject = BagObject.open ("x", "X" ).put ("y", "Y" ).put ("z", "Z" );
         BagTest.report (mergedBagObject.equals (expectBagObject), true, "Merged BagObject matches Expected BgObject");
+
+        // the last value for a key wins, and the sources can be hashed, shared, or views
+        var defaults = new BagObject ().put ("a", 1).put ("b", 2).put ("c/d", 3).put ("c/e", 4);
+        var overrides = new BagObject ().put ("b", 5).put ("c/e", 6).put ("f", 7).hashed ();
+        var merged = BagObject.merge (defaults, overrides);
+        BagTest.report (merged.toString (), "{\"a\":\"1\",\"b\":\"5\",\"c\":{\"e\":\"6\"},\"f\":\"7\"}", "BagObject - merge last value wins");
+        BagTest.report (BagObject.merge (defaults.copyOnWrite (), overrides.selectView (new SelectKey (SelectType.EXCLUDE, "c"))).getString ("c/d"), "3", "BagObject - merge copies and views");
+        BagTest.report (BagObject.merge ().getCount (), 0, "BagObject - merge nothing");
+
+        // a deep merge combines the child objects instead
+        var deepMerged = BagObject.deepMerge (defaults, overrides, BagObject.open ("c/g", 8));
+        BagTest.report (deepMerged.toString (), "{\"a\":\"1\",\"b\":\"5\",\"c\":{\"d\":\"3\",\"e\":\"6\",\"g\":\"8\"},\"f\":\"7\"}", "BagObject - deepMerge");
+        BagTest.report (BagObject.deepMerge (defaults, BagObject.open ("c", "flat")).getString ("c"), "flat", "BagObject - deepMerge replaces a child with a value");
+        BagTest.report (defaults.getString ("c/e"), "4", "BagObject - deepMerge leaves the sources alone");
+
+        // wide objects are merged into a hashed object
+        var wide = new BagObject ();
+        var wider = new BagObject ();
+        for (int i = 0; i < 100; ++i) {
+            wide.put ("key-" + i, i);
+            wider.put ("key-" + (i + 50), -i);
+        }
+        var mergedWide = BagObject.merge (wide, wider);
+        BagTest.report (mergedWide.getCount (), 150, "BagObject - merge wide count");
+        BagTest.report (mergedWide.isHashed (), true, "BagObject - merge wide is hashed");
+        BagTest.report (mergedWide.getInteger ("key-60"), -10, "BagObject - merge wide last value wins");
+        BagTest.report (mergedWide.getInteger ("key-10"), 10, "BagObject - merge wide keeps the first");
+    }
+
+    @Test
+    public void testHashed () {
+        // build the same wide object in random order, and in sorted order
+        var random = new Random (12345);
+        var hashed = new BagObject ();
+        var expect = new BagObject ().hashed ();
+        var count = BagObject.HASH_THRESHOLD * 20;
+        for (int i = 0; i < count; ++i) {
+            hashed.put ("key-" + random.nextInt (count), i);
+            expect.put ("key-" + i, i);
+        }
+        BagTest.report (hashed.isHashed (), true, "BagObject - wide object switches to hashed mode");
+        BagTest.report (expect.isHashed (), true, "BagObject - explicitly hashed object");
+
+        // check the keys come back in sorted order
+        var keys = hashed.keys ();
+        var sortedKeys = keys.clone ();
+        Arrays.sort (sortedKeys);
+        assertArrayEquals (sortedKeys, keys, "BagObject - hashed keys are sorted");
+
+        // remove some, and verify has and get
+        for (int i = 0; i < count; i += 3) {
+            hashed.remove ("key-" + i);
+        }
+        for (int i = 0; i < count; ++i) {
+            var key = "key-" + i;
+            if ((i % 3) == 0) {
+                BagTest.report (hashed.has (key), false, "BagObject - hashed remove");
+            } else if (hashed.has (key)) {
+                assertNotNull (hashed.getString (key));
+            }
+        }
+        keys = hashed.keys ();
+        sortedKeys = keys.clone ();
+        Arrays.sort (sortedKeys);
+        assertArrayEquals (sortedKeys, keys, "BagObject - hashed keys are sorted after remove");
+
+        // the JSON output of a hashed object is the same as for a sorted object
+        var small = new BagObject ();
+        for (int i = 0; i < count; ++i) {
+            small.put ("key-" + i, i);
+        }
+        BagTest.report (expect.toString (), small.toString (), "BagObject - hashed JSON matches sorted JSON");
+        BagTest.report (BagObjectFrom.string (expect.toString ()), small, "BagObject - hashed JSON round trip");
+    }
+
+    @Test
+    public void testTyped () {
+        var typed = new BagObject ().typed ()
+                .put ("long", 1234567890123L)
+                .put ("int", 42)
+                .put ("double", 220.5)
+                .put ("bool", true)
+                .put ("string", "hello")
+                .put ("child/value", 7);
+        var untyped = new BagObject ()
+                .put ("long", 1234567890123L)
+                .put ("int", 42)
+                .put ("double", 220.5)
+                .put ("bool", true)
+                .put ("string", "hello")
+                .put ("child/value", 7);
+
+        BagTest.report (typed.isTyped (), true, "BagObject - typed mode");
+        BagTest.report (typed.getObject ("int") instanceof Integer, true, "BagObject - typed values are stored natively");
+        BagTest.report (typed.getBagObject ("child").isTyped (), true, "BagObject - implicit children inherit typed mode");
+        BagTest.report (typed.getObject ("child/value") instanceof Integer, true, "BagObject - typed child values are stored natively");
+        BagTest.report (typed.toString (), untyped.toString (), "BagObject - typed JSON matches string-only JSON");
+
+        BagTest.report (typed.getLong ("long"), 1234567890123L, "BagObject - typed long");
+        BagTest.report (typed.getInteger ("int"), 42, "BagObject - typed int");
+        BagTest.report (typed.getLong ("int"), 42L, "BagObject - typed int as long");
+        BagTest.report (typed.getDouble ("double"), 220.5, "BagObject - typed double");
+        BagTest.report (typed.getFloat ("double"), 220.5f, "BagObject - typed float");
+        BagTest.report (typed.getBoolean ("bool"), true, "BagObject - typed boolean");
+        BagTest.report (typed.getString ("int"), "42", "BagObject - typed value as string");
+        BagTest.report (typed.getLongValue ("long", -1), 1234567890123L, "BagObject - typed primitive long");
+        BagTest.report (typed.getDoubleValue ("double", -1), 220.5, "BagObject - typed primitive double");
+        BagTest.report (untyped.getLongValue ("int", -1), 42L, "BagObject - untyped primitive long");
+        BagTest.report (untyped.getDoubleValue ("xxx", -1), -1.0, "BagObject - primitive not found");
+    }
+
+    @Test
+    public void testCopy () {
+        var bagObject = new BagObject ().typed ()
+                .put ("name", "Bretton")
+                .put ("age", 50)
+                .put ("child/value", 7)
+                .add ("list", BagObject.open ("a", 1))
+                .add ("list", 2);
+
+        // the deep copy is structural, so it keeps the typed values and shares nothing
+        var copy = new BagObject (bagObject);
+        BagTest.report (copy.toString (), bagObject.toString (), "BagObject - deep copy matches");
+        BagTest.report (copy.getObject ("age") instanceof Integer, true, "BagObject - deep copy keeps typed values");
+        copy.put ("child/value", 8);
+        copy.getBagArray ("list").getBagObject (0).put ("a", 3);
+        BagTest.report (bagObject.getInteger ("child/value"), 7, "BagObject - deep copy child is isolated");
+        BagTest.report (bagObject.getInteger ("list/0/a"), 1, "BagObject - deep copy array child is isolated");
+
+        var hashed = new BagObject ().hashed ().put ("b", 2).put ("a", 1);
+        var hashedCopy = new BagObject (hashed);
+        BagTest.report (hashedCopy.isHashed (), true, "BagObject - deep copy keeps hashed mode");
+        hashedCopy.put ("c", 3);
+        BagTest.report (hashed.has ("c"), false, "BagObject - deep copy of hashed is isolated");
+        BagTest.report (hashedCopy.toString (), "{\"a\":\"1\",\"b\":\"2\",\"c\":\"3\"}", "BagObject - hashed copy");
+
+        // copy on write shares until something changes
+        var cow = bagObject.copyOnWrite ();
+        BagTest.report (cow.toString (), bagObject.toString (), "BagObject - copy on write matches");
+        cow.put ("name", "Ben");
+        BagTest.report (bagObject.getString ("name"), "Bretton", "BagObject - copy on write top level is isolated");
+        cow.getBagObject ("child").put ("value", 9);
+        BagTest.report (bagObject.getInteger ("child/value"), 7, "BagObject - copy on write child is isolated");
+        BagTest.report (cow.getInteger ("child/value"), 9, "BagObject - copy on write child is changed");
+        cow.getBagObject (Key.compile ("list", 0)).put ("a", 4);
+        BagTest.report (bagObject.getInteger ("list/0/a"), 1, "BagObject - copy on write deep child is isolated");
+
+        // and the other direction
+        var original = BagObject.open ("x/y", "z");
+        cow = original.copyOnWrite ();
+        original.getBagObject ("x").put ("y", "w");
+        original.remove ("x/q");
+        BagTest.report (cow.getString ("x/y"), "z", "BagObject - original changes don't show in copy on write");
+        BagTest.report (original.getString ("x/y"), "w", "BagObject - original changes");
+    }
+
+    @Test
+    public void testFreeze () {
+        var bagObject = new BagObject ().hashed ()
+                .put ("b", 2)
+                .put ("a", 1)
+                .put ("child/value", 7)
+                .add ("list", 1).add ("list", BagObject.open ("x", "y"));
+        var frozen = bagObject.freeze ();
+        BagTest.report (frozen.isFrozen (), true, "BagObject - frozen");
+        BagTest.report (bagObject.isFrozen (), false, "BagObject - source is not frozen");
+        BagTest.report (frozen.freeze () == frozen, true, "BagObject - freezing a frozen object returns it");
+        BagTest.report (frozen.equals (bagObject), true, "BagObject - frozen equals source");
+        BagTest.report (frozen.hashCode (), bagObject.hashCode (), "BagObject - frozen hash matches source");
+        BagTest.report (frozen.toString (), bagObject.toString (), "BagObject - frozen text matches source");
+        BagTest.report (frozen.toString () == frozen.toString (), true, "BagObject - frozen text is cached");
+        BagTest.report (frozen.getBagObject ("child").isFrozen (), true, "BagObject - frozen children");
+        BagTest.report (frozen.getBagObject ("list/1").isFrozen (), true, "BagObject - frozen array children");
+
+        // changes to the source don't show in the frozen copy
+        bagObject.put ("child/value", 8);
+        BagTest.report (frozen.getInteger ("child/value"), 7, "BagObject - frozen is a snapshot");
+
+        // any attempt to modify the frozen object fails
+        var attempts = new Runnable[] {
+                () -> frozen.put ("c", 3),
+                () -> frozen.put ("a", 3),
+                () -> frozen.add ("list", 3),
+                () -> frozen.remove ("a"),
+                () -> frozen.put ("child/value", 3),
+                () -> frozen.put (Key.compile ("child", "value"), 3),
+                () -> frozen.getBagArray ("list").add (3),
+                () -> frozen.getBagObject ("list/1").put ("x", "z"),
+                () -> frozen.typed ()
+        };
+        for (var attempt : attempts) {
+            try {
+                attempt.run ();
+                BagTest.report (false, true, "BagObject - frozen modification should fail");
+            } catch (UnsupportedOperationException exception) {
+                BagTest.report (true, true, "BagObject - frozen modification should fail");
+            }
+        }
+        BagTest.report (frozen.getInteger ("a"), 1, "BagObject - frozen is unchanged");
+
+        // a copy of a frozen object is mutable, and doesn't change the frozen one
+        var copy = frozen.copyOnWrite ();
+        copy.put ("child/value", 9);
+        BagTest.report (copy.isFrozen (), false, "BagObject - copy of frozen is not frozen");
+        BagTest.report (frozen.getInteger ("child/value"), 7, "BagObject - frozen is unchanged by copy");
+        BagTest.report (new BagObject (frozen).put ("a", 5).getInteger ("a"), 5, "BagObject - deep copy of frozen is mutable");
+
+        // an empty frozen object still has room for a copy of it to grow
+        BagTest.report (new BagObject ().freeze ().copyOnWrite ().put ("a", "b").put ("c", "d"), new BagObject ().put ("a", "b").put ("c", "d"), "BagObject - copy of empty frozen is mutable");
+        BagTest.report (new BagObject ().hashed ().freeze ().copyOnWrite ().put ("a", "b").put ("c", "d").getCount (), 2, "BagObject - copy of empty hashed frozen is mutable");
+    }
+
+    @Test
+    public void testBuilder () {
+        // unordered keys with duplicates, the last value wins
+        var built = new BagObject.Builder ()
+                .put ("c", 3)
+                .put ("a", 1)
+                .put ("b", 2)
+                .put ("a", 4)
+                .put ("d", null)
+                .put ("c", 5)
+                .build ();
+        var expect = new BagObject ().put ("c", 3).put ("a", 1).put ("b", 2).put ("a", 4).put ("d", null).put ("c", 5);
+        BagTest.report (built.getCount (), 3, "BagObject.Builder - duplicates removed");
+        BagTest.report (built, expect, "BagObject.Builder - last value wins");
+        BagTest.report (built.toString (), expect.toString (), "BagObject.Builder - sorted");
+        BagTest.report (built.put ("aa", 6).getInteger ("aa"), 6, "BagObject.Builder - built object is usable");
+
+        // a path switches to put, and keeps the same semantics
+        built = new BagObject.Builder ().put ("b", 1).put ("x/y", 2).put ("a", 3).put ("x/z", 4).build ();
+        expect = new BagObject ().put ("b", 1).put ("x/y", 2).put ("a", 3).put ("x/z", 4);
+        BagTest.report (built, expect, "BagObject.Builder - paths");
+
+        // wide objects are hashed, and typed values are kept
+        var builder = new BagObject.Builder ().typed ();
+        for (int i = BagObject.HASH_THRESHOLD * 2; i > 0; --i) {
+            builder.put ("key-" + i, i);
+        }
+        built = builder.build ();
+        BagTest.report (built.isHashed (), true, "BagObject.Builder - wide objects are hashed");
+        BagTest.report (built.getObject ("key-7") instanceof Integer, true, "BagObject.Builder - typed");
+        BagTest.report (new BagObject.Builder ().build ().getCount (), 0, "BagObject.Builder - empty");
+        try {
+            builder.build ();
+            BagTest.report (false, true, "BagObject.Builder - build twice should fail");
+        } catch (IllegalStateException exception) {
+            BagTest.report (true, true, "BagObject.Builder - build twice should fail");
+        }
+
+        // the JSON reader uses the builder, duplicate keys keep the last value
+        BagTest.report (BagObjectFrom.string ("{\"b\":1,\"a\":2,\"b\":3}").getString ("b"), "3", "BagObject.Builder - JSON duplicate keys");
+    }
+
+    @Test
+    public void testViews () {
+        var bagObject = new BagObject ()
+                .put ("a", 1)
+                .put ("b", 2)
+                .put ("c/d", 3)
+                .put ("e", 4);
+
+        // a key-mapping view, as in select
+        var selectKey = new SelectKey (SelectType.INCLUDE, new String[] { "a", "c", "e" }, new String[] { "x", "c", "a" });
+        var view = bagObject.selectView (selectKey);
+        BagTest.report (view.toString (), bagObject.select (selectKey).toString (), "BagObject - selectView matches select");
+        BagTest.report (view.getCount (), 3, "BagObject - selectView count");
+        BagTest.report (view.getInteger ("x"), 1, "BagObject - selectView mapped key");
+        BagTest.report (view.getInteger ("c/d"), 3, "BagObject - selectView path");
+        BagTest.report (view.getInteger (Key.compile ("c", "d")), 3, "BagObject - selectView precompiled path");
+        BagTest.report (view.has ("b"), false, "BagObject - selectView excludes");
+        BagTest.report (view.materialize (), bagObject.select (selectKey), "BagObject - selectView materialize");
+        BagTest.report (bagObject.selectView (new SelectKey (SelectType.EXCLUDE, "a")).keys ().length, 3, "BagObject - selectView exclude");
+
+        // keys renamed to paths are nested, as they are in select
+        var nestingKey = new SelectKey (SelectType.INCLUDE, new String[] { "a", "b", "e" }, new String[] { "n/x", "n/y", "f" });
+        var nested = bagObject.selectView (nestingKey);
+        BagTest.report (nested.materialize (), bagObject.select (nestingKey), "BagObject - selectView nests paths");
+        BagTest.report (nested.getInteger ("n/y"), 2, "BagObject - selectView nested path");
+        BagTest.report (nested.keys ().length, 2, "BagObject - selectView nested keys");
+
+        // views see changes to the source, and can't be changed themselves
+        bagObject.put ("a", 5);
+        BagTest.report (view.getInteger ("x"), 5, "BagObject - selectView sees changes");
+        bagObject.remove ("e");
+        BagTest.report (view.has ("a"), false, "BagObject - selectView sees removal");
+        try {
+            view.put ("y", 1);
+            BagTest.report (false, true, "BagObject - view modification should fail");
+        } catch (UnsupportedOperationException exception) {
+            BagTest.report (true, true, "BagObject - view modification should fail");
+        }
+
+        // views can be stored, copied and frozen like any other BagObject
+        BagTest.report (new BagObject (view), view.materialize (), "BagObject - copy of a view");
+        BagTest.report (view.freeze (), view.materialize (), "BagObject - freeze a view");
+        BagTest.report (BagObject.open ("view", view).getInteger ("view/x"), 5, "BagObject - view as a child");
+    }
+
+    @Test
+    public void testForEach () {
+        var bagObject = new BagObject ().hashed ()
+                .put ("c", 3)
+                .put ("a", 1)
+                .put ("b/x", 2);
+        var walked = new StringBuilder ();
+        bagObject.forEach ((key, value) -> walked.append (key).append ("=").append (value).append (";"));
+        BagTest.report (walked.toString (), "a=1;b={\"x\":\"2\"};c=3;", "BagObject - forEach in key order");
+
+        // a copy hands out private child bags, just as getObject does
+        var copy = bagObject.copyOnWrite ();
+        copy.forEach ((key, value) -> {
+            if (value instanceof BagObject) {
+                ((BagObject) value).put ("x", 5);
+            }
+        });
+        BagTest.report (bagObject.getInteger ("b/x"), 2, "BagObject - forEach on a copy leaves the original alone");
+        BagTest.report (copy.getInteger ("b/x"), 5, "BagObject - forEach on a copy");
+
+        // views and concurrent objects walk their own pairs
+        var keys = new StringBuilder ();
+        bagObject.selectView (new SelectKey (SelectType.EXCLUDE, "b")).forEach ((key, value) -> keys.append (key));
+        new ConcurrentBagObject (bagObject).forEach ((key, value) -> keys.append (key));
+        BagTest.report (keys.toString (), "acabc", "BagObject - forEach on views and concurrent objects");
     }
 }
@@ -0,0 +1,88 @@
+package com.brettonw.bedrock.bag;
+
+import com.brettonw.bedrock.bag.expr.Exprs;
+import com.brettonw.bedrock.bag.formats.MimeType;
+import org.junit.jupiter.api.Test;
+
+public class ColumnarBagArrayTest {
+    private static BagArray makeRows (int count) {
+        var bagArray = new BagArray ();
+        for (int i = 0; i < count; ++i) {
+            var row = new BagObject ()
+                    .put ("id", i)
+                    .put ("even", (i % 2) == 0)
+                    .put ("ratio", (i % 7) + 0.5)
+                    .put ("color", ((i % 3) == 0) ? "red" : "blue")
+                    .put ("name", "row " + i + " é");
+            if ((i % 5) != 0) {
+                row.put ("note", "n" + i);
+            }
+            bagArray.add (row);
+        }
+        return bagArray;
+    }
+
+    @Test
+    public void testRows () {
+        var bagArray = makeRows (100);
+        var columnar = new ColumnarBagArray (bagArray);
+        BagTest.report (columnar.getCount (), 100, "ColumnarBagArray - count");
+        BagTest.report (columnar.materialize (), bagArray, "ColumnarBagArray - materialize");
+        BagTest.report (columnar.toString (MimeType.JSON), bagArray.toString (MimeType.JSON), "ColumnarBagArray - JSON output");
+        BagTest.report (columnar.getOffHeapSize () > 0, true, "ColumnarBagArray - column data is off heap");
+
+        var row = columnar.getBagObject (10);
+        BagTest.report (row.getInteger ("id"), 10, "ColumnarBagArray - integer value");
+        BagTest.report (row.getBoolean ("even"), true, "ColumnarBagArray - boolean value");
+        BagTest.report (row.getDouble ("ratio"), 3.5, "ColumnarBagArray - double value");
+        BagTest.report (row.getString ("color"), "blue", "ColumnarBagArray - dictionary value");
+        BagTest.report (row.getString ("name"), "row 10 é", "ColumnarBagArray - string value");
+        BagTest.report (row.has ("note"), false, "ColumnarBagArray - missing value");
+        BagTest.report (row.getCount (), 5, "ColumnarBagArray - missing values are not keys");
+        BagTest.report (columnar.getBagObject (11).getString ("note"), "n11", "ColumnarBagArray - present value");
+        BagTest.report (columnar.getString ("12/color"), "red", "ColumnarBagArray - path");
+        BagTest.report (columnar.getBagObject (100), null, "ColumnarBagArray - out of range");
+
+        // typed arrays keep their native values
+        var typed = new ColumnarBagArray (new BagArray ().typed ().add (new BagObject ().typed ().put ("id", 3L)));
+        BagTest.report (typed.getBagObject (0).getObject ("id"), 3L, "ColumnarBagArray - typed value");
+
+        // rows are read-only, and only flat objects can be stored
+        Runnable[] attempts = {
+                () -> row.put ("id", 1),
+                () -> columnar.add (new BagObject ()),
+                () -> new ColumnarBagArray (new BagArray ().add ("x")),
+                () -> new ColumnarBagArray (new BagArray ().add (new BagObject ().put ("a/b", 1)))
+        };
+        for (var attempt : attempts) {
+            try {
+                attempt.run ();
+                BagTest.report (false, true, "ColumnarBagArray - expected exception");
+            } catch (UnsupportedOperationException | IllegalArgumentException exception) {
+                BagTest.report (true, true, "ColumnarBagArray - expected exception");
+            }
+        }
+    }
+
+    @Test
+    public void testQueryAndSort () {
+        var bagArray = makeRows (50);
+        var columnar = new ColumnarBagArray (bagArray);
+        var match = Exprs.equality ("color", "red");
+        var selectKey = new SelectKey (SelectType.INCLUDE, "id", "name");
+        BagTest.report (columnar.query (match, selectKey), bagArray.query (match, selectKey), "ColumnarBagArray - query");
+
+        var sortKeys = new SortKey[] { new SortKey ("ratio", SortType.NUMERIC, SortOrder.DESCENDING), new SortKey ("id", SortType.NUMERIC, SortOrder.ASCENDING) };
+        columnar.sort (sortKeys);
+        bagArray.sort (sortKeys);
+        BagTest.report (columnar.materialize (), bagArray, "ColumnarBagArray - sort");
+        BagTest.report (columnar.getBagObject (0).getInteger ("id"), 6, "ColumnarBagArray - first after sort");
+    }
+
+    @Test
+    public void testHeap () {
+        var bagArray = makeRows (1000);
+        var columnar = new ColumnarBagArray (bagArray);
+        BagTest.report (columnar.estimateRetainedSize () * 10 < bagArray.estimateRetainedSize (), true, "ColumnarBagArray - much smaller heap");
+    }
+}
@@ -0,0 +1,84 @@
+package com.brettonw.bedrock.bag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+public class ConcurrentBagObjectTest {
+    @Test
+    public void testBasics () {
+        var bagObject = new ConcurrentBagObject ()
+                .put ("b", 2)
+                .put ("a", 1)
+                .put ("child/value", 7)
+                .add ("list", 1).add ("list", 2);
+        var expect = new BagObject ()
+                .put ("b", 2)
+                .put ("a", 1)
+                .put ("child/value", 7)
+                .add ("list", 1).add ("list", 2);
+        BagTest.report (bagObject.toString (), expect.toString (), "ConcurrentBagObject - JSON matches BagObject");
+        BagTest.report (bagObject.getCount (), 4, "ConcurrentBagObject - count");
+        BagTest.report (bagObject.getInteger ("child/value"), 7, "ConcurrentBagObject - path get");
+        BagTest.report (bagObject.getInteger (Key.compile ("child", "value")), 7, "ConcurrentBagObject - precompiled path get");
+        BagTest.report (bagObject.getObject ("child") instanceof ConcurrentBagObject, true, "ConcurrentBagObject - implicit children are concurrent");
+        BagTest.report (bagObject.has ("child/value"), true, "ConcurrentBagObject - has path");
+        BagTest.report (bagObject.has (Key.compile ("child", "value")), true, "ConcurrentBagObject - has precompiled path");
+        BagTest.report (bagObject.getBagArray ("list").getCount (), 2, "ConcurrentBagObject - add");
+
+        // copies and embedding in other bags
+        BagTest.report (new BagObject (bagObject), expect, "ConcurrentBagObject - deep copy is a BagObject");
+        BagTest.report (bagObject.freeze (), expect, "ConcurrentBagObject - freeze is a BagObject");
+        BagTest.report (new ConcurrentBagObject (expect).toString (), expect.toString (), "ConcurrentBagObject - copy of a BagObject");
+        BagTest.report (BagObject.open ("x", bagObject).toString (), BagObject.open ("x", expect).toString (), "ConcurrentBagObject - as a child");
+        BagTest.report (bagObject.equals (new ConcurrentBagObject (expect)), true, "ConcurrentBagObject - equals");
+
+        bagObject.remove ("child/value").remove (Key.compile ("a"));
+        BagTest.report (bagObject.has ("child/value"), false, "ConcurrentBagObject - remove path");
+        BagTest.report (bagObject.has ("a"), false, "ConcurrentBagObject - remove precompiled path");
+
+        // atomic operations
+        BagTest.report (bagObject.computeIfAbsent ("registry/x", key -> key + "-value"), "x-value", "ConcurrentBagObject - computeIfAbsent");
+        BagTest.report (bagObject.computeIfAbsent ("registry/x", key -> "other"), "x-value", "ConcurrentBagObject - computeIfAbsent existing");
+        BagTest.report (bagObject.compute ("registry/x", (key, value) -> null), null, "ConcurrentBagObject - compute remove");
+        BagTest.report (bagObject.has ("registry/x"), false, "ConcurrentBagObject - compute removed");
+
+        // adding to an array keeps the child bags already in it, rather than copying them
+        var child = new BagObject ().put ("x", 1);
+        var concurrentChild = new ConcurrentBagObject ().put ("y", 1);
+        bagObject.add ("log", child).add ("log", concurrentChild);
+        var before = bagObject.getBagArray ("log");
+        bagObject.add ("log", "z");
+        child.put ("x", 2);
+        BagTest.report (bagObject.getInteger ("log/0/x"), 2, "ConcurrentBagObject - add keeps child bags");
+        BagTest.report (bagObject.getBagArray ("log").getObject (1) == concurrentChild, true, "ConcurrentBagObject - add keeps concurrent children");
+        BagTest.report (before.getCount (), 2, "ConcurrentBagObject - add doesn't change the array readers have");
+    }
+
+    @Test
+    public void testConcurrentUpdates () throws InterruptedException {
+        var bagObject = new ConcurrentBagObject ();
+        bagObject.typed ();
+        var threadCount = 8;
+        var iterations = 1000;
+        var threads = new ArrayList<Thread> ();
+        for (int t = 0; t < threadCount; ++t) {
+            var id = t;
+            var thread = new Thread (() -> {
+                for (int i = 0; i < iterations; ++i) {
+                    bagObject.merge ("counters/hits", 1L, (a, b) -> ((Long) a) + ((Long) b));
+                    bagObject.merge (Key.cat ("counters", "page-" + (i % 10)), 1L, (a, b) -> ((Long) a) + ((Long) b));
+                    bagObject.add ("log", id);
+                }
+            });
+            threads.add (thread);
+            thread.start ();
+        }
+        for (var thread : threads) {
+            thread.join ();
+        }
+        BagTest.report (bagObject.getLong ("counters/hits"), (long) (threadCount * iterations), "ConcurrentBagObject - merged counter");
+        BagTest.report (bagObject.getLong ("counters/page-3"), (long) (threadCount * iterations / 10), "ConcurrentBagObject - merged path counter");
+        BagTest.report (bagObject.getBagArray ("log").getCount (), threadCount * iterations, "ConcurrentBagObject - concurrent add");
+    }
+}
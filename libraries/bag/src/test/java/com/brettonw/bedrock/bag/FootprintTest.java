@@ -0,0 +1,71 @@
+package com.brettonw.bedrock.bag;
+
+import org.junit.jupiter.api.Test;
+
+public class FootprintTest {
+    @Test
+    public void testSlack () {
+        var bagArray = new BagArray (10);
+        var footprint = Footprint.measure (bagArray);
+        BagTest.report (footprint.getSlackBytes (), 40L, "Footprint - empty array is all slack");
+        BagTest.report (footprint.getBagCount (), 1, "Footprint - one bag");
+
+        bagArray.add ("a").add ("b").add ("c");
+        footprint = Footprint.measure (bagArray);
+        BagTest.report (footprint.getSlackBytes (), 28L, "Footprint - slack shrinks as the array fills");
+        BagTest.report (bagArray.trimToSize ().estimateRetainedSize () < footprint.getTotal (), true, "Footprint - trimToSize releases the slack");
+        BagTest.report (Footprint.measure (bagArray).getSlackBytes (), 0L, "Footprint - trimmed array has no slack");
+    }
+
+    @Test
+    public void testTree () {
+        var bagObject = new BagObject ()
+                .put ("name", "test")
+                .put ("child/value", "x")
+                .put ("list", new BagArray ().add ("one").add ("two"));
+        var footprint = Footprint.measure (bagObject);
+        BagTest.report (footprint.getBagCount (), 3, "Footprint - bags in the tree");
+        BagTest.report (footprint.getPairCount (), 4, "Footprint - pairs in the tree");
+        BagTest.report (footprint.getTotal (), footprint.getBagBytes () + footprint.getIndexBytes () + footprint.getPairBytes () +
+                footprint.getContainerBytes () + footprint.getSlackBytes () + footprint.getKeyBytes () + footprint.getValueBytes (),
+                "Footprint - total is the sum of the parts");
+        BagTest.report (bagObject.estimateRetainedSize (), footprint.getTotal (), "Footprint - estimateRetainedSize");
+        BagTest.report (footprint.toBagObject ().getLong ("total"), footprint.getTotal (), "Footprint - as a BagObject");
+
+        // shared storage and children are counted once
+        var twice = new BagArray ().add (bagObject).add (bagObject);
+        BagTest.report (Footprint.measure (twice).getBagCount (), 4, "Footprint - a child stored twice is counted once");
+        var copy = bagObject.copyOnWrite ();
+        var pair = new BagArray ().add (bagObject).add (copy);
+        BagTest.report (Footprint.measure (pair).getPairCount (), 4, "Footprint - copy-on-write storage is counted once");
+
+        // wide objects pay for a hash index
+        var wide = new BagObject ();
+        for (int i = 0; i < 100; ++i) {
+            wide.put ("key-" + i, i);
+        }
+        BagTest.report (Footprint.measure (wide).getIndexBytes () > 0, true, "Footprint - hash index");
+        BagTest.report (Footprint.measure (new ConcurrentBagObject (wide)).getPairCount (), 100, "Footprint - concurrent pairs");
+    }
+
+    @Test
+    public void testDuplicates () {
+        var rows = new BagArray ();
+        for (int i = 0; i < 10; ++i) {
+            // separate instances of the same strings, as a parser would make
+            rows.add (new BagObject ().put (new String ("name"), new String ("same")).put ("id", i));
+        }
+        var footprint = Footprint.measure (rows, true);
+        BagTest.report (footprint.getDuplicateStringCount (), 18, "Footprint - duplicate keys and values");
+        BagTest.report (footprint.getDuplicateStringBytes () > 0, true, "Footprint - duplicate bytes");
+        BagTest.report (Footprint.measure (rows).getDuplicateStringCount (), 0, "Footprint - duplicates only when requested");
+
+        var interned = new BagArray ();
+        for (int i = 0; i < 10; ++i) {
+            interned.add (new BagObject ().put ("name", "same").put ("id", i));
+        }
+        var internedFootprint = Footprint.measure (interned, true);
+        BagTest.report (internedFootprint.getDuplicateStringCount (), 0, "Footprint - interned strings are not duplicates");
+        BagTest.report (internedFootprint.getTotal () < footprint.getTotal (), true, "Footprint - interned strings are smaller");
+    }
+}
@@ -25,4 +25,32 @@ public class KeyTest {
         BagTest.report (bagObject.has (Key.cat (com, brettonw, bag, name)), true, "Key - test that a correct path returns true");
     }
 
+    @Test
+    public void testKeyPath() {
+        var path = Key.compile ("com/brettonw/bedrock/name");
+        BagTest.report (path.getLength (), 4, "KeyPath - length");
+        BagTest.report (path.toString (), "com/brettonw/bedrock/name", "KeyPath - toString");
+        BagTest.report (path, Key.compile ("com", "brettonw", "bedrock/name"), "KeyPath - compile from components");
+
+        BagObject bagObject = new BagObject ().put (path, "test");
+        BagTest.report (bagObject.getString ("com/brettonw/bedrock/name"), "test", "KeyPath - put is visible to string path");
+        BagTest.report (bagObject.getString (path), "test", "KeyPath - get");
+        BagTest.report (bagObject.has (path), true, "KeyPath - has");
+        BagTest.report (bagObject.has (Key.compile ("com/brettonw/test")), false, "KeyPath - has incorrect path");
+        BagTest.report (bagObject.has (Key.compile ("com/brettonw/bedrock/name/xxx")), false, "KeyPath - has longer incorrect path");
+        BagTest.report (bagObject.getObject (Key.compile ("com/brettonw/bedrock/name/xxx")), null, "KeyPath - get through a string value");
+
+        var arrayPath = Key.compile ("com/array");
+        bagObject.add (arrayPath, 1).add (arrayPath, 2).add (arrayPath, 3);
+        BagTest.report (bagObject.getBagArray (arrayPath).getCount (), 3, "KeyPath - add");
+        BagTest.report (bagObject.getInteger (Key.compile ("com/array/#last")), 3, "KeyPath - array index #last");
+        BagTest.report (bagObject.getInteger (Key.compile ("com/array/#first")), 1, "KeyPath - array index #first");
+        BagTest.report (bagObject.getLongValue (Key.compile ("com/array/1"), -1), 2L, "KeyPath - array index");
+        BagTest.report (bagObject.getObject (Key.compile ("com/array/5")), null, "KeyPath - array index out of range");
+        BagTest.report (bagObject.getObject (Key.compile ("com/array/x")), null, "KeyPath - array index not a number");
+
+        bagObject.remove (path);
+        BagTest.report (bagObject.has (path), false, "KeyPath - remove");
+        BagTest.report (bagObject.has ("com/brettonw/bedrock"), true, "KeyPath - remove leaves parent");
+    }
 }
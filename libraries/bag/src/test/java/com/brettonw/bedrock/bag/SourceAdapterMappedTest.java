@@ -0,0 +1,78 @@
+package com.brettonw.bedrock.bag;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class SourceAdapterMappedTest {
+    @Test
+    public void testMappedArray () throws IOException {
+        var bagArray = BagArrayFrom.file (new File ("data", "UCS_Satellite_Database_2-1-14.json"));
+        var file = File.createTempFile ("satellites", ".bagx");
+        file.deleteOnExit ();
+        SourceAdapterMapped.write (bagArray, file);
+
+        var mapped = BagArrayFrom.sourceAdapter (new SourceAdapterMapped (file));
+        BagTest.report (mapped.getCount (), bagArray.getCount (), "SourceAdapterMapped - count");
+        BagTest.report (mapped.getBagObject (53).materialize (), bagArray.getBagObject (53), "SourceAdapterMapped - element");
+        BagTest.report (mapped.getString ("53/Country of Operator/Owner"), bagArray.getString ("53/Country of Operator/Owner"), "SourceAdapterMapped - path");
+        BagTest.report (mapped.materialize (), bagArray, "SourceAdapterMapped - materialize");
+        BagTest.report (mapped.toString (), bagArray.toString (), "SourceAdapterMapped - JSON output");
+
+        // small segments, so that values cross the boundaries between them
+        var segmented = new SourceAdapterMapped (file, 12).getBagArray ();
+        BagTest.report (segmented.materialize (), bagArray, "SourceAdapterMapped - segments");
+
+        Runnable[] attempts = {
+                () -> mapped.add ("x"),
+                () -> mapped.getBagObject (0).put ("x", "y")
+        };
+        for (var attempt : attempts) {
+            try {
+                attempt.run ();
+                BagTest.report (false, true, "SourceAdapterMapped - expected exception");
+            } catch (UnsupportedOperationException exception) {
+                BagTest.report (true, true, "SourceAdapterMapped - expected exception");
+            }
+        }
+    }
+
+    @Test
+    public void testMappedObject () throws IOException {
+        var bagObject = BagObject.open ("a", 1).typed ()
+                .put ("b/c", "nested")
+                .put ("d", 2.5)
+                .put ("e", new BagArray ().typed ().add (true).add (null).add (-3L));
+        var file = File.createTempFile ("object", ".bagx");
+        file.deleteOnExit ();
+        SourceAdapterMapped.write (bagObject, file);
+
+        var sourceAdapter = new SourceAdapterMapped (file);
+        BagTest.report (sourceAdapter.getBagArray (), null, "SourceAdapterMapped - not an array");
+        var mapped = BagObjectFrom.sourceAdapter (sourceAdapter);
+        BagTest.report (mapped.isTyped (), true, "SourceAdapterMapped - typed");
+        BagTest.report (mapped.getString ("b/c"), "nested", "SourceAdapterMapped - child object");
+        BagTest.report (mapped.getObject ("d"), 2.5, "SourceAdapterMapped - double");
+        BagTest.report (mapped.getObject ("e/2"), -3L, "SourceAdapterMapped - long");
+        BagTest.report (mapped.getObject ("e/1"), null, "SourceAdapterMapped - null");
+        BagTest.report (mapped.has ("z"), false, "SourceAdapterMapped - missing key");
+        BagTest.report (mapped.materialize (), bagObject, "SourceAdapterMapped - materialize");
+    }
+
+    @Test
+    public void testBadFile () throws IOException {
+        var file = File.createTempFile ("bad", ".bagx");
+        file.deleteOnExit ();
+        try (var writer = new FileWriter (file)) {
+            writer.write ("{ \"not\": \"indexed\" }");
+        }
+        try {
+            new SourceAdapterMapped (file);
+            BagTest.report (false, true, "SourceAdapterMapped - bad file");
+        } catch (IOException exception) {
+            BagTest.report (true, true, "SourceAdapterMapped - bad file");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class FormatBinaryTest {
+    @Test
+    public void testRoundTrip () {
+        var bagObject = new BagObject ()
+                .put ("name", "binary é")
+                .put ("child/value", "x")
+                .put ("list", new BagArray ().add ("one").add (null).add (new BagObject ().put ("name", "nested")));
+        var bytes = FormatWriterBinary.toBytes (bagObject);
+        BagTest.report (BagObjectFrom.bytes (bytes), bagObject, "FormatBinary - object round trip");
+        BagTest.report (BagObjectFrom.byteBuffer (FormatWriterBinary.toByteBuffer (bagObject)), bagObject, "FormatBinary - ByteBuffer round trip");
+        BagTest.report (bytes.length < bagObject.toString ().length (), true, "FormatBinary - smaller than JSON");
+
+        // the text form goes through the registered reader and writer
+        var text = bagObject.toString (MimeType.BINARY);
+        BagTest.report (BagObjectFrom.string (text, MimeType.BINARY), bagObject, "FormatBinary - registered round trip");
+
+        // typed values keep their types
+        var typed = BagObject.open ("a", 1).typed ()
+                .put ("long", -5L)
+                .put ("double", 2.5)
+                .put ("float", 1.1f)
+                .put ("flag", true)
+                .put ("array", new BagArray ().typed ().add (7L).add ("seven"));
+        var read = BagObjectFrom.bytes (FormatWriterBinary.toBytes (typed));
+        BagTest.report (read.isTyped (), true, "FormatBinary - typed object");
+        BagTest.report (read.getObject ("long"), -5L, "FormatBinary - long");
+        BagTest.report (read.getObject ("double"), 2.5, "FormatBinary - double");
+        BagTest.report (read.getObject ("float"), 1.1f, "FormatBinary - float");
+        BagTest.report (read.getObject ("flag"), true, "FormatBinary - boolean");
+        BagTest.report (read.getObject ("array/0"), 7L, "FormatBinary - typed array");
+        BagTest.report (read, typed, "FormatBinary - typed round trip");
+
+        var bagArray = new BagArray ().add ("a").add (new BagArray ());
+        BagTest.report (BagArrayFrom.bytes (FormatWriterBinary.toBytes (bagArray)), bagArray, "FormatBinary - array round trip");
+        BagTest.report (BagObjectFrom.bytes (FormatWriterBinary.toBytes (bagArray)), null, "FormatBinary - array is not an object");
+    }
+
+    @Test
+    public void testKeyDictionary () throws Exception {
+        var bagArray = BagArrayFrom.file (new File ("data", "UCS_Satellite_Database_2-1-14.json"));
+        var bytes = FormatWriterBinary.toBytes (bagArray);
+        BagTest.report (BagArrayFrom.bytes (bytes), bagArray, "FormatBinary - large round trip");
+        BagTest.report (bytes.length * 3 < bagArray.toString ().length () * 2, true, "FormatBinary - keys are written once");
+    }
+
+    @Test
+    public void testBadInput () {
+        var bytes = FormatWriterBinary.toBytes (new BagObject ().put ("a", "b"));
+        BagTest.report (BagObjectFrom.bytes (Arrays.copyOf (bytes, bytes.length - 1)), null, "FormatBinary - truncated input");
+        BagTest.report (BagObjectFrom.bytes (new byte[] { 'x', 'y', 1, 0 }), null, "FormatBinary - bad magic");
+        BagTest.report (BagObjectFrom.bytes (new byte[] { 'B', 'G', 1, 0x7F }), null, "FormatBinary - bad count");
+        BagTest.report (BagObjectFrom.string ("not base64!", MimeType.BINARY), null, "FormatBinary - bad text");
+    }
+}
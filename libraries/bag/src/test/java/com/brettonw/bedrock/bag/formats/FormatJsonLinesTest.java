@@ -0,0 +1,69 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagArrayFrom;
+import com.brettonw.bedrock.bag.BagObject;
+import com.brettonw.bedrock.bag.BagTest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+public class FormatJsonLinesTest {
+    @Test
+    public void testRoundTrip () throws Exception {
+        var satellites = BagArrayFrom.file (new File ("data", "UCS_Satellite_Database_2-1-14.json"));
+        var text = FormatWriter.write (satellites, MimeType.JSON_LINES);
+        BagTest.report (text.split ("\n").length, satellites.getCount (), "JSON Lines - one record per line");
+        BagTest.report (text.startsWith ("{"), true, "JSON Lines - no enclosing array");
+        BagTest.report (new FormatReaderJsonLines (text).readBagArray (), satellites, "JSON Lines - round trip");
+        BagTest.report (BagArrayFrom.string (text, MimeType.JSON_LINES), satellites, "JSON Lines - registered reader");
+        BagTest.report (BagArrayFrom.inputStream (new ByteArrayInputStream (text.getBytes (StandardCharsets.UTF_8)), "application/jsonl"), satellites, "JSON Lines - streamed from an InputStream");
+        BagTest.report (MimeType.getFromExtension ("ndjson"), MimeType.JSON_LINES, "JSON Lines - extension");
+
+        // elements that aren't objects are read back as they were written
+        var mixed = new BagArray ()
+                .add (new BagObject ().put ("a", "b"))
+                .add ("scalar")
+                .add (null)
+                .add (new BagArray ().add ("x").add (new BagObject ().put ("y", "z")));
+        var mixedText = FormatWriter.write (mixed, MimeType.JSON_LINES);
+        BagTest.report (mixedText.split ("\n").length, 4, "JSON Lines - one line per element");
+        BagTest.report (BagArrayFrom.string (mixedText, MimeType.JSON_LINES), mixed, "JSON Lines - round trip with scalars");
+    }
+
+    @Test
+    public void testStreaming () throws Exception {
+        // records are read as they are needed, and written one at a time, with blank lines skipped
+        var input = "{\"n\":\"1\",\"keep\":\"true\"}\n\r\n{\"n\":\"2\"}\n  \n{\"n\":\"3\",\"keep\":\"true\"}\n";
+        var writer = new FormatWriterJsonLines ();
+        var output = new StringWriter ();
+        new FormatReaderJsonLines (new ByteArrayInputStream (input.getBytes (StandardCharsets.UTF_8))).stream ()
+                .filter (record -> record.has ("keep"))
+                .forEach (record -> {
+                    try {
+                        writer.write (record, output);
+                    } catch (Exception exception) {
+                        BagTest.report (false, true, "JSON Lines - write");
+                    }
+                });
+        BagTest.report (output.toString (), "{\"keep\":\"true\",\"n\":\"1\"}\n{\"keep\":\"true\",\"n\":\"3\"}\n", "JSON Lines - stream through");
+
+        var count = 0;
+        for (var record : new FormatReaderJsonLines (input)) {
+            BagTest.report (record.getString ("n"), Integer.toString (++count), "JSON Lines - iterator");
+        }
+        BagTest.report (count, 3, "JSON Lines - iterator count");
+
+        BagTest.report (new FormatReaderJsonLines ("").readBagArray (), new BagArray (), "JSON Lines - empty input");
+        BagTest.report (FormatWriter.write (new BagObject ().put ("a", "b"), MimeType.JSON_LINES), "{\"a\":\"b\"}\n", "JSON Lines - single record");
+
+        // a bad record ends the records, and makes the whole read fail
+        var bad = new FormatReaderJsonLines ("{\"a\":\"b\"}\n[\"c\"]\n{\"d\":\"e\"}\n");
+        BagTest.report (bad.stream ().count (), 1L, "JSON Lines - bad record stops");
+        BagTest.report (bad.hasError (), true, "JSON Lines - bad record error");
+        BagTest.report (new FormatReaderJsonLines ("{\"a\":\"b\"}\n{\"c\"}\n").readBagArray (), null, "JSON Lines - bad input");
+    }
+}
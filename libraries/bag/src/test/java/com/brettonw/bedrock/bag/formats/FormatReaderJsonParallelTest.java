@@ -0,0 +1,62 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagObject;
+import com.brettonw.bedrock.bag.BagTest;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+
+public class FormatReaderJsonParallelTest {
+    @Test
+    public void testParallelRead () throws IOException {
+        var text = Files.readString (new File ("data", "UCS_Satellite_Database_2-1-14.json").toPath ());
+        var expect = new FormatReaderJson (text).readBagArray ();
+
+        // small chunks, so the array is divided into a lot of them
+        var pool = new ForkJoinPool (4);
+        var bagArray = new FormatReaderJsonParallel (text, pool, 1024).readBagArray ();
+        BagTest.report (bagArray, expect, "FormatReaderJsonParallel - small chunks");
+        BagTest.report (new FormatReaderJsonParallel (text).readBagArray (), expect, "FormatReaderJsonParallel - default");
+
+        // separators and brackets inside strings don't divide the array
+        var tricky = new BagArray ();
+        for (int i = 0; i < 2000; ++i) {
+            tricky.add (new BagObject ().put ("a", "x,] \\\"}" + i).put ("b", new BagArray ().add ("[").add (i)));
+            tricky.add (null);
+        }
+        BagTest.report (new FormatReaderJsonParallel (tricky.toString (), pool, 64).readBagArray (), tricky, "FormatReaderJsonParallel - quoted separators");
+
+        // a shared string pool gives every chunk the same instances
+        var reader = new FormatReaderJsonParallel (text, pool, 1024);
+        reader.setStringPool (new StringPool ());
+        var pooled = reader.readBagArray ();
+        BagTest.report (pooled, expect, "FormatReaderJsonParallel - pooled");
+        var last = pooled.getCount () - 1;
+        BagTest.report (pooled.getBagObject (0).keys ()[0] == pooled.getBagObject (last).keys ()[0], true, "FormatReaderJsonParallel - pooled strings are shared across chunks");
+        pool.shutdown ();
+
+        // objects and small arrays are read directly
+        BagTest.report (new FormatReaderJsonParallel ("{\"a\":\"b\"}").readBagObject (), new BagObject ().put ("a", "b"), "FormatReaderJsonParallel - object");
+        BagTest.report (new FormatReaderJsonParallel ("[1,2]").readBagArray (), new BagArray ().add (1).add (2), "FormatReaderJsonParallel - small array");
+    }
+
+    @Test
+    public void testBadInput () throws IOException {
+        var pool = new ForkJoinPool (4);
+        var text = Files.readString (new File ("data", "UCS_Satellite_Database_2-1-14.json").toPath ());
+        BagTest.report (new FormatReaderJsonParallel (text.replaceFirst ("\"Users\":", "\"Users\""), pool, 1024).readBagArray (), null, "FormatReaderJsonParallel - bad element");
+        BagTest.report (new FormatReaderJsonParallel (text.substring (0, text.lastIndexOf (']')), pool, 1024).readBagArray (), null, "FormatReaderJsonParallel - unterminated");
+
+        // a trailing separator at a chunk boundary
+        var elements = new StringBuilder ("[");
+        for (int i = 0; i < 100; ++i) {
+            elements.append ("\"").append (i).append ("\",");
+        }
+        BagTest.report (new FormatReaderJsonParallel (elements.append ("]").toString (), pool, 16).readBagArray (), null, "FormatReaderJsonParallel - trailing separator");
+        pool.shutdown ();
+    }
+}
@@ -0,0 +1,75 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagArrayFrom;
+import com.brettonw.bedrock.bag.BagObject;
+import com.brettonw.bedrock.bag.BagObjectFrom;
+import com.brettonw.bedrock.bag.BagTest;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static com.brettonw.bedrock.bag.formats.FormatReaderJsonPull.Event.*;
+
+public class FormatReaderJsonPullTest {
+    @Test
+    public void testEvents () {
+        var reader = new FormatReaderJsonPull ("{ \"a\": [1, \"two\", null], \"b\": { \"c\": \"}\" }, \"d\": [] }");
+        var events = new StringBuilder ();
+        for (var event = reader.next (); event != null; event = reader.next ()) {
+            events.append (event).append ((event == KEY) || (event == VALUE) ? "(" + reader.getString () + ") " : " ");
+        }
+        BagTest.report (events.toString ().trim (), "START_OBJECT KEY(a) START_ARRAY VALUE(1) VALUE(two) VALUE(null) END_ARRAY KEY(b) START_OBJECT KEY(c) VALUE(}) END_OBJECT KEY(d) START_ARRAY END_ARRAY END_OBJECT", "FormatReaderJsonPull - events");
+        BagTest.report (reader.getDepth (), 0, "FormatReaderJsonPull - depth at end");
+
+        // bad input stops the events
+        reader = new FormatReaderJsonPull ("[1 2]");
+        BagTest.report (reader.next (), START_ARRAY, "FormatReaderJsonPull - bad input start");
+        BagTest.report (reader.next (), VALUE, "FormatReaderJsonPull - bad input value");
+        BagTest.report (reader.next (), null, "FormatReaderJsonPull - bad input fails");
+    }
+
+    @Test
+    public void testSkipAndSubtree () {
+        var reader = new FormatReaderJsonPull ("{ \"skip\": { \"x\": [\"]\", { \"y\": \"\\\"\" }] }, \"keep\": { \"z\": [\"1\", \"2\"] }, \"last\": \"v\" }");
+        BagTest.report (reader.next (), START_OBJECT, "FormatReaderJsonPull - start");
+        BagTest.report (reader.next (), KEY, "FormatReaderJsonPull - skip key");
+        reader.skip ();
+        BagTest.report (reader.getEvent (), END_OBJECT, "FormatReaderJsonPull - skipped subtree");
+        BagTest.report (reader.next (), KEY, "FormatReaderJsonPull - keep key");
+        BagTest.report (reader.readSubtree (), BagObjectFrom.string ("{\"z\":[\"1\",\"2\"]}"), "FormatReaderJsonPull - subtree");
+        BagTest.report (reader.next (), KEY, "FormatReaderJsonPull - last key");
+        BagTest.report (reader.readSubtree (), "v", "FormatReaderJsonPull - subtree value");
+        BagTest.report (reader.next (), END_OBJECT, "FormatReaderJsonPull - end");
+        BagTest.report (reader.next (), null, "FormatReaderJsonPull - finished");
+    }
+
+    @Test
+    public void testFilteredRead () throws IOException {
+        var text = Files.readString (new File ("data", "bagObject.json").toPath ());
+        var full = BagObjectFrom.string (text);
+        var path = "glossary/GlossDiv/GlossList/GlossEntry/GlossDef";
+        var filtered = new FormatReaderJsonPull (text).readBagObject (path, "glossary/title", "glossary/missing");
+        var expect = new BagObject ()
+                .put (path, full.getObject (path))
+                .put ("glossary/title", full.getString ("glossary/title"));
+        BagTest.report (filtered, expect, "FormatReaderJsonPull - filtered object");
+
+        // array levels are kept, with each element filtered
+        var file = new File ("data", "UCS_Satellite_Database_2-1-14.json");
+        var satellites = BagArrayFrom.file (file);
+        var names = new BagArray (satellites.getCount ());
+        for (int i = 0, end = satellites.getCount (); i < end; ++i) {
+            names.add (new BagObject ().put ("Users", satellites.getBagObject (i).getString ("Users")));
+        }
+        try (var inputStream = new FileInputStream (file)) {
+            BagTest.report (new FormatReaderJsonPull (inputStream).readBagArray ("Users"), names, "FormatReaderJsonPull - filtered array");
+        }
+
+        BagTest.report (new FormatReaderJsonPull ("[1,2]").readBagObject ("a"), null, "FormatReaderJsonPull - filtered wrong type");
+        BagTest.report (new FormatReaderJsonPull ("{\"a\":{\"b\":\"c\"").readBagObject ("a/b"), null, "FormatReaderJsonPull - filtered bad input");
+    }
+}
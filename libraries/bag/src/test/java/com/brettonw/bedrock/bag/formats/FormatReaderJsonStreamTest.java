@@ -0,0 +1,49 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagArrayFrom;
+import com.brettonw.bedrock.bag.BagObjectFrom;
+import com.brettonw.bedrock.bag.BagTest;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class FormatReaderJsonStreamTest {
+    // a Reader that hands out a few characters at a time, so values cross the buffer boundaries
+    private static Reader trickle (String string) {
+        return new FilterReader (new StringReader (string)) {
+            @Override
+            public int read (char[] chars, int offset, int length) throws IOException {
+                return super.read (chars, offset, Math.min (length, 3));
+            }
+        };
+    }
+
+    @Test
+    public void testStreamRead () throws IOException {
+        var file = new File ("data", "UCS_Satellite_Database_2-1-14.json");
+        var expect = BagArrayFrom.file (file);
+        try (var inputStream = new FileInputStream (file)) {
+            BagTest.report (new FormatReaderJsonStream (inputStream).readBagArray (), expect, "FormatReaderJsonStream - array");
+        }
+        BagTest.report (BagArrayFrom.inputStream (new FileInputStream (file)), expect, "FormatReaderJsonStream - BagArrayFrom.inputStream");
+
+        var text = Files.readString (new File ("data", "bagObject.json").toPath ());
+        var expectObject = BagObjectFrom.string (text);
+        BagTest.report (new FormatReaderJsonStream (trickle (text)).readBagObject (), expectObject, "FormatReaderJsonStream - small reads");
+        BagTest.report (new FormatReaderJsonStream (trickle (text.replace ("\n", "\r\n"))).readBagObject (), expectObject, "FormatReaderJsonStream - CRLF");
+        BagTest.report (BagObjectFrom.inputStream (new ByteArrayInputStream (text.getBytes (StandardCharsets.UTF_8))), expectObject, "FormatReaderJsonStream - BagObjectFrom.inputStream");
+
+        // escapes and nulls are read as they are by FormatReaderJson
+        var escaped = "{\"a\":\"say \\\"hi\\\"\",\"b\":null,\"c\":[1,null,true]}";
+        BagTest.report (new FormatReaderJsonStream (trickle (escaped)).readBagObject (), BagObjectFrom.string (escaped), "FormatReaderJsonStream - escapes");
+    }
+
+    @Test
+    public void testBadInput () {
+        BagTest.report (new FormatReaderJsonStream (new StringReader ("{\"a\":\"b\",}")).readBagObject (), null, "FormatReaderJsonStream - bad object");
+        BagTest.report (new FormatReaderJsonStream (new StringReader ("[1,2")).readBagArray (), null, "FormatReaderJsonStream - unterminated array");
+        BagTest.report (new FormatReaderJsonStream (new StringReader ("")).readBagObject (), null, "FormatReaderJsonStream - empty input");
+    }
+}
@@ -1,10 +1,42 @@
 package com.brettonw.bedrock.bag.formats;
 
+import com.brettonw.bedrock.bag.BagArray;
+import com.brettonw.bedrock.bag.BagObject;
+import com.brettonw.bedrock.bag.BagTest;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
 public class FormatWriterJsonTest {
     @Test
     public void testFormatWriterJson () {
 
     }
+
+    @Test
+    public void testStreaming () throws IOException {
+        var bagObject = new BagObject ()
+                .put ("name", "stream é")
+                .put ("child/value", "x")
+                .put ("list", new BagArray ().add ("one").add (null).add (new BagObject ().put ("a", "b")));
+        var expect = "{\"child\":{\"value\":\"x\"},\"list\":[\"one\",null,{\"a\":\"b\"}],\"name\":\"stream é\"}";
+        BagTest.report (bagObject.toString (MimeType.JSON), expect, "FormatWriterJson - string");
+
+        var writer = new StringWriter ();
+        BagTest.report (FormatWriter.write (bagObject, MimeType.JSON, writer), true, "FormatWriterJson - streamed");
+        BagTest.report (writer.toString (), expect, "FormatWriterJson - streamed to a Writer");
+
+        var outputStream = new ByteArrayOutputStream ();
+        FormatWriter.write (bagObject.getBagArray ("list"), MimeType.JSON, outputStream);
+        BagTest.report (outputStream.toString (StandardCharsets.UTF_8), "[\"one\",null,{\"a\":\"b\"}]", "FormatWriterJson - streamed to an OutputStream");
+
+        // formats without a streaming writer fall back to their string form
+        var stringBuilder = new StringBuilder ();
+        FormatWriter.write (new BagObject ().put ("a", "b"), MimeType.URL, stringBuilder);
+        BagTest.report (stringBuilder.toString (), "a=b&", "FormatWriterJson - fallback");
+        BagTest.report (FormatWriter.write (bagObject, "bogus", stringBuilder), false, "FormatWriterJson - unknown format");
+    }
 }
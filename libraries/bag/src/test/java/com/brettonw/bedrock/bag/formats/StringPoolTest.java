@@ -0,0 +1,61 @@
+package com.brettonw.bedrock.bag.formats;
+
+import com.brettonw.bedrock.bag.BagTest;
+import com.brettonw.bedrock.bag.Footprint;
+import com.brettonw.bedrock.bag.SourceAdapterReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+public class StringPoolTest {
+    @Test
+    public void testIntern () {
+        var stringPool = new StringPool (2);
+        var a = new String ("a");
+        BagTest.report (stringPool.intern (a) == a, true, "StringPool - first instance is pooled");
+        BagTest.report (stringPool.intern (new String ("a")) == a, true, "StringPool - later instances are shared");
+        stringPool.intern ("b");
+        stringPool.intern ("a");
+        stringPool.intern ("c");
+        BagTest.report (stringPool.size (), 2, "StringPool - bounded size");
+        var b = new String ("b");
+        BagTest.report (stringPool.intern (b) == b, true, "StringPool - least recently used is evicted");
+
+        var longString = "x".repeat (StringPool.MAX_LENGTH + 1);
+        stringPool.intern (longString);
+        BagTest.report (stringPool.intern (new String (longString)) == longString, false, "StringPool - long strings are not pooled");
+
+        var weak = StringPool.weak ();
+        var c = new String ("c");
+        BagTest.report (weak.intern (new String ("c")) == weak.intern (c), true, "StringPool - weak pool shares strings");
+        BagTest.report (weak.intern (null), null, "StringPool - null");
+
+        // a local pool hands out the instances from the pool it fronts
+        var shared = new StringPool ();
+        var d = new String ("d");
+        shared.intern (d);
+        var local = shared.local ();
+        BagTest.report (local.intern (new String ("d")) == d, true, "StringPool - local pool uses the shared instances");
+        var e = new String ("e");
+        BagTest.report (local.intern (e) == e, true, "StringPool - local pool adds to the shared pool");
+        BagTest.report (shared.intern (new String ("e")) == e, true, "StringPool - shared pool has the local additions");
+    }
+
+    @Test
+    public void testPooledRead () throws IOException {
+        var json = new StringBuilder ("[");
+        for (int i = 0; i < 100; ++i) {
+            json.append ((i > 0) ? "," : "").append ("{\"HR\":").append (i).append (",\"Type\":\"").append ((i % 2 == 0) ? "even" : "odd").append ("\"}");
+        }
+        json.append ("]");
+
+        var plain = FormatReader.readBagArray (new SourceAdapterReader (json.toString (), MimeType.JSON));
+        var pooled = FormatReader.readBagArray (new SourceAdapterReader (json.toString (), MimeType.JSON).setStringPool (new StringPool ()));
+        BagTest.report (pooled, plain, "StringPool - pooled read has the same contents");
+        BagTest.report (pooled.getBagObject (0).keys ()[0] == pooled.getBagObject (1).keys ()[0], true, "StringPool - rows share keys");
+        BagTest.report (pooled.getBagObject (0).getString ("Type") == pooled.getBagObject (2).getString ("Type"), true, "StringPool - rows share values");
+        BagTest.report (Footprint.measure (pooled, true).getDuplicateStringCount (), 0, "StringPool - no duplicates");
+        BagTest.report (Footprint.measure (plain, true).getDuplicateStringCount () > 0, true, "StringPool - duplicates without a pool");
+        BagTest.report (pooled.estimateRetainedSize () < plain.estimateRetainedSize (), true, "StringPool - pooled read is smaller");
+    }
+}
@@ -1,6 +1,7 @@
 package com.brettonw.bedrock.service;
 
 import com.brettonw.bedrock.bag.*;
+import com.brettonw.bedrock.bag.formats.FormatWriter;
 import com.brettonw.bedrock.bag.formats.MimeType;
 import org.apache.commons.io.input.ReversedLinesFileReader;
 import com.brettonw.bedrock.logger.*;
@@ -81,7 +82,13 @@ public class Base extends HttpServlet {
         return Base.class.getPackage ().getImplementationVersion ();
     }
 
+    // precompiled paths for the schema lookups done on every request
+    private static final KeyPath PARAMETERS_PATH = Key.compile (PARAMETERS);
+    private static final KeyPath STRICT_PATH = Key.compile (STRICT);
+    private static final KeyPath EVENT_FILTER_PATH = Key.compile (EVENT_FILTER);
+
     private final Map<String, Handler> handlers = new HashMap<> ();
+    private final Map<String, KeyPath> eventPaths = new HashMap<> ();
 
     private String configurationResourcePath = "/WEB-INF/configuration.json";
     private BagObject configuration;
@@ -89,8 +96,9 @@ public class Base extends HttpServlet {
     protected EventFilterHandler eventFilterHandler;
 
     protected BagObject getSchema () {
-        // return a deep copy so the user can't accidentally modify it
-        return new BagObject (schema);
+        // return a copy so the user can't accidentally modify it, the schema is frozen so a
+        // copy-on-write copy is enough
+        return schema.copyOnWrite ();
     }
 
     protected BagObject getConfiguration () {
@@ -170,6 +178,11 @@ public class Base extends HttpServlet {
             // if the schema didn't supply a name, add one
             schema.put (NAME, getName ());
 
+            // the schema and configuration are read by every request thread, so freeze them now
+            // that they are complete
+            schema = schema.freeze ();
+            configuration = configuration.freeze ();
+
             // return the built configuration
             return configuration;
         } else {
@@ -254,11 +267,10 @@ public class Base extends HttpServlet {
             log.warn ("'Content-Type' is not set by the requestor, using default (" + mimeType + ")");
         }
 
-        // extract the bedrock data that's been posted, we require that it's a JSON object
+        // extract the bedrock data that's been posted, we require that it's a JSON object. it's
+        // parsed as it is read, rather than read into a string first
         log.debug ("Extract POST data for (" + mimeType + ") on " + request.getQueryString());
-        var sourceAdapter = new SourceAdapterReader(request.getInputStream (), mimeType);
-        var requestString = sourceAdapter.getStringData ();
-        var query = BagObjectFrom.string (requestString, mimeType);
+        var query = BagObjectFrom.inputStream (request.getInputStream (), mimeType);
         var event = (query != null) ? handleEvent (query, request) : errorOnRequest ("Invalid or empty POST data.", request);
         finishRequest (event, response);
     }
@@ -285,8 +297,10 @@ public class Base extends HttpServlet {
         response.setHeader ("X-Content-Type-Options", "nosniff");
         addCorsHeaders (response);
 
+        // the response is written straight to the output, rather than built as a string first
         var out = response.getWriter ();
-        out.println (event.getResponse ().toString (MimeType.JSON));
+        FormatWriter.write (event.getResponse (), MimeType.JSON, out);
+        out.println ();
         out.close ();
     }
 
@@ -298,26 +312,24 @@ public class Base extends HttpServlet {
     private void validateParameters (BagObject query, boolean strict, BagObject parameterSpecification, BagArray validationErrors) {
         if (strict) {
             // loop over the query parameters to be sure they are all valid
-            var queryParameters = query.keys ();
-            for (var queryParameter : queryParameters) {
+            query.forEach ((queryParameter, value) -> {
                 if (!queryParameter.equals(EVENT)) {
                     if ((parameterSpecification == null) || (!parameterSpecification.has(queryParameter))) {
                         validationErrors.add("Unspecified parameter: '" + queryParameter + "'");
                     }
                 }
-            }
+            });
         }
 
         // loop over the parameter specification to be sure all of the required ones are present
         if (parameterSpecification != null) {
-            var expectedParameters = parameterSpecification.keys ();
-            for (var expectedParameter : expectedParameters) {
-                if (parameterSpecification.getBoolean(Key.cat(expectedParameter, REQUIRED), () -> false)) {
+            parameterSpecification.forEach ((expectedParameter, specification) -> {
+                if ((specification instanceof BagObject) && ((BagObject) specification).getBoolean(REQUIRED, () -> false)) {
                     if (!query.has(expectedParameter)) {
                         validationErrors.add("Missing required parameter: '" + expectedParameter + "'");
                     }
                 }
-            }
+            });
         }
     }
 
@@ -329,18 +341,19 @@ public class Base extends HttpServlet {
                 // a known event
                 var eventName = event.getEventName ();
                 if (eventName != null) {
-                    var eventSpecification = schema.getBagObject (Key.cat (EVENTS, eventName));
+                    var eventPath = eventPaths.get (eventName);
+                    var eventSpecification = (eventPath != null) ? schema.getBagObject (eventPath) : null;
                     if (eventSpecification != null) {
                         // validate the query parameters
-                        var parameterSpecification = eventSpecification.getBagObject (PARAMETERS);
-                        var strict = eventSpecification.getBoolean (STRICT, () -> true);
+                        var parameterSpecification = eventSpecification.getBagObject (PARAMETERS_PATH);
+                        var strict = eventSpecification.getBoolean (STRICT_PATH, () -> true);
                         var validationErrors = new BagArray ();
                         validateParameters (query, strict, parameterSpecification, validationErrors);
 
                         // if the validation passed
                         if (validationErrors.getCount () == 0) {
                             // give an opportunity to filter the event before it happens
-                            if ((eventFilterHandler == null) || (eventFilterHandler.isAllowedEvent (event, configuration.getBagObject (EVENT_FILTER)))) {
+                            if ((eventFilterHandler == null) || (eventFilterHandler.isAllowedEvent (event, configuration.getBagObject (EVENT_FILTER_PATH)))) {
                                 // get the handler, and try to take care of business...
                                 var handler = handlers.get (eventName);
                                 if (handler != null) {
@@ -372,6 +385,9 @@ public class Base extends HttpServlet {
     }
 
     public boolean install (String eventName) {
+        // compile the path to the event specification in the schema, so the request handler
+        // doesn't have to build it on every request
+        eventPaths.put (eventName, Key.compile (EVENTS, eventName));
         try {
             var handler = new Handler (eventName, this);
             handlers.put (handler.getEventName (), handler);